@@ -0,0 +1,128 @@
+/*
+ * Copyright 2016 Tamir Shomer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.os;
+
+/**
+ * Replaces the framework class on the JVM.
+ *
+ * The framework class reads its fields from system properties and the runtime through native
+ * methods that do not exist outside of a device, so the first use of {@code Build.VERSION.SDK_INT}
+ * would fail. This class describes an Android 10 device, the version of android-all the
+ * benchmarks run against.
+ */
+public class Build {
+    public static final String UNKNOWN = "unknown";
+    public static final String ID = "QP1A";
+    public static final String DISPLAY = "QP1A";
+    public static final String PRODUCT = "jvm";
+    public static final String DEVICE = "jvm";
+    public static final String BOARD = UNKNOWN;
+    public static final String CPU_ABI = "x86_64";
+    public static final String CPU_ABI2 = "";
+    public static final String MANUFACTURER = UNKNOWN;
+    public static final String BRAND = UNKNOWN;
+    public static final String MODEL = "jvm";
+    public static final String BOOTLOADER = UNKNOWN;
+    public static final String RADIO = UNKNOWN;
+    public static final String HARDWARE = UNKNOWN;
+    public static final boolean IS_EMULATOR = false;
+    public static final String SERIAL = UNKNOWN;
+    public static final String[] SUPPORTED_ABIS = {"x86_64"};
+    public static final String[] SUPPORTED_32_BIT_ABIS = {};
+    public static final String[] SUPPORTED_64_BIT_ABIS = {"x86_64"};
+    public static final String TYPE = "user";
+    public static final String TAGS = "release-keys";
+    public static final String FINGERPRINT = "jvm/jvm/jvm:10/QP1A/0:user/release-keys";
+    public static final boolean IS_TREBLE_ENABLED = false;
+    public static final long TIME = 0;
+    public static final String USER = UNKNOWN;
+    public static final String HOST = UNKNOWN;
+    public static final boolean IS_DEBUGGABLE = false;
+    public static final boolean IS_ENG = false;
+    public static final boolean IS_USERDEBUG = false;
+    public static final boolean IS_USER = true;
+    public static final boolean IS_CONTAINER = false;
+    public static final boolean PERMISSIONS_REVIEW_REQUIRED = true;
+
+    public static class VERSION {
+        public static final String INCREMENTAL = "0";
+        public static final String RELEASE = "10";
+        public static final String BASE_OS = "";
+        public static final String SECURITY_PATCH = "";
+        public static final String SDK = "29";
+        public static final int SDK_INT = 29;
+        public static final int FIRST_SDK_INT = 29;
+        public static final int PREVIEW_SDK_INT = 0;
+        public static final String PREVIEW_SDK_FINGERPRINT = "REL";
+        public static final String CODENAME = "REL";
+        public static final String[] ACTIVE_CODENAMES = {};
+        public static final int RESOURCES_SDK_INT = 29;
+        public static final int MIN_SUPPORTED_TARGET_SDK_INT = 0;
+    }
+
+    public static class VERSION_CODES {
+        public static final int CUR_DEVELOPMENT = 10000;
+        public static final int BASE = 1;
+        public static final int BASE_1_1 = 2;
+        public static final int CUPCAKE = 3;
+        public static final int DONUT = 4;
+        public static final int ECLAIR = 5;
+        public static final int ECLAIR_0_1 = 6;
+        public static final int ECLAIR_MR1 = 7;
+        public static final int FROYO = 8;
+        public static final int GINGERBREAD = 9;
+        public static final int GINGERBREAD_MR1 = 10;
+        public static final int HONEYCOMB = 11;
+        public static final int HONEYCOMB_MR1 = 12;
+        public static final int HONEYCOMB_MR2 = 13;
+        public static final int ICE_CREAM_SANDWICH = 14;
+        public static final int ICE_CREAM_SANDWICH_MR1 = 15;
+        public static final int JELLY_BEAN = 16;
+        public static final int JELLY_BEAN_MR1 = 17;
+        public static final int JELLY_BEAN_MR2 = 18;
+        public static final int KITKAT = 19;
+        public static final int KITKAT_WATCH = 20;
+        public static final int L = 21;
+        public static final int LOLLIPOP = 21;
+        public static final int LOLLIPOP_MR1 = 22;
+        public static final int M = 23;
+        public static final int N = 24;
+        public static final int N_MR1 = 25;
+        public static final int O = 26;
+        public static final int O_MR1 = 27;
+        public static final int P = 28;
+        public static final int Q = 29;
+    }
+
+    public static String getSerial() {
+        return SERIAL;
+    }
+
+    public static String getRadioVersion() {
+        return null;
+    }
+
+    public static boolean is64BitAbi(String abi) {
+        return abi.endsWith("64");
+    }
+
+    public static boolean isBuildConsistent() {
+        return true;
+    }
+
+    public static void ensureFingerprintProperty() {}
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright 2016 Tamir Shomer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.os;
+
+/**
+ * Replaces the framework class on the JVM, where its native methods do not exist.
+ * No property is set, so every lookup returns its default value.
+ */
+public final class SystemProperties {
+    public static final int PROP_VALUE_MAX = 91;
+
+    private SystemProperties() {}
+
+    public static String get(String key) {
+        return "";
+    }
+
+    public static String get(String key, String def) {
+        return def;
+    }
+
+    public static int getInt(String key, int def) {
+        return def;
+    }
+
+    public static long getLong(String key, long def) {
+        return def;
+    }
+
+    public static boolean getBoolean(String key, boolean def) {
+        return def;
+    }
+
+    public static void set(String key, String val) {}
+
+    public static void addChangeCallback(Runnable callback) {}
+
+    public static void reportSyspropChanged() {}
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2016 Tamir Shomer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.os;
+
+/**
+ * Replaces the framework class on the JVM, where its native methods do not exist.
+ * Tracing is never enabled, so all sections and counters are dropped.
+ */
+public final class Trace {
+    public static final long TRACE_TAG_NEVER = 0L;
+    public static final long TRACE_TAG_ALWAYS = 1L;
+    public static final long TRACE_TAG_GRAPHICS = 2L;
+    public static final long TRACE_TAG_INPUT = 4L;
+    public static final long TRACE_TAG_VIEW = 8L;
+    public static final long TRACE_TAG_WEBVIEW = 16L;
+    public static final long TRACE_TAG_WINDOW_MANAGER = 32L;
+    public static final long TRACE_TAG_ACTIVITY_MANAGER = 64L;
+    public static final long TRACE_TAG_SYNC_MANAGER = 128L;
+    public static final long TRACE_TAG_AUDIO = 256L;
+    public static final long TRACE_TAG_VIDEO = 512L;
+    public static final long TRACE_TAG_CAMERA = 1024L;
+    public static final long TRACE_TAG_HAL = 2048L;
+    public static final long TRACE_TAG_APP = 4096L;
+    public static final long TRACE_TAG_RESOURCES = 8192L;
+    public static final long TRACE_TAG_DALVIK = 16384L;
+    public static final long TRACE_TAG_RS = 32768L;
+    public static final long TRACE_TAG_BIONIC = 65536L;
+    public static final long TRACE_TAG_POWER = 131072L;
+    public static final long TRACE_TAG_PACKAGE_MANAGER = 262144L;
+    public static final long TRACE_TAG_SYSTEM_SERVER = 524288L;
+    public static final long TRACE_TAG_DATABASE = 1048576L;
+    public static final long TRACE_TAG_NETWORK = 2097152L;
+    public static final long TRACE_TAG_ADB = 4194304L;
+    public static final long TRACE_TAG_VIBRATOR = 8388608L;
+    public static final long TRACE_TAG_AIDL = 16777216L;
+    public static final long TRACE_TAG_NNAPI = 33554432L;
+    public static final long TRACE_TAG_RRO = 67108864L;
+
+    private Trace() {}
+
+    public static boolean isTagEnabled(long traceTag) {
+        return false;
+    }
+
+    public static void traceCounter(long traceTag, String counterName, int counterValue) {}
+
+    public static void setAppTracingAllowed(boolean allowed) {}
+
+    public static void setTracingEnabled(boolean enabled, int debugFlags) {}
+
+    public static void traceBegin(long traceTag, String methodName) {}
+
+    public static void traceEnd(long traceTag) {}
+
+    public static void asyncTraceBegin(long traceTag, String methodName, int cookie) {}
+
+    public static void asyncTraceEnd(long traceTag, String methodName, int cookie) {}
+
+    public static boolean isEnabled() {
+        return false;
+    }
+
+    public static void beginSection(String sectionName) {}
+
+    public static void endSection() {}
+
+    public static void beginAsyncSection(String methodName, int cookie) {}
+
+    public static void endAsyncSection(String methodName, int cookie) {}
+
+    public static void setCounter(String counterName, long counterValue) {}
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2016 Tamir Shomer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.util;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+/**
+ * Replaces the framework class on the JVM, where its native methods do not exist.
+ * Messages of warning level and above are printed to the standard error stream.
+ */
+public final class Log {
+    public static final int VERBOSE = 2;
+    public static final int DEBUG = 3;
+    public static final int INFO = 4;
+    public static final int WARN = 5;
+    public static final int ERROR = 6;
+    public static final int ASSERT = 7;
+
+    public static final int LOG_ID_MAIN = 0;
+    public static final int LOG_ID_RADIO = 1;
+    public static final int LOG_ID_EVENTS = 2;
+    public static final int LOG_ID_SYSTEM = 3;
+    public static final int LOG_ID_CRASH = 4;
+
+    private Log() {}
+
+    public static int v(String tag, String msg) {
+        return println(VERBOSE, tag, msg);
+    }
+
+    public static int v(String tag, String msg, Throwable tr) {
+        return println(VERBOSE, tag, msg + '\n' + getStackTraceString(tr));
+    }
+
+    public static int d(String tag, String msg) {
+        return println(DEBUG, tag, msg);
+    }
+
+    public static int d(String tag, String msg, Throwable tr) {
+        return println(DEBUG, tag, msg + '\n' + getStackTraceString(tr));
+    }
+
+    public static int i(String tag, String msg) {
+        return println(INFO, tag, msg);
+    }
+
+    public static int i(String tag, String msg, Throwable tr) {
+        return println(INFO, tag, msg + '\n' + getStackTraceString(tr));
+    }
+
+    public static int w(String tag, String msg) {
+        return println(WARN, tag, msg);
+    }
+
+    public static int w(String tag, String msg, Throwable tr) {
+        return println(WARN, tag, msg + '\n' + getStackTraceString(tr));
+    }
+
+    public static int w(String tag, Throwable tr) {
+        return println(WARN, tag, getStackTraceString(tr));
+    }
+
+    public static boolean isLoggable(String tag, int level) {
+        return level >= WARN;
+    }
+
+    public static int e(String tag, String msg) {
+        return println(ERROR, tag, msg);
+    }
+
+    public static int e(String tag, String msg, Throwable tr) {
+        return println(ERROR, tag, msg + '\n' + getStackTraceString(tr));
+    }
+
+    public static int wtf(String tag, String msg) {
+        return println(ASSERT, tag, msg);
+    }
+
+    public static int wtfStack(String tag, String msg) {
+        return println(ASSERT, tag, msg);
+    }
+
+    public static int wtf(String tag, Throwable tr) {
+        return println(ASSERT, tag, getStackTraceString(tr));
+    }
+
+    public static int wtf(String tag, String msg, Throwable tr) {
+        return println(ASSERT, tag, msg + '\n' + getStackTraceString(tr));
+    }
+
+    public static String getStackTraceString(Throwable tr) {
+        if (tr == null) {
+            return "";
+        }
+
+        StringWriter writer = new StringWriter();
+        tr.printStackTrace(new PrintWriter(writer));
+        return writer.toString();
+    }
+
+    public static int println(int priority, String tag, String msg) {
+        if (!isLoggable(tag, priority)) {
+            return 0;
+        }
+
+        System.err.println(tag + ": " + msg);
+        return msg.length();
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2016 Tamir Shomer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.tamir7.contacts;
+
+import android.content.ContentInterface;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentValues;
+import android.content.OperationApplicationException;
+import android.content.res.AssetFileDescriptor;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.CancellationSignal;
+import android.os.ParcelFileDescriptor;
+
+import java.util.ArrayList;
+
+/**
+ * A provider that supports nothing, for stand-ins to override the calls they serve.
+ * Query a provider through a {@link ProviderResolver}.
+ */
+abstract class AbstractContentInterface implements ContentInterface {
+
+    @Override
+    public Cursor query(Uri uri, String[] projection, Bundle queryArgs, CancellationSignal signal) {
+        throw new UnsupportedOperationException("query " + uri);
+    }
+
+    @Override
+    public String getType(Uri uri) {
+        return null;
+    }
+
+    @Override
+    public String[] getStreamTypes(Uri uri, String mimeTypeFilter) {
+        return null;
+    }
+
+    @Override
+    public Uri canonicalize(Uri uri) {
+        return null;
+    }
+
+    @Override
+    public Uri uncanonicalize(Uri uri) {
+        return uri;
+    }
+
+    @Override
+    public boolean refresh(Uri uri, Bundle args, CancellationSignal signal) {
+        return false;
+    }
+
+    @Override
+    public Uri insert(Uri uri, ContentValues values) {
+        throw new UnsupportedOperationException("insert " + uri);
+    }
+
+    @Override
+    public int bulkInsert(Uri uri, ContentValues[] values) {
+        throw new UnsupportedOperationException("bulkInsert " + uri);
+    }
+
+    @Override
+    public int delete(Uri uri, String selection, String[] selectionArgs) {
+        throw new UnsupportedOperationException("delete " + uri);
+    }
+
+    @Override
+    public int update(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+        throw new UnsupportedOperationException("update " + uri);
+    }
+
+    @Override
+    public ParcelFileDescriptor openFile(Uri uri, String mode, CancellationSignal signal) {
+        throw new UnsupportedOperationException("openFile " + uri);
+    }
+
+    @Override
+    public AssetFileDescriptor openAssetFile(Uri uri, String mode, CancellationSignal signal) {
+        throw new UnsupportedOperationException("openAssetFile " + uri);
+    }
+
+    @Override
+    public AssetFileDescriptor openTypedAssetFile(Uri uri, String mimeTypeFilter, Bundle opts,
+                                                  CancellationSignal signal) {
+        throw new UnsupportedOperationException("openTypedAssetFile " + uri);
+    }
+
+    @Override
+    public ContentProviderResult[] applyBatch(String authority, ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        throw new UnsupportedOperationException("applyBatch " + authority);
+    }
+
+    @Override
+    public Bundle call(String authority, String method, String arg, Bundle extras) {
+        throw new UnsupportedOperationException("call " + method);
+    }
+}
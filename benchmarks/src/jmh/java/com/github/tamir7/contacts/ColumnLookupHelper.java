@@ -0,0 +1,200 @@
+/*
+ * Copyright 2016 Tamir Shomer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.github.tamir7.contacts;
+
+import android.database.Cursor;
+import android.provider.ContactsContract;
+
+/**
+ * The row mapping of the library before column plans: a helper is created for every row, and
+ * every getter looks up the index of its column by name. Kept as the baseline of
+ * {@link CursorMappingBenchmark}.
+ */
+final class ColumnLookupHelper {
+    private final Cursor c;
+
+    ColumnLookupHelper(Cursor c) {
+        this.c = c;
+    }
+
+    Long getContactId() {
+        return getLong(ContactsContract.RawContacts.CONTACT_ID);
+    }
+
+    /**
+     * Adds the values of the current row to a contact, like Query.updateContact did with this helper.
+     */
+    void updateContact(Contact contact) {
+        String displayName = getString(ContactsContract.Data.DISPLAY_NAME);
+        if (displayName != null) {
+            contact.addDisplayName(displayName);
+        }
+
+        String photoUri = getString(ContactsContract.Data.PHOTO_URI);
+        if (photoUri != null) {
+            contact.addPhotoUri(photoUri);
+        }
+
+        String mimeType = getString(ContactsContract.Data.MIMETYPE);
+        switch (mimeType) {
+            case ContactsContract.CommonDataKinds.Phone.CONTENT_ITEM_TYPE:
+                PhoneNumber phoneNumber = getPhoneNumber();
+                if (phoneNumber != null) {
+                    contact.addPhoneNumber(phoneNumber);
+                }
+                break;
+            case ContactsContract.CommonDataKinds.Email.CONTENT_ITEM_TYPE:
+                Email email = getEmail();
+                if (email != null) {
+                    contact.addEmail(email);
+                }
+                break;
+            case ContactsContract.CommonDataKinds.Event.CONTENT_ITEM_TYPE:
+                Event event = getEvent();
+                if (event != null) {
+                    contact.addEvent(event);
+                }
+                break;
+            case ContactsContract.CommonDataKinds.StructuredName.CONTENT_ITEM_TYPE:
+                String givenName = getString(ContactsContract.CommonDataKinds.StructuredName.GIVEN_NAME);
+                if (givenName != null) {
+                    contact.addGivenName(givenName);
+                }
+
+                String familyName = getString(ContactsContract.CommonDataKinds.StructuredName.FAMILY_NAME);
+                if (familyName != null) {
+                    contact.addFamilyName(familyName);
+                }
+                break;
+            case ContactsContract.CommonDataKinds.Organization.CONTENT_ITEM_TYPE:
+                String companyName = getString(ContactsContract.CommonDataKinds.Organization.COMPANY);
+                if (companyName != null) {
+                    contact.addCompanyName(companyName);
+                }
+
+                String companyTitle = getString(ContactsContract.CommonDataKinds.Organization.TITLE);
+                if (companyTitle != null) {
+                    contact.addCompanyTitle(companyTitle);
+                }
+                break;
+            case ContactsContract.CommonDataKinds.Website.CONTENT_ITEM_TYPE:
+                String website = getString(ContactsContract.CommonDataKinds.Website.URL);
+                if (website != null) {
+                    contact.addWebsite(website);
+                }
+                break;
+            case ContactsContract.CommonDataKinds.Note.CONTENT_ITEM_TYPE:
+                String note = getString(ContactsContract.CommonDataKinds.Note.NOTE);
+                if (note != null) {
+                    contact.addNote(note);
+                }
+                break;
+            case ContactsContract.CommonDataKinds.StructuredPostal.CONTENT_ITEM_TYPE:
+                Address address = getAddress();
+                if (address != null) {
+                    contact.addAddress(address);
+                }
+                break;
+        }
+    }
+
+    private Address getAddress() {
+        String address = getString(ContactsContract.CommonDataKinds.StructuredPostal.FORMATTED_ADDRESS);
+        if (address == null) {
+            return null;
+        }
+
+        Integer typeValue = getInt(ContactsContract.CommonDataKinds.StructuredPostal.TYPE);
+        Address.Type type = typeValue == null ? Address.Type.UNKNOWN : Address.Type.fromValue(typeValue);
+
+        String street = getString(ContactsContract.CommonDataKinds.StructuredPostal.STREET);
+        String city = getString(ContactsContract.CommonDataKinds.StructuredPostal.CITY);
+        String region = getString(ContactsContract.CommonDataKinds.StructuredPostal.REGION);
+        String postcode = getString(ContactsContract.CommonDataKinds.StructuredPostal.POSTCODE);
+        String country = getString(ContactsContract.CommonDataKinds.StructuredPostal.COUNTRY);
+
+        if (!type.equals(Address.Type.CUSTOM)) {
+            return new Address(address, street, city, region, postcode, country, type);
+        }
+
+        String label = getString(ContactsContract.CommonDataKinds.StructuredPostal.LABEL);
+        return new Address(address, street, city, region, postcode, country, label);
+    }
+
+    private PhoneNumber getPhoneNumber() {
+        String number = getString(ContactsContract.CommonDataKinds.Phone.NUMBER);
+        if (number == null) {
+            return null;
+        }
+
+        String normalizedNumber = getString(ContactsContract.CommonDataKinds.Phone.NORMALIZED_NUMBER);
+        Integer typeValue = getInt(ContactsContract.CommonDataKinds.Phone.TYPE);
+        PhoneNumber.Type type = typeValue == null ? PhoneNumber.Type.UNKNOWN :
+                PhoneNumber.Type.fromValue(typeValue);
+        if (!type.equals(PhoneNumber.Type.CUSTOM)) {
+            return new PhoneNumber(number, type, normalizedNumber);
+        }
+
+        return new PhoneNumber(number, getString(ContactsContract.CommonDataKinds.Phone.LABEL), normalizedNumber);
+    }
+
+    private Email getEmail() {
+        String address = getString(ContactsContract.CommonDataKinds.Email.ADDRESS);
+        if (address == null) {
+            return null;
+        }
+
+        Integer typeValue = getInt(ContactsContract.CommonDataKinds.Email.TYPE);
+        Email.Type type = typeValue == null ? Email.Type.UNKNOWN : Email.Type.fromValue(typeValue);
+        if (!type.equals(Email.Type.CUSTOM)) {
+            return new Email(address, type);
+        }
+
+        return new Email(address, getString(ContactsContract.CommonDataKinds.Email.LABEL));
+    }
+
+    private Event getEvent() {
+        String startDate = getString(ContactsContract.CommonDataKinds.Event.START_DATE);
+        if (startDate == null) {
+            return null;
+        }
+
+        Integer typeValue = getInt(ContactsContract.CommonDataKinds.Event.TYPE);
+        Event.Type type = typeValue == null ? Event.Type.UNKNOWN : Event.Type.fromValue(typeValue);
+        if (!type.equals(Event.Type.CUSTOM)) {
+            return new Event(startDate, type);
+        }
+
+        return new Event(startDate, getString(ContactsContract.CommonDataKinds.Event.LABEL));
+    }
+
+    private String getString(String column) {
+        int index = c.getColumnIndex(column);
+        return index == -1 ? null : c.getString(index);
+    }
+
+    private Integer getInt(String column) {
+        int index = c.getColumnIndex(column);
+        return index == -1 ? null : c.getInt(index);
+    }
+
+    private Long getLong(String column) {
+        int index = c.getColumnIndex(column);
+        return index == -1 ? null : c.getLong(index);
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright 2016 Tamir Shomer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.tamir7.contacts;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates contacts with the mix of data found in real address books: most contacts have a
+ * single phone number and some have many, a few numbers carry custom labels, and a few contacts
+ * have long notes. The same seed always generates the same contacts.
+ */
+final class ContactGenerator {
+    private static final String[] GIVEN_NAMES = {"Ann", "Ben", "Chloé", "Dana", "Eli", "Fatima",
+            "Gil", "Hana", "Ido", "Jonas", "Kim", "Lior", "Maya", "Noa", "Omar", "Priya", "Quinn",
+            "Rafael", "Sara", "Tom", "Uri", "Vera", "Wei", "Yael", "Zoe"};
+    private static final String[] FAMILY_NAMES = {"Abramov", "Brown", "Cohen", "Dubois", "Evans",
+            "Fischer", "García", "Haddad", "Ivanova", "Jensen", "Kowalski", "Levi", "Müller", "Nguyen",
+            "O'Brien", "Peretz", "Rossi", "Schmidt", "Tanaka", "Van Dijk", "Williams", "Zhang"};
+    private static final String[] COMPANIES = {"Acme", "Globex", "Initech", "Umbrella", "Hooli",
+            "Stark Industries", "Wayne Enterprises", "Soylent"};
+    private static final String[] TITLES = {"Engineer", "Manager", "Designer", "Director", "Intern"};
+    private static final String[] LABELS = {"Pager", "Car", "Boat", "Summer house", "Old number"};
+    private static final String[] CITIES = {"Tel Aviv", "Berlin", "Lisbon", "Toronto", "Osaka"};
+    private static final String[] WORDS = {"call", "after", "lunch", "met", "at", "conference",
+            "prefers", "email", "birthday", "gift", "ideas", "kids", "names", "project", "notes"};
+    private static final PhoneNumber.Type[] PHONE_TYPES = {PhoneNumber.Type.MOBILE,
+            PhoneNumber.Type.MOBILE, PhoneNumber.Type.HOME, PhoneNumber.Type.WORK};
+
+    private final Random random;
+
+    ContactGenerator(long seed) {
+        random = new Random(seed);
+    }
+
+    /**
+     * Generates contacts without ids.
+     *
+     * @param count The number of contacts.
+     * @return The contacts.
+     */
+    List<Contact> generate(int count) {
+        List<Contact> contacts = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            contacts.add(next());
+        }
+
+        return contacts;
+    }
+
+    Contact next() {
+        String givenName = pick(GIVEN_NAMES);
+        String familyName = pick(FAMILY_NAMES);
+        Contact contact = new Contact()
+                .addDisplayName(givenName + " " + familyName)
+                .addGivenName(givenName)
+                .addFamilyName(familyName);
+
+        for (int i = 0, phones = phoneCount(); i < phones; i++) {
+            String number = String.format("+1%03d%07d", 200 + random.nextInt(800), random.nextInt(10000000));
+            contact.addPhoneNumber(random.nextInt(10) == 0 ? new PhoneNumber(number, pick(LABELS), number)
+                    : new PhoneNumber(number, PHONE_TYPES[random.nextInt(PHONE_TYPES.length)], number));
+        }
+
+        int emails = random.nextInt(10) < 6 ? 1 : random.nextInt(10) < 3 ? 2 : 0;
+        for (int i = 0; i < emails; i++) {
+            contact.addEmail(new Email(givenName.toLowerCase() + "." + random.nextInt(100000) + "@example.com",
+                    i == 0 ? Email.Type.HOME : Email.Type.WORK));
+        }
+
+        if (random.nextInt(10) < 3) {
+            contact.addCompanyName(pick(COMPANIES)).addCompanyTitle(pick(TITLES));
+        }
+
+        if (random.nextInt(10) < 2) {
+            contact.addEvent(new Event(String.format("%d-%02d-%02d", 1950 + random.nextInt(60),
+                    1 + random.nextInt(12), 1 + random.nextInt(28)), Event.Type.BIRTHDAY));
+        }
+
+        if (random.nextInt(10) == 0) {
+            String street = (1 + random.nextInt(200)) + " Main St";
+            String city = pick(CITIES);
+            contact.addAddress(new Address(street + ", " + city, street, city, null, null, null,
+                    Address.Type.HOME));
+        }
+
+        if (random.nextInt(20) == 0) {
+            contact.addWebsite("https://example.com/" + givenName.toLowerCase());
+        }
+
+        if (random.nextInt(20) == 0) {
+            contact.addNote(note(200 + random.nextInt(1800)));
+        }
+
+        return contact;
+    }
+
+    /**
+     * Most contacts have one number, some have a few and a handful have many.
+     */
+    private int phoneCount() {
+        int percentile = random.nextInt(100);
+        if (percentile < 60) {
+            return 1;
+        } else if (percentile < 85) {
+            return 2;
+        } else if (percentile < 98) {
+            return 3;
+        }
+
+        return 4 + random.nextInt(5);
+    }
+
+    private String note(int length) {
+        StringBuilder note = new StringBuilder(length + 16);
+        while (note.length() < length) {
+            note.append(pick(WORDS)).append(' ');
+        }
+
+        return note.toString();
+    }
+
+    private String pick(String[] values) {
+        return values[random.nextInt(values.length)];
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright 2016 Tamir Shomer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.tamir7.contacts;
+
+import android.provider.ContactsContract.CommonDataKinds;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * The Data rows of generated contacts, in the order the provider returns them for a query.
+ *
+ * Rows have the columns of {@link FieldPlan#ALL} and are sorted by display name and contact id.
+ */
+final class ContactRows {
+    private static final String[] COLUMNS = FieldPlan.ALL.getProjection();
+
+    private final List<Contact> contacts;
+    private final Object[][] rows;
+
+    private ContactRows(List<Contact> contacts, Object[][] rows) {
+        this.contacts = contacts;
+        this.rows = rows;
+    }
+
+    /**
+     * Generates an address book with a {@link ContactGenerator}.
+     *
+     * @param count The number of contacts.
+     * @param seed  The seed of the generator.
+     * @return The rows of all contacts.
+     */
+    static ContactRows generate(int count, long seed) {
+        List<Contact> contacts = new ContactGenerator(seed).generate(count);
+        for (int i = 0; i < contacts.size(); i++) {
+            contacts.get(i).setId((long) i + 1);
+        }
+
+        // the provider returns the rows ordered by display name, then by contact id.
+        Collections.sort(contacts, new Comparator<Contact>() {
+            @Override
+            public int compare(Contact first, Contact second) {
+                int result = first.getDisplayName().compareTo(second.getDisplayName());
+                return result != 0 ? result : first.getId().compareTo(second.getId());
+            }
+        });
+
+        List<Object[]> rows = new ArrayList<>();
+        for (Contact contact : contacts) {
+            addRows(rows, contact);
+        }
+
+        return new ContactRows(contacts, rows.toArray(new Object[rows.size()][]));
+    }
+
+    private static void addRows(List<Object[]> rows, Contact contact) {
+        Object[] name = row(contact, CommonDataKinds.StructuredName.CONTENT_ITEM_TYPE);
+        set(name, Contact.Field.GivenName, contact.getGivenName());
+        set(name, Contact.Field.FamilyName, contact.getFamilyName());
+        rows.add(name);
+
+        for (PhoneNumber phoneNumber : contact.getPhoneNumbers()) {
+            Object[] row = row(contact, CommonDataKinds.Phone.CONTENT_ITEM_TYPE);
+            set(row, Contact.Field.PhoneNumber, phoneNumber.getNumber());
+            set(row, Contact.Field.PhoneNormalizedNumber, phoneNumber.getNormalizedNumber());
+            set(row, Contact.Field.PhoneType, PhoneNumber.Type.fromType(phoneNumber.getType()));
+            set(row, Contact.Field.PhoneLabel, phoneNumber.getLabel());
+            rows.add(row);
+        }
+
+        for (Email email : contact.getEmails()) {
+            Object[] row = row(contact, CommonDataKinds.Email.CONTENT_ITEM_TYPE);
+            set(row, Contact.Field.Email, email.getAddress());
+            set(row, Contact.Field.EmailType, Email.Type.fromType(email.getType()));
+            set(row, Contact.Field.EmailLabel, email.getLabel());
+            rows.add(row);
+        }
+
+        for (Event event : contact.getEvents()) {
+            Object[] row = row(contact, CommonDataKinds.Event.CONTENT_ITEM_TYPE);
+            set(row, Contact.Field.EventStartDate, event.getStartDate());
+            set(row, Contact.Field.EventType, Event.Type.fromType(event.getType()));
+            set(row, Contact.Field.EventLabel, event.getLabel());
+            rows.add(row);
+        }
+
+        if (contact.getCompanyName() != null || contact.getCompanyTitle() != null) {
+            Object[] row = row(contact, CommonDataKinds.Organization.CONTENT_ITEM_TYPE);
+            set(row, Contact.Field.CompanyName, contact.getCompanyName());
+            set(row, Contact.Field.CompanyTitle, contact.getCompanyTitle());
+            rows.add(row);
+        }
+
+        for (String website : contact.getWebsites()) {
+            Object[] row = row(contact, CommonDataKinds.Website.CONTENT_ITEM_TYPE);
+            set(row, Contact.Field.Website, website);
+            rows.add(row);
+        }
+
+        if (contact.getNote() != null) {
+            Object[] row = row(contact, CommonDataKinds.Note.CONTENT_ITEM_TYPE);
+            set(row, Contact.Field.Note, contact.getNote());
+            rows.add(row);
+        }
+
+        for (Address address : contact.getAddresses()) {
+            Object[] row = row(contact, CommonDataKinds.StructuredPostal.CONTENT_ITEM_TYPE);
+            set(row, Contact.Field.Address, address.getFormattedAddress());
+            set(row, Contact.Field.AddressStreet, address.getStreet());
+            set(row, Contact.Field.AddressCity, address.getCity());
+            set(row, Contact.Field.AddressRegion, address.getRegion());
+            set(row, Contact.Field.AddressPostcode, address.getPostcode());
+            set(row, Contact.Field.AddressCountry, address.getCountry());
+            set(row, Contact.Field.AddressType, Address.Type.fromType(address.getType()));
+            set(row, Contact.Field.AddressLabel, address.getLabel());
+            rows.add(row);
+        }
+    }
+
+    private static Object[] row(Contact contact, String mimeType) {
+        Object[] row = new Object[COLUMNS.length];
+        set(row, Contact.Field.ContactId, contact.getId());
+        set(row, Contact.Field.DisplayName, contact.getDisplayName());
+        set(row, Contact.Field.PhotoUri, contact.getPhotoUri());
+        row[column(Contact.InternalField.MimeType.getColumn())] = mimeType;
+        return row;
+    }
+
+    private static void set(Object[] row, Contact.Field field, Object value) {
+        row[column(field.getColumn())] = value;
+    }
+
+    static int column(String name) {
+        for (int i = 0; i < COLUMNS.length; i++) {
+            if (COLUMNS[i].equals(name)) {
+                return i;
+            }
+        }
+
+        throw new IllegalArgumentException("no column " + name);
+    }
+
+    String[] getColumns() {
+        return COLUMNS;
+    }
+
+    Object[][] getRows() {
+        return rows;
+    }
+
+    /**
+     * Gets the generated contacts, with their ids, in the order of the rows.
+     */
+    List<Contact> getContacts() {
+        return contacts;
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2016 Tamir Shomer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.tamir7.contacts;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Mapping the rows of a Data cursor to contacts, without the query around it.
+ * Every operation reads the whole cursor. columnLookupPerRow is the mapping before column plans,
+ * with a helper per row that looks up every column index by name, as the baseline of updateContact.
+ */
+@State(Scope.Benchmark)
+public class CursorMappingBenchmark {
+
+    @Param({"1000", "10000", "100000"})
+    public int contacts;
+
+    private RowsCursor cursor;
+
+    @Setup
+    public void setUp() {
+        ContactRows rows = ContactRows.generate(contacts, 42);
+        cursor = new RowsCursor(rows.getColumns(), rows.getRows(), FieldPlan.ALL.getProjection());
+    }
+
+    @Benchmark
+    public void columnLookupPerRow(Blackhole blackhole) {
+        cursor.moveToPosition(-1);
+        Contact contact = null;
+        long contactId = 0;
+        while (cursor.moveToNext()) {
+            ColumnLookupHelper helper = new ColumnLookupHelper(cursor);
+            long rowContactId = helper.getContactId();
+            if (contact == null || rowContactId != contactId) {
+                blackhole.consume(contact);
+                contactId = rowContactId;
+                contact = new Contact();
+                contact.setId(contactId);
+            }
+
+            helper.updateContact(contact);
+        }
+
+        blackhole.consume(contact);
+    }
+
+    @Benchmark
+    public void updateContact(Blackhole blackhole) {
+        cursor.moveToPosition(-1);
+        CursorHelper helper = new CursorHelper(cursor);
+        Contact contact = null;
+        long contactId = 0;
+        while (cursor.moveToNext()) {
+            long rowContactId = helper.getContactId();
+            if (contact == null || rowContactId != contactId) {
+                blackhole.consume(contact);
+                contactId = rowContactId;
+                contact = new Contact();
+                contact.setId(contactId);
+            }
+
+            Query.updateContact(contact, helper);
+        }
+
+        blackhole.consume(contact);
+    }
+
+    @Benchmark
+    public ContactTable tableRows() {
+        cursor.moveToPosition(-1);
+        CursorHelper helper = new CursorHelper(cursor);
+        ContactTable.Builder builder = new ContactTable.Builder();
+        boolean started = false;
+        long contactId = 0;
+        while (cursor.moveToNext()) {
+            long rowContactId = helper.getContactId();
+            if (!started || rowContactId != contactId) {
+                if (started) {
+                    builder.endContact();
+                }
+
+                started = true;
+                contactId = rowContactId;
+                builder.startContact(contactId);
+            }
+
+            builder.addRow(helper);
+        }
+
+        if (started) {
+            builder.endContact();
+        }
+
+        return builder.build();
+    }
+}
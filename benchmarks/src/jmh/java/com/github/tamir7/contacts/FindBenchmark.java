@@ -0,0 +1,68 @@
+/*
+ * Copyright 2016 Tamir Shomer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.tamir7.contacts;
+
+import android.content.ContentResolver;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.List;
+
+/**
+ * Queries without constraints, from the provider call to the assembled result.
+ * The provider is an {@link InMemoryContactsProvider}, so the provider itself costs next to nothing.
+ * 50000 contacts is the large scan that the allocation figures of the gc profiler are quoted for.
+ */
+@State(Scope.Benchmark)
+public class FindBenchmark {
+
+    @Param({"1000", "10000", "50000", "100000"})
+    public int contacts;
+
+    private ContentResolver resolver;
+
+    @Setup
+    public void setUp() {
+        resolver = new ProviderResolver(new InMemoryContactsProvider(ContactRows.generate(contacts, 42)));
+    }
+
+    @Benchmark
+    public List<Contact> find() {
+        return new Query(resolver).find();
+    }
+
+    @Benchmark
+    public ContactTable findTable() {
+        return new Query(resolver).findTable();
+    }
+
+    @Benchmark
+    public int forEach() {
+        final int[] count = new int[1];
+        new Query(resolver).forEach(new ContactConsumer() {
+            @Override
+            public void accept(Contact contact) {
+                count[0]++;
+            }
+        });
+        return count[0];
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright 2016 Tamir Shomer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.tamir7.contacts;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * The fields of {@link Contact} before it stored its values in lazily allocated arrays: five hash
+ * sets allocated with every contact. Kept as the baseline of {@link RetainedHeap}.
+ */
+final class HashSetContact {
+    private final Long id;
+    private final String displayName;
+    private final String givenName;
+    private final String familyName;
+    private final Set<PhoneNumber> phoneNumbers = new HashSet<>();
+    private final String photoUri;
+    private final Set<Email> emails = new HashSet<>();
+    private final Set<Event> events = new HashSet<>();
+    private final String companyName;
+    private final String companyTitle;
+    private final Set<String> websites = new HashSet<>();
+    private final Set<Address> addresses = new HashSet<>();
+    private final String note;
+
+    /**
+     * Creates a contact with the same value objects as the given one.
+     */
+    HashSetContact(Contact contact) {
+        id = contact.getId();
+        displayName = contact.getDisplayName();
+        givenName = contact.getGivenName();
+        familyName = contact.getFamilyName();
+        phoneNumbers.addAll(contact.getPhoneNumbers());
+        photoUri = contact.getPhotoUri();
+        emails.addAll(contact.getEmails());
+        events.addAll(contact.getEvents());
+        companyName = contact.getCompanyName();
+        companyTitle = contact.getCompanyTitle();
+        websites.addAll(contact.getWebsites());
+        addresses.addAll(contact.getAddresses());
+        note = contact.getNote();
+    }
+}
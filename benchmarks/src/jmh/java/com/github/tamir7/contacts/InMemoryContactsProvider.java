@@ -0,0 +1,52 @@
+/*
+ * Copyright 2016 Tamir Shomer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.tamir7.contacts;
+
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.CancellationSignal;
+import android.provider.ContactsContract;
+
+/**
+ * A provider that serves the Data table from generated rows.
+ *
+ * Selections are not evaluated: every Data query returns all rows, which is what a query without
+ * constraints reads. Other tables are not supported.
+ */
+final class InMemoryContactsProvider extends AbstractContentInterface {
+    private final ContactRows rows;
+    private int queryCount;
+
+    InMemoryContactsProvider(ContactRows rows) {
+        this.rows = rows;
+    }
+
+    @Override
+    public Cursor query(Uri uri, String[] projection, Bundle queryArgs, CancellationSignal signal) {
+        if (!ContactsContract.Data.CONTENT_URI.equals(uri)) {
+            throw new UnsupportedOperationException("Unsupported uri " + uri);
+        }
+
+        queryCount++;
+        return new RowsCursor(rows.getColumns(), rows.getRows(), projection);
+    }
+
+    int getQueryCount() {
+        return queryCount;
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2016 Tamir Shomer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.github.tamir7.contacts;
+
+import android.content.ContentResolver;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Inserting the same generated contacts with one batch per contact, as insertContact does, and
+ * in size limited batches with insertAll. Every operation inserts into a freshly seeded
+ * {@link SqliteContactsProvider} with 1000 contacts, so both write the same rows into the same
+ * table. The provider runs in process, so the numbers leave out the binder transaction that every
+ * batch costs on a device; the roundTrips counter reports the batches per operation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class InsertBenchmark {
+
+    @Param({"100", "1000"})
+    public int contacts;
+
+    private List<Contact> batch;
+    private SqliteContactsProvider provider;
+    private ContentResolver resolver;
+
+    @Setup
+    public void setUp() {
+        batch = new ContactGenerator(7).generate(contacts);
+    }
+
+    // JMH excludes the seeding from the measured time.
+    @Setup(Level.Invocation)
+    public void seed() throws Exception {
+        provider = SqliteContactsProvider.create(ContactRows.generate(1000, 42));
+        resolver = new ProviderResolver(provider);
+    }
+
+    @TearDown(Level.Invocation)
+    public void close() {
+        provider.close();
+    }
+
+    @Benchmark
+    public void singleInserts(RoundTrips roundTrips) {
+        long calls = provider.getRoundTrips();
+        for (Contact contact : batch) {
+            BatchWriter writer = new BatchWriter(resolver);
+            writer.insert(contact);
+            writer.flush();
+        }
+
+        roundTrips.add(provider.getRoundTrips() - calls);
+    }
+
+    @Benchmark
+    public void insertAll(RoundTrips roundTrips) {
+        long calls = provider.getRoundTrips();
+        new Query(resolver).insertAll(batch);
+        roundTrips.add(provider.getRoundTrips() - calls);
+    }
+}
@@ -0,0 +1,207 @@
+/*
+ * Copyright 2016 Tamir Shomer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.tamir7.contacts;
+
+import android.content.ContentResolver;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Runs standard query and write workloads end to end against a {@link SqliteContactsProvider}.
+ *
+ * For every workload it reports the p50, p99 and p999 latency, and the provider round trips,
+ * rows read and rows written per operation. Percentiles above p99 need at least a thousand
+ * iterations to mean anything.
+ *
+ * The path argument selects how queries with constraints on several mime types run: "subselect"
+ * compiles them into one selection of sub selects, "per-mime" resolves the contact ids one mime
+ * type after the other, as providers without sub select support do. "both" runs all workloads
+ * with each path, for a before and after comparison.
+ *
+ * Arguments: [contacts] [iterations] [seed] [path], by default 5000 contacts, 1000 iterations, 42
+ * and both.
+ */
+public final class LoadTest {
+
+    interface Workload {
+        void run(int iteration);
+    }
+
+    private LoadTest() {}
+
+    public static void main(String[] args) throws Exception {
+        int contactCount = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+        int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+        long seed = args.length > 2 ? Long.parseLong(args[2]) : 42;
+        String path = args.length > 3 ? args[3] : "both";
+        List<String> paths = path.equals("both") ? Arrays.asList("subselect", "per-mime")
+                : Collections.singletonList(path);
+        for (String name : paths) {
+            if (!name.equals("subselect") && !name.equals("per-mime")) {
+                throw new IllegalArgumentException("unknown path " + name);
+            }
+        }
+
+        try {
+            for (String name : paths) {
+                Query.setSubselectsSupported(name.equals("subselect"));
+                // every path starts from the same contacts, the write workloads change them.
+                ContactRows rows = ContactRows.generate(contactCount, seed);
+                try (SqliteContactsProvider provider = SqliteContactsProvider.create(rows)) {
+                    ContentResolver resolver = new ProviderResolver(provider);
+                    System.out.printf("%s: %d contacts, %d data rows, %d iterations%n", name, contactCount,
+                            rows.getRows().length, iterations);
+                    System.out.printf("%-24s %10s %10s %10s %12s %12s %12s%n", "workload", "p50 ms", "p99 ms",
+                            "p999 ms", "round trips", "rows read", "rows written");
+
+                    for (Map.Entry<String, Workload> workload : workloads(resolver, rows, seed).entrySet()) {
+                        run(provider, workload.getKey(), workload.getValue(), iterations);
+                    }
+                }
+
+                System.out.println();
+            }
+        } finally {
+            Query.setSubselectsSupported(null);
+        }
+    }
+
+    private static Map<String, Workload> workloads(final ContentResolver resolver, ContactRows rows,
+                                                   long seed) {
+        final List<Contact> contacts = rows.getContacts();
+        final Random random = new Random(seed);
+        final ContactGenerator generator = new ContactGenerator(seed + 1);
+        Map<String, Workload> workloads = new LinkedHashMap<>();
+
+        workloads.put("find all", new Workload() {
+            @Override
+            public void run(int iteration) {
+                new Query(resolver).find();
+            }
+        });
+        workloads.put("first page of 50", new Workload() {
+            @Override
+            public void run(int iteration) {
+                new Query(resolver).limit(50).find();
+            }
+        });
+        workloads.put("name prefix", new Workload() {
+            @Override
+            public void run(int iteration) {
+                String name = contacts.get(random.nextInt(contacts.size())).getDisplayName();
+                new Query(resolver).whereStartsWith(Contact.Field.DisplayName, name.substring(0, 3)).find();
+            }
+        });
+        workloads.put("phone number equal", new Workload() {
+            @Override
+            public void run(int iteration) {
+                Contact contact = contacts.get(random.nextInt(contacts.size()));
+                new Query(resolver).whereEqualTo(Contact.Field.PhoneNumber,
+                        contact.getPhoneNumbers().get(0).getNumber()).find();
+            }
+        });
+        workloads.put("has phone and email", new Workload() {
+            @Override
+            public void run(int iteration) {
+                new Query(resolver).hasPhoneNumber()
+                        .whereContains(Contact.Field.Email, "example.com").limit(200).find();
+            }
+        });
+        workloads.put("or of two names", new Workload() {
+            @Override
+            public void run(int iteration) {
+                List<Query> queries = new ArrayList<>();
+                for (int i = 0; i < 2; i++) {
+                    String name = contacts.get(random.nextInt(contacts.size())).getGivenName();
+                    queries.add(new Query(resolver).whereEqualTo(Contact.Field.GivenName, name));
+                }
+                new Query(resolver).or(queries).find();
+            }
+        });
+        workloads.put("find 500 by id", new Workload() {
+            @Override
+            public void run(int iteration) {
+                long[] ids = new long[500];
+                for (int i = 0; i < ids.length; i++) {
+                    ids[i] = contacts.get(random.nextInt(contacts.size())).getId();
+                }
+                new Query(resolver).findByIds(ids);
+            }
+        });
+        workloads.put("find table", new Workload() {
+            @Override
+            public void run(int iteration) {
+                new Query(resolver).findTable();
+            }
+        });
+        workloads.put("insert 50", new Workload() {
+            @Override
+            public void run(int iteration) {
+                new Query(resolver).insertAll(generator.generate(50));
+            }
+        });
+        workloads.put("update one", new Workload() {
+            @Override
+            public void run(int iteration) {
+                Contact contact = contacts.get(random.nextInt(contacts.size()));
+                new Query(resolver).updateContact(contact.addNote("updated " + iteration));
+            }
+        });
+        workloads.put("save 100 mixed", new Workload() {
+            @Override
+            public void run(int iteration) {
+                List<Contact> batch = generator.generate(50);
+                for (int i = 0; i < 50; i++) {
+                    batch.add(contacts.get(random.nextInt(contacts.size())));
+                }
+                new Query(resolver).saveAll(batch);
+            }
+        });
+
+        return workloads;
+    }
+
+    private static void run(SqliteContactsProvider provider, String name, Workload workload, int iterations) {
+        // warm up, so the percentiles describe compiled code.
+        for (int i = 0; i < Math.max(10, iterations / 10); i++) {
+            workload.run(-1 - i);
+        }
+
+        LatencyRecorder latencies = new LatencyRecorder();
+        long roundTrips = provider.getRoundTrips();
+        long rowsRead = provider.getRowsRead();
+        long rowsWritten = provider.getRowsWritten();
+        for (int i = 0; i < iterations; i++) {
+            long start = System.nanoTime();
+            workload.run(i);
+            latencies.record(System.nanoTime() - start);
+        }
+
+        System.out.printf("%-24s %10.2f %10.2f %10.2f %12.1f %12.1f %12.1f%n", name,
+                latencies.getPercentile(50) / 1e6, latencies.getPercentile(99) / 1e6,
+                latencies.getPercentile(99.9) / 1e6,
+                (provider.getRoundTrips() - roundTrips) / (double) iterations,
+                (provider.getRowsRead() - rowsRead) / (double) iterations,
+                (provider.getRowsWritten() - rowsWritten) / (double) iterations);
+    }
+}
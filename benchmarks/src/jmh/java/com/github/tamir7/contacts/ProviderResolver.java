@@ -0,0 +1,89 @@
+/*
+ * Copyright 2016 Tamir Shomer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.tamir7.contacts;
+
+import android.content.ContentInterface;
+import android.content.ContentResolver;
+import android.content.Context;
+import android.content.ContextWrapper;
+import android.content.IContentProvider;
+import android.content.pm.ApplicationInfo;
+import android.os.Build;
+
+/**
+ * A content resolver that sends all calls to a provider in the same process.
+ *
+ * Unlike {@link ContentResolver#wrap(ContentInterface)} it does not need a running application.
+ */
+final class ProviderResolver extends ContentResolver {
+    private static final String PACKAGE_NAME = "com.github.tamir7.contacts.benchmarks";
+
+    ProviderResolver(ContentInterface provider) {
+        super(new PackageContext(), provider);
+    }
+
+    @Override
+    protected IContentProvider acquireProvider(Context context, String name) {
+        return null;
+    }
+
+    @Override
+    public boolean releaseProvider(IContentProvider provider) {
+        return false;
+    }
+
+    @Override
+    protected IContentProvider acquireUnstableProvider(Context context, String name) {
+        return null;
+    }
+
+    @Override
+    public boolean releaseUnstableProvider(IContentProvider provider) {
+        return false;
+    }
+
+    @Override
+    public void unstableProviderDied(IContentProvider provider) {}
+
+    /**
+     * The little of a context the resolver reads.
+     */
+    private static final class PackageContext extends ContextWrapper {
+
+        PackageContext() {
+            super(null);
+        }
+
+        @Override
+        public String getPackageName() {
+            return PACKAGE_NAME;
+        }
+
+        @Override
+        public String getOpPackageName() {
+            return PACKAGE_NAME;
+        }
+
+        @Override
+        public ApplicationInfo getApplicationInfo() {
+            ApplicationInfo info = new ApplicationInfo();
+            info.packageName = PACKAGE_NAME;
+            info.targetSdkVersion = Build.VERSION_CODES.Q;
+            return info;
+        }
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2016 Tamir Shomer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.tamir7.contacts;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.provider.ContactsContract;
+
+import org.openjdk.jol.info.GraphLayout;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Prints the heap retained by the contacts of one query, in the different shapes the library can
+ * return them in, measured by walking the object graph with JOL.
+ *
+ * The contacts are read from a {@link SqliteContactsProvider}, so every string value is a separate
+ * instance, as it is when read from the CursorWindow of a real provider:
+ * - hash set contacts: the contact class with five hash sets per contact, with unshared strings
+ * - contacts, unshared strings: the current contact class, mapped without a string pool
+ * - contacts: the result of find, with repeated labels, companies and cities shared per query
+ * - table: the result of findTable
+ *
+ * Arguments: [contacts] [seed], by default 10000 contacts and 42.
+ */
+public final class RetainedHeap {
+
+    private RetainedHeap() {}
+
+    public static void main(String[] args) throws Exception {
+        int contactCount = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+        long seed = args.length > 1 ? Long.parseLong(args[1]) : 42;
+
+        ContactRows rows = ContactRows.generate(contactCount, seed);
+        try (SqliteContactsProvider provider = SqliteContactsProvider.create(rows)) {
+            ContentResolver resolver = new ProviderResolver(provider);
+            List<Contact> unshared = findUnshared(resolver);
+            List<HashSetContact> hashSetContacts = new ArrayList<>(unshared.size());
+            for (Contact contact : unshared) {
+                hashSetContacts.add(new HashSetContact(contact));
+            }
+
+            System.out.printf("%d contacts, %d data rows%n", contactCount, rows.getRows().length);
+            System.out.printf("%-28s %12s %12s%n", "shape", "bytes", "per contact");
+            print("hash set contacts", hashSetContacts, contactCount);
+            print("contacts, unshared strings", unshared, contactCount);
+            print("contacts", new Query(resolver).find(), contactCount);
+            print("table", new Query(resolver).findTable(), contactCount);
+        }
+    }
+
+    /**
+     * Reads all contacts the way updateContact did before the string pool.
+     */
+    private static List<Contact> findUnshared(ContentResolver resolver) {
+        List<Contact> contacts = new ArrayList<>();
+        try (Cursor c = resolver.query(ContactsContract.Data.CONTENT_URI, FieldPlan.ALL.getProjection(),
+                null, null, ContactsContract.Data.CONTACT_ID)) {
+            Contact contact = null;
+            while (c.moveToNext()) {
+                ColumnLookupHelper helper = new ColumnLookupHelper(c);
+                long contactId = helper.getContactId();
+                if (contact == null || contact.getId() != contactId) {
+                    contact = new Contact();
+                    contact.setId(contactId);
+                    contacts.add(contact);
+                }
+
+                helper.updateContact(contact);
+            }
+        }
+
+        return contacts;
+    }
+
+    private static void print(String shape, Object root, int contactCount) {
+        long bytes = GraphLayout.parseInstance(root).totalSize();
+        System.out.printf("%-28s %12d %12d%n", shape, bytes, bytes / contactCount);
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright 2016 Tamir Shomer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.github.tamir7.contacts;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.IterationParams;
+
+/**
+ * Reports the provider calls per benchmark operation as the roundTrips counter.
+ */
+@State(Scope.Thread)
+@AuxCounters(AuxCounters.Type.EVENTS)
+public class RoundTrips {
+    private long calls;
+    private long operations;
+    private int iterations;
+
+    // JMH sums the value at the end of every iteration over the iterations, so each iteration
+    // reports its share of the average.
+    public double roundTrips;
+
+    @Setup(Level.Iteration)
+    public void reset(IterationParams iteration) {
+        calls = 0;
+        operations = 0;
+        iterations = iteration.getCount();
+        roundTrips = 0;
+    }
+
+    /**
+     * Counts an operation.
+     *
+     * @param operationCalls    The provider calls of the operation.
+     */
+    void add(long operationCalls) {
+        calls += operationCalls;
+        operations++;
+        roundTrips = calls / (double) operations / iterations;
+    }
+}
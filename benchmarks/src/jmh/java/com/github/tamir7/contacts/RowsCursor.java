@@ -0,0 +1,106 @@
+/*
+ * Copyright 2016 Tamir Shomer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.tamir7.contacts;
+
+import android.database.AbstractCursor;
+
+/**
+ * A read only cursor over rows held in memory, like a MatrixCursor that shares its rows instead
+ * of copying them. Creating one costs the same for any number of rows, so benchmarks measure
+ * the code reading the cursor rather than the cursor.
+ */
+final class RowsCursor extends AbstractCursor {
+    private final String[] columnNames;
+    private final int[] columns;
+    private final Object[][] rows;
+
+    /**
+     * @param allColumns    The columns of the rows.
+     * @param rows          The rows.
+     * @param projection    The columns of the cursor, a subset of the columns of the rows.
+     */
+    RowsCursor(String[] allColumns, Object[][] rows, String[] projection) {
+        this.columnNames = projection == null ? allColumns : projection;
+        this.rows = rows;
+        columns = new int[columnNames.length];
+        for (int i = 0; i < columnNames.length; i++) {
+            columns[i] = -1;
+            for (int j = 0; j < allColumns.length; j++) {
+                if (allColumns[j].equals(columnNames[i])) {
+                    columns[i] = j;
+                    break;
+                }
+            }
+        }
+    }
+
+    private Object value(int column) {
+        int index = columns[column];
+        return index == -1 ? null : rows[getPosition()][index];
+    }
+
+    @Override
+    public int getCount() {
+        return rows.length;
+    }
+
+    @Override
+    public String[] getColumnNames() {
+        return columnNames;
+    }
+
+    @Override
+    public String getString(int column) {
+        Object value = value(column);
+        return value == null ? null : value.toString();
+    }
+
+    @Override
+    public short getShort(int column) {
+        return (short) getLong(column);
+    }
+
+    @Override
+    public int getInt(int column) {
+        return (int) getLong(column);
+    }
+
+    @Override
+    public long getLong(int column) {
+        Object value = value(column);
+        if (value == null) {
+            return 0;
+        }
+
+        return value instanceof Number ? ((Number) value).longValue() : Long.parseLong(value.toString());
+    }
+
+    @Override
+    public float getFloat(int column) {
+        return getLong(column);
+    }
+
+    @Override
+    public double getDouble(int column) {
+        return getLong(column);
+    }
+
+    @Override
+    public boolean isNull(int column) {
+        return value(column) == null;
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2016 Tamir Shomer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.tamir7.contacts;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Type-ahead searches in memory. search uses a {@link ContactSearchIndex}, linearScan checks the
+ * words of every contact, tokenized up front the same way, as the baseline. Like the index, the
+ * baseline has to find all matches before it can return the best ones; it returns the first ones,
+ * without ranking them.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SearchBenchmark {
+    private static final int MAX_RESULTS = 20;
+
+    @Param({"50000"})
+    public int contacts;
+
+    // a broad prefix, two words, a name with diacritics and digits inside phone numbers.
+    @Param({"a", "ann sch", "mül", "5551"})
+    public String query;
+
+    private ContactSearchIndex index;
+    private long[] ids;
+    private String[][] words;
+
+    @Setup
+    public void setUp() {
+        List<Contact> generated = ContactRows.generate(contacts, 42).getContacts();
+        index = new ContactSearchIndex(generated);
+        ids = new long[generated.size()];
+        words = new String[generated.size()][];
+        for (int i = 0; i < generated.size(); i++) {
+            Contact contact = generated.get(i);
+            List<String> contactWords = new ArrayList<>();
+            contactWords.addAll(ContactSearchIndex.tokenize(contact.getDisplayName()));
+            contactWords.addAll(ContactSearchIndex.tokenize(contact.getCompanyName()));
+            for (Email email : contact.getEmails()) {
+                String address = email.getAddress();
+                contactWords.addAll(ContactSearchIndex.tokenize(address.substring(0, address.indexOf('@'))));
+            }
+
+            StringBuilder digits = new StringBuilder();
+            for (PhoneNumber phoneNumber : contact.getPhoneNumbers()) {
+                digits.append(phoneNumber.getNumber().replaceAll("[^0-9]", "")).append(' ');
+            }
+
+            contactWords.add(digits.toString());
+            ids[i] = contact.getId();
+            words[i] = contactWords.toArray(new String[contactWords.size()]);
+        }
+    }
+
+    @Benchmark
+    public List<Long> search() {
+        return index.search(query, MAX_RESULTS);
+    }
+
+    @Benchmark
+    public List<Long> linearScan() {
+        List<String> queryWords = ContactSearchIndex.tokenize(query);
+        List<Long> result = new ArrayList<>();
+        for (int i = 0; i < words.length; i++) {
+            if (matches(words[i], queryWords)) {
+                result.add(ids[i]);
+            }
+        }
+
+        return result.size() > MAX_RESULTS ? result.subList(0, MAX_RESULTS) : result;
+    }
+
+    private static boolean matches(String[] contactWords, List<String> queryWords) {
+        for (String queryWord : queryWords) {
+            boolean found = false;
+            for (String word : contactWords) {
+                if (word.startsWith(queryWord) || (Character.isDigit(queryWord.charAt(0)) && word.contains(queryWord))) {
+                    found = true;
+                    break;
+                }
+            }
+
+            if (!found) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+}
@@ -0,0 +1,540 @@
+/*
+ * Copyright 2016 Tamir Shomer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.tamir7.contacts;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.OperationApplicationException;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteException;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.CancellationSignal;
+import android.provider.ContactsContract;
+import android.provider.ContactsContract.CommonDataKinds;
+
+import java.io.Closeable;
+import java.lang.reflect.Field;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A stand-in for the contacts provider, backed by an in-memory SQLite database.
+ *
+ * It has the contacts, raw_contacts, data and deleted_contacts tables, the view_data view the
+ * Data uri is served from, and phone lookups. Each raw contact is aggregated into a contact of
+ * its own, and the display name, sort keys and has_phone_number of a contact are kept up to date
+ * on every write. Like the real provider, it serves one call at a time.
+ *
+ * Every query and every batch is a provider round trip. The provider counts them, together with
+ * the rows it returned and the rows it wrote.
+ */
+final class SqliteContactsProvider extends AbstractContentInterface implements Closeable {
+    private static final String DATA_COLUMNS = "data1, data2, data3, data4, data5, data6, data7, "
+            + "data8, data9, data10, data11, data12, data13, data14, data15";
+
+    private static final String[] SCHEMA = {
+            "CREATE TABLE contacts (_id INTEGER PRIMARY KEY AUTOINCREMENT, display_name TEXT, "
+                    + "display_name_alt TEXT, photo_uri TEXT, sort_key TEXT, sort_key_alt TEXT, "
+                    + "has_phone_number INTEGER NOT NULL DEFAULT 0, starred INTEGER NOT NULL DEFAULT 0, "
+                    + "lookup TEXT, contact_last_updated_timestamp INTEGER)",
+            "CREATE TABLE raw_contacts (_id INTEGER PRIMARY KEY AUTOINCREMENT, contact_id INTEGER, "
+                    + "account_type TEXT, account_name TEXT, deleted INTEGER NOT NULL DEFAULT 0)",
+            // data columns have no type, so numbers stay numbers and text stays text, as in the provider.
+            "CREATE TABLE data (_id INTEGER PRIMARY KEY AUTOINCREMENT, raw_contact_id INTEGER NOT NULL, "
+                    + "mimetype TEXT NOT NULL, is_primary INTEGER NOT NULL DEFAULT 0, "
+                    + "is_super_primary INTEGER NOT NULL DEFAULT 0, " + DATA_COLUMNS + ")",
+            "CREATE TABLE deleted_contacts (contact_id INTEGER PRIMARY KEY, "
+                    + "contact_deleted_timestamp INTEGER NOT NULL)",
+            "CREATE INDEX raw_contacts_contact_id ON raw_contacts (contact_id)",
+            "CREATE INDEX data_raw_contact_id ON data (raw_contact_id)",
+            "CREATE INDEX data_mimetype_data1 ON data (mimetype, data1)",
+            "CREATE INDEX contacts_sort_key ON contacts (sort_key)",
+            "CREATE VIEW view_data AS SELECT data.*, raw_contacts.contact_id AS contact_id, "
+                    + "raw_contacts.account_type, raw_contacts.account_name, contacts.display_name, "
+                    + "contacts.display_name_alt, contacts.photo_uri, contacts.sort_key, contacts.sort_key_alt, "
+                    + "contacts.has_phone_number, contacts.starred, contacts.lookup, "
+                    + "contacts.contact_last_updated_timestamp "
+                    + "FROM data JOIN raw_contacts ON data.raw_contact_id = raw_contacts._id "
+                    + "JOIN contacts ON raw_contacts.contact_id = contacts._id "
+                    + "WHERE raw_contacts.deleted = 0"
+    };
+
+    // The unary + on data.mimetype keeps SQLite from reading all rows of a mime type through the
+    // mimetype index for every contact, which makes updating all contacts quadratic.
+    private static final String NAME_ROW = "SELECT %s FROM data JOIN raw_contacts ON data.raw_contact_id = "
+            + "raw_contacts._id WHERE raw_contacts.contact_id = contacts._id AND +data.mimetype = '"
+            + CommonDataKinds.StructuredName.CONTENT_ITEM_TYPE + "' ORDER BY data._id LIMIT 1";
+
+    private static final String UPDATE_AGGREGATES = "UPDATE contacts SET "
+            + "display_name = (" + String.format(NAME_ROW, "data1") + "), "
+            + "display_name_alt = (" + String.format(NAME_ROW,
+            "CASE WHEN data3 IS NULL THEN data1 ELSE data3 || ', ' || IFNULL(data2, '') END") + "), "
+            + "has_phone_number = EXISTS (SELECT 1 FROM data JOIN raw_contacts ON data.raw_contact_id = "
+            + "raw_contacts._id WHERE raw_contacts.contact_id = contacts._id AND +data.mimetype = '"
+            + CommonDataKinds.Phone.CONTENT_ITEM_TYPE + "'), "
+            + "contact_last_updated_timestamp = ?";
+
+    private static final String UPDATE_SORT_KEYS = "UPDATE contacts SET sort_key = display_name, "
+            + "sort_key_alt = display_name_alt";
+
+    // ContentProviderOperation has no getter for its selection.
+    private static final Field SELECTION;
+
+    static {
+        try {
+            SELECTION = ContentProviderOperation.class.getDeclaredField("mSelection");
+            SELECTION.setAccessible(true);
+        } catch (NoSuchFieldException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private final Connection db;
+    private final AtomicLong roundTrips = new AtomicLong();
+    private final AtomicLong rowsRead = new AtomicLong();
+    private final AtomicLong rowsWritten = new AtomicLong();
+
+    private SqliteContactsProvider(Connection db) {
+        this.db = db;
+    }
+
+    /**
+     * Creates a provider holding the given contacts.
+     *
+     * @param rows  The contacts to hold. Each gets the contact and raw contact id it has in the rows.
+     * @return The provider.
+     */
+    static SqliteContactsProvider create(ContactRows rows) throws SQLException {
+        Connection db = DriverManager.getConnection("jdbc:sqlite::memory:");
+        try (Statement statement = db.createStatement()) {
+            for (String sql : SCHEMA) {
+                statement.execute(sql);
+            }
+        }
+
+        SqliteContactsProvider provider = new SqliteContactsProvider(db);
+        provider.seed(rows);
+        return provider;
+    }
+
+    private void seed(ContactRows rows) throws SQLException {
+        String[] columns = rows.getColumns();
+        int contactIdColumn = ContactRows.column(Contact.Field.ContactId.getColumn());
+        int displayNameColumn = ContactRows.column(Contact.Field.DisplayName.getColumn());
+        int mimeTypeColumn = ContactRows.column(Contact.InternalField.MimeType.getColumn());
+        List<Integer> dataColumns = new ArrayList<>();
+        for (int i = 0; i < columns.length; i++) {
+            if (columns[i].startsWith("data")) {
+                dataColumns.add(i);
+            }
+        }
+
+        db.setAutoCommit(false);
+        try (PreparedStatement contact = db.prepareStatement("INSERT INTO contacts (_id) VALUES (?)");
+             PreparedStatement rawContact = db.prepareStatement(
+                     "INSERT INTO raw_contacts (_id, contact_id) VALUES (?, ?)");
+             PreparedStatement data = db.prepareStatement(
+                     "INSERT INTO data (raw_contact_id, mimetype, " + DATA_COLUMNS + ") "
+                             + "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)")) {
+            long lastId = -1;
+            for (Object[] row : rows.getRows()) {
+                long id = (Long) row[contactIdColumn];
+                if (id != lastId) {
+                    contact.setLong(1, id);
+                    contact.addBatch();
+                    rawContact.setLong(1, id);
+                    rawContact.setLong(2, id);
+                    rawContact.addBatch();
+                    lastId = id;
+                }
+
+                data.clearParameters();
+                data.setLong(1, id);
+                data.setString(2, (String) row[mimeTypeColumn]);
+                for (int i = 1; i <= 15; i++) {
+                    data.setObject(2 + i, null);
+                }
+
+                for (int column : dataColumns) {
+                    int index = Integer.parseInt(columns[column].substring("data".length()));
+                    data.setObject(2 + index, row[column]);
+                }
+
+                if (CommonDataKinds.StructuredName.CONTENT_ITEM_TYPE.equals(row[mimeTypeColumn])) {
+                    data.setObject(3, row[displayNameColumn]);
+                }
+
+                data.addBatch();
+            }
+
+            contact.executeBatch();
+            rawContact.executeBatch();
+            data.executeBatch();
+            updateAggregates(null);
+            db.commit();
+        } finally {
+            db.setAutoCommit(true);
+        }
+    }
+
+    long getRoundTrips() {
+        return roundTrips.get();
+    }
+
+    long getRowsRead() {
+        return rowsRead.get();
+    }
+
+    long getRowsWritten() {
+        return rowsWritten.get();
+    }
+
+    @Override
+    public synchronized Cursor query(Uri uri, String[] projection, Bundle queryArgs, CancellationSignal signal) {
+        roundTrips.incrementAndGet();
+        if (signal != null) {
+            signal.throwIfCanceled();
+        }
+
+        String selection = queryArgs == null ? null : queryArgs.getString(ContentResolver.QUERY_ARG_SQL_SELECTION);
+        String[] selectionArgs = queryArgs == null ? null : queryArgs.getStringArray(ContentResolver.QUERY_ARG_SQL_SELECTION_ARGS);
+        String sortOrder = queryArgs == null ? null : queryArgs.getString(ContentResolver.QUERY_ARG_SQL_SORT_ORDER);
+
+        List<String> args = new ArrayList<>();
+        String source = source(uri, args);
+        StringBuilder sql = new StringBuilder("SELECT ")
+                .append(projection == null ? "*" : join(Arrays.asList(projection)))
+                .append(" FROM ").append(source);
+        if (selection != null) {
+            sql.append(" WHERE ").append(selection);
+            if (selectionArgs != null) {
+                args.addAll(Arrays.asList(selectionArgs));
+            }
+        }
+
+        if (sortOrder != null) {
+            sql.append(" ORDER BY ").append(sortOrder);
+        }
+
+        try (PreparedStatement statement = db.prepareStatement(sql.toString())) {
+            bind(statement, args);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                ResultSetMetaData metaData = resultSet.getMetaData();
+                String[] columns = new String[metaData.getColumnCount()];
+                for (int i = 0; i < columns.length; i++) {
+                    columns[i] = metaData.getColumnLabel(i + 1);
+                }
+
+                List<Object[]> rows = new ArrayList<>();
+                while (resultSet.next()) {
+                    Object[] row = new Object[columns.length];
+                    for (int i = 0; i < columns.length; i++) {
+                        row[i] = resultSet.getObject(i + 1);
+                    }
+                    rows.add(row);
+                }
+
+                rowsRead.addAndGet(rows.size());
+                return new RowsCursor(columns, rows.toArray(new Object[rows.size()][]), null);
+            }
+        } catch (SQLException e) {
+            // the provider reports invalid selections as SQLiteExceptions.
+            throw new SQLiteException(e.getMessage() + ", while compiling: " + sql);
+        }
+    }
+
+    /**
+     * Gets the table or sub query a uri reads from.
+     */
+    private static String source(Uri uri, List<String> args) {
+        List<String> segments = uri.getPathSegments();
+        String table = segments.isEmpty() ? "" : segments.get(0);
+        switch (table) {
+            case "data":
+                return "view_data";
+            case "raw_contacts":
+            case "contacts":
+            case "deleted_contacts":
+                return table;
+            case "phone_lookup":
+                String number = segments.get(1);
+                args.add(number);
+                args.add(number);
+                return "(SELECT DISTINCT contact_id AS _id, display_name, data1 AS number FROM view_data "
+                        + "WHERE mimetype = '" + CommonDataKinds.Phone.CONTENT_ITEM_TYPE + "' "
+                        + "AND (data4 = ? OR data1 = ?))";
+            default:
+                throw new IllegalArgumentException("Unknown URL " + uri);
+        }
+    }
+
+    @Override
+    public synchronized ContentProviderResult[] applyBatch(String authority,
+                                                           ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        roundTrips.incrementAndGet();
+        if (!ContactsContract.AUTHORITY.equals(authority)) {
+            throw new IllegalArgumentException("Unknown authority " + authority);
+        }
+
+        ContentProviderResult[] results = new ContentProviderResult[operations.size()];
+        Set<Long> touchedContacts = new LinkedHashSet<>();
+        try {
+            db.setAutoCommit(false);
+            try {
+                for (int i = 0; i < results.length; i++) {
+                    results[i] = apply(operations.get(i), results, i, touchedContacts);
+                }
+
+                updateAggregates(touchedContacts);
+                db.commit();
+            } catch (SQLException | RuntimeException e) {
+                db.rollback();
+                throw e;
+            } finally {
+                db.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            throw new OperationApplicationException(e.getMessage());
+        }
+
+        return results;
+    }
+
+    private ContentProviderResult apply(ContentProviderOperation operation, ContentProviderResult[] results,
+                                        int index, Set<Long> touchedContacts) throws SQLException {
+        Uri uri = operation.getUri();
+        String table = uri.getPathSegments().get(0);
+        if (!"data".equals(table) && !"raw_contacts".equals(table)) {
+            throw new IllegalArgumentException("Unsupported write to " + uri);
+        }
+
+        switch (operation.getType()) {
+            case ContentProviderOperation.TYPE_INSERT:
+                ContentValues values = operation.resolveValueBackReferences(results, index);
+                long id = "data".equals(table) ? insertData(values, touchedContacts)
+                        : insertRawContact(values, touchedContacts);
+                rowsWritten.incrementAndGet();
+                return new ContentProviderResult(ContentUris.withAppendedId(uri, id));
+            case ContentProviderOperation.TYPE_UPDATE:
+                return new ContentProviderResult(update(table, operation.resolveValueBackReferences(results, index),
+                        selection(operation), operation.resolveSelectionArgsBackReferences(results, index),
+                        touchedContacts));
+            case ContentProviderOperation.TYPE_DELETE:
+                return new ContentProviderResult(delete(table, selection(operation),
+                        operation.resolveSelectionArgsBackReferences(results, index), touchedContacts));
+            default:
+                throw new UnsupportedOperationException("Unsupported operation " + operation);
+        }
+    }
+
+    private long insertRawContact(ContentValues values, Set<Long> touchedContacts) throws SQLException {
+        long contactId = insert("contacts", new ContentValues());
+        ContentValues rawValues = new ContentValues(values);
+        rawValues.put(ContactsContract.RawContacts.CONTACT_ID, contactId);
+        touchedContacts.add(contactId);
+        return insert("raw_contacts", rawValues);
+    }
+
+    private long insertData(ContentValues values, Set<Long> touchedContacts) throws SQLException {
+        Long rawContactId = values.getAsLong(ContactsContract.Data.RAW_CONTACT_ID);
+        try (PreparedStatement statement = db.prepareStatement("SELECT contact_id FROM raw_contacts WHERE _id = ?")) {
+            statement.setLong(1, rawContactId);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                if (!resultSet.next()) {
+                    throw new SQLException("No raw contact " + rawContactId);
+                }
+
+                touchedContacts.add(resultSet.getLong(1));
+            }
+        }
+
+        return insert("data", values);
+    }
+
+    private long insert(String table, ContentValues values) throws SQLException {
+        List<String> columns = new ArrayList<>();
+        List<Object> args = new ArrayList<>();
+        for (Map.Entry<String, Object> entry : values.valueSet()) {
+            columns.add(entry.getKey());
+            args.add(entry.getValue());
+        }
+
+        String sql = columns.isEmpty() ? "INSERT INTO " + table + " DEFAULT VALUES"
+                : "INSERT INTO " + table + " (" + join(columns) + ") VALUES (" + placeholders(columns.size()) + ")";
+        try (PreparedStatement statement = db.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
+            bind(statement, args);
+            statement.executeUpdate();
+            try (ResultSet keys = statement.getGeneratedKeys()) {
+                keys.next();
+                return keys.getLong(1);
+            }
+        }
+    }
+
+    private int update(String table, ContentValues values, String selection, String[] selectionArgs,
+                       Set<Long> touchedContacts) throws SQLException {
+        List<Long> ids = select(table, selection, selectionArgs, touchedContacts);
+        if (ids.isEmpty() || values.size() == 0) {
+            return 0;
+        }
+
+        List<String> assignments = new ArrayList<>();
+        List<Object> args = new ArrayList<>();
+        for (Map.Entry<String, Object> entry : values.valueSet()) {
+            assignments.add(entry.getKey() + " = ?");
+            args.add(entry.getValue());
+        }
+
+        String sql = "UPDATE " + table + " SET " + join(assignments) + " WHERE _id IN (" + join(ids) + ")";
+        try (PreparedStatement statement = db.prepareStatement(sql)) {
+            bind(statement, args);
+            int count = statement.executeUpdate();
+            rowsWritten.addAndGet(count);
+            return count;
+        }
+    }
+
+    private int delete(String table, String selection, String[] selectionArgs, Set<Long> touchedContacts)
+            throws SQLException {
+        List<Long> ids = select(table, selection, selectionArgs, touchedContacts);
+        if (ids.isEmpty()) {
+            return 0;
+        }
+
+        String in = " WHERE _id IN (" + join(ids) + ")";
+        try (Statement statement = db.createStatement()) {
+            int count;
+            if ("data".equals(table)) {
+                count = statement.executeUpdate("DELETE FROM data" + in);
+            } else {
+                // like the provider, deleted raw contacts are only marked, and their contacts recorded.
+                count = statement.executeUpdate("UPDATE raw_contacts SET deleted = 1" + in);
+                statement.executeUpdate("INSERT OR REPLACE INTO deleted_contacts (contact_id, "
+                        + "contact_deleted_timestamp) SELECT contact_id, " + System.currentTimeMillis()
+                        + " FROM raw_contacts" + in);
+            }
+
+            rowsWritten.addAndGet(count);
+            return count;
+        }
+    }
+
+    /**
+     * Selects the ids of the rows a write applies to, noting their contacts. Data selections are
+     * evaluated against view_data, so they can refer to the contact id like in the provider.
+     */
+    private List<Long> select(String table, String selection, String[] selectionArgs, Set<Long> touchedContacts)
+            throws SQLException {
+        String source = "data".equals(table) ? "view_data" : "raw_contacts";
+        String sql = "SELECT _id, contact_id FROM " + source + (selection == null ? "" : " WHERE " + selection);
+        List<Long> ids = new ArrayList<>();
+        try (PreparedStatement statement = db.prepareStatement(sql)) {
+            bind(statement, selectionArgs == null ? null : Arrays.<Object>asList((Object[]) selectionArgs));
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    ids.add(resultSet.getLong(1));
+                    touchedContacts.add(resultSet.getLong(2));
+                }
+            }
+        }
+
+        return ids;
+    }
+
+    /**
+     * Updates the display names, sort keys and has_phone_number of the given contacts, or of
+     * all contacts if null.
+     */
+    private void updateAggregates(Set<Long> contactIds) throws SQLException {
+        if (contactIds != null && contactIds.isEmpty()) {
+            return;
+        }
+
+        String where = contactIds == null ? "" : " WHERE _id IN (" + join(contactIds) + ")";
+        try (PreparedStatement statement = db.prepareStatement(UPDATE_AGGREGATES + where);
+             Statement sortKeys = db.createStatement()) {
+            statement.setLong(1, System.currentTimeMillis());
+            statement.executeUpdate();
+            sortKeys.executeUpdate(UPDATE_SORT_KEYS + where);
+        }
+    }
+
+    private static String selection(ContentProviderOperation operation) {
+        try {
+            return (String) SELECTION.get(operation);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void bind(PreparedStatement statement, List<?> args) throws SQLException {
+        if (args == null) {
+            return;
+        }
+
+        for (int i = 0; i < args.size(); i++) {
+            statement.setObject(i + 1, args.get(i));
+        }
+    }
+
+    private static String join(Iterable<?> values) {
+        StringBuilder builder = new StringBuilder();
+        for (Object value : values) {
+            if (builder.length() > 0) {
+                builder.append(", ");
+            }
+            builder.append(value);
+        }
+
+        return builder.toString();
+    }
+
+    private static String placeholders(int count) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            builder.append(i == 0 ? "?" : ", ?");
+        }
+
+        return builder.toString();
+    }
+
+    @Override
+    public void close() {
+        try {
+            db.close();
+        } catch (SQLException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
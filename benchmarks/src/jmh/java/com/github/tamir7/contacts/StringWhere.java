@@ -0,0 +1,123 @@
+/*
+ * Copyright 2016 Tamir Shomer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.tamir7.contacts;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The selection of the library before it was kept as a predicate tree: every and() and or() formats
+ * the SQL built so far into a new string and copies the arguments. Kept as the baseline of
+ * {@link WhereBenchmark}, with the factories the benchmark uses.
+ */
+final class StringWhere {
+    private final String where;
+    private final List<Object> args;
+
+    private StringWhere(String where, List<Object> args) {
+        this.where = where;
+        this.args = args;
+    }
+
+    private StringWhere(String key, Object value, String operator, String prefix, String suffix) {
+        List<Object> args = new ArrayList<>(1);
+        where = key + operator + toSql(value, prefix, suffix, args);
+        this.args = Collections.unmodifiableList(args);
+    }
+
+    private StringWhere(String key, List<?> objects, String operator) {
+        List<Object> args = new ArrayList<>(objects.size());
+        StringBuilder where = new StringBuilder(key).append(operator).append("(");
+        boolean first = true;
+        for (Object o : objects) {
+            if (first) {
+                first = false;
+            } else {
+                where.append(", ");
+            }
+            where.append(toSql(o, "", "", args));
+        }
+
+        this.where = where.append(")").toString();
+        this.args = Collections.unmodifiableList(args);
+    }
+
+    static StringWhere in(String key, List<?> objects) {
+        return new StringWhere(key, objects, " IN ");
+    }
+
+    static StringWhere equalTo(String key, Object value) {
+        return new StringWhere(key, value, "=", "", "");
+    }
+
+    static StringWhere startsWith(String key, Object prefix) {
+        return new StringWhere(key, prefix, " LIKE ", "", "%");
+    }
+
+    static StringWhere notEqualTo(String key, Object value) {
+        return new StringWhere(key, value, "!=", "", "");
+    }
+
+    StringWhere and(StringWhere andWhere) {
+        return new StringWhere(String.format("( %s AND %s )", where, andWhere.where), concat(args, andWhere.args));
+    }
+
+    StringWhere or(StringWhere orWhere) {
+        return new StringWhere(String.format("( %s OR %s )", where, orWhere.where), concat(args, orWhere.args));
+    }
+
+    String[] getArgs() {
+        if (args.isEmpty()) {
+            return null;
+        }
+
+        String[] selectionArgs = new String[args.size()];
+        for (int i = 0; i < selectionArgs.length; i++) {
+            selectionArgs[i] = (String) args.get(i);
+        }
+
+        return selectionArgs;
+    }
+
+    private static String toSql(Object value, String prefix, String suffix, List<Object> args) {
+        if ((value instanceof Number || value instanceof Boolean) && prefix.isEmpty() && suffix.isEmpty()) {
+            return value.toString();
+        }
+
+        args.add(prefix + value + suffix);
+        return "?";
+    }
+
+    private static List<Object> concat(List<Object> first, List<Object> second) {
+        if (second.isEmpty()) {
+            return first;
+        } else if (first.isEmpty()) {
+            return second;
+        }
+
+        List<Object> args = new ArrayList<>(first.size() + second.size());
+        args.addAll(first);
+        args.addAll(second);
+        return Collections.unmodifiableList(args);
+    }
+
+    @Override
+    public String toString() {
+        return where;
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2016 Tamir Shomer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.github.tamir7.contacts;
+
+import android.content.ContentResolver;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Queries with constraints on several mime types, resolved either by a single selection of
+ * nested sub selects or by one id query per mime type followed by a fetch of the found ids.
+ * The provider is a {@link SqliteContactsProvider}, so both paths pay for real SQL.
+ *
+ * Next to the latency, the roundTrips counter reports the provider calls per query.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class SubselectBenchmark {
+
+    @Param({"10000"})
+    public int contacts;
+
+    @Param({"subselect", "per-mime"})
+    public String path;
+
+    private SqliteContactsProvider provider;
+    private ContentResolver resolver;
+
+    @Setup
+    public void setUp() throws Exception {
+        provider = SqliteContactsProvider.create(ContactRows.generate(contacts, 42));
+        resolver = new ProviderResolver(provider);
+        Query.setSubselectsSupported(path.equals("subselect"));
+    }
+
+    @TearDown
+    public void tearDown() {
+        Query.setSubselectsSupported(null);
+        provider.close();
+    }
+
+    @Benchmark
+    public List<Contact> twoMimeTypes(RoundTrips roundTrips) {
+        long calls = provider.getRoundTrips();
+        List<Contact> result = new Query(resolver)
+                .whereEqualTo(Contact.Field.GivenName, "Maya")
+                .whereContains(Contact.Field.Email, "example.com")
+                .find();
+        roundTrips.add(provider.getRoundTrips() - calls);
+        return result;
+    }
+
+    @Benchmark
+    public List<Contact> threeMimeTypes(RoundTrips roundTrips) {
+        long calls = provider.getRoundTrips();
+        List<Contact> result = new Query(resolver)
+                .whereStartsWith(Contact.Field.GivenName, "A")
+                .whereContains(Contact.Field.Email, "example.com")
+                .whereStartsWith(Contact.Field.PhoneNumber, "+1")
+                .find();
+        roundTrips.add(provider.getRoundTrips() - calls);
+        return result;
+    }
+
+    @Benchmark
+    public List<Contact> orOfMimeTypes(RoundTrips roundTrips) {
+        long calls = provider.getRoundTrips();
+        List<Contact> result = new Query(resolver).or(Arrays.asList(
+                new Query(resolver).whereEqualTo(Contact.Field.GivenName, "Noa")
+                        .whereContains(Contact.Field.Email, "example.com"),
+                new Query(resolver).whereEqualTo(Contact.Field.CompanyName, "Acme")))
+                .find();
+        roundTrips.add(provider.getRoundTrips() - calls);
+        return result;
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2016 Tamir Shomer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.tamir7.contacts;
+
+import android.provider.ContactsContract;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Composing and rendering selections, as done for every provider call of a query.
+ * compose100TermsStringWhere is the same predicate built with {@link StringWhere}, the string based
+ * selection before the predicate tree, as the baseline of compose100Terms.
+ */
+public class WhereBenchmark {
+    private static final String CONTACT_ID = ContactsContract.RawContacts.CONTACT_ID;
+
+    @State(Scope.Benchmark)
+    public static class Ids {
+        @Param({"100", "1000", "10000"})
+        public int size;
+
+        List<Object> list;
+        IdSet set;
+
+        @Setup
+        public void setUp() {
+            list = new ArrayList<>(size);
+            long[] ids = new long[size];
+            for (int i = 0; i < size; i++) {
+                list.add((long) i * 3);
+                ids[i] = i * 3;
+            }
+
+            set = IdSet.of(ids);
+        }
+    }
+
+    /**
+     * An in() list of boxed ids, as passed to the public query methods.
+     */
+    @Benchmark
+    public String inList(Ids ids) {
+        return Where.in(CONTACT_ID, ids.list).toString();
+    }
+
+    /**
+     * An in() list of resolved ids, rendered inline.
+     */
+    @Benchmark
+    public String inIdSet(Ids ids) {
+        return Where.in(CONTACT_ID, ids.set).toString();
+    }
+
+    /**
+     * Two in() lists on the same column, as produced by several constraints of a mime type.
+     */
+    @Benchmark
+    public String andInLists(Ids ids) {
+        return Where.in(CONTACT_ID, ids.set).and(Where.in(CONTACT_ID, ids.list)).toString();
+    }
+
+    /**
+     * A predicate of 100 mixed terms joined by and() and or(), built and rendered.
+     */
+    @Benchmark
+    public String[] compose100Terms() {
+        Where where = Where.equalTo(ContactsContract.Data.MIMETYPE,
+                ContactsContract.CommonDataKinds.Phone.CONTENT_ITEM_TYPE);
+        for (int i = 0; i < 100; i++) {
+            Where term;
+            switch (i % 3) {
+                case 0:
+                    term = Where.startsWith(ContactsContract.Data.DATA1, "val" + i);
+                    break;
+                case 1:
+                    term = Where.in(ContactsContract.Data.DATA2, Arrays.<Object>asList(1, 2, 3, i));
+                    break;
+                default:
+                    term = Where.notEqualTo(ContactsContract.Data.DATA3, "x" + i);
+                    break;
+            }
+
+            where = i % 2 == 0 ? where.and(term) : where.or(term);
+        }
+
+        where.toString();
+        return where.getArgs(null);
+    }
+
+    @Benchmark
+    public String[] compose100TermsStringWhere() {
+        StringWhere where = StringWhere.equalTo(ContactsContract.Data.MIMETYPE,
+                ContactsContract.CommonDataKinds.Phone.CONTENT_ITEM_TYPE);
+        for (int i = 0; i < 100; i++) {
+            StringWhere term;
+            switch (i % 3) {
+                case 0:
+                    term = StringWhere.startsWith(ContactsContract.Data.DATA1, "val" + i);
+                    break;
+                case 1:
+                    term = StringWhere.in(ContactsContract.Data.DATA2, Arrays.<Object>asList(1, 2, 3, i));
+                    break;
+                default:
+                    term = StringWhere.notEqualTo(ContactsContract.Data.DATA3, "x" + i);
+                    break;
+            }
+
+            where = i % 2 == 0 ? where.and(term) : where.or(term);
+        }
+
+        where.toString();
+        return where.getArgs();
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ * Copyright 2016 Tamir Shomer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.tamir7.contacts;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.OperationApplicationException;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.CancellationSignal;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class BatchWriterTest {
+    private static final String PREFIX = "Batch ";
+
+    private SqliteContactsProvider provider;
+    private ProviderResolver resolver;
+
+    @Before
+    public void setUp() throws Exception {
+        provider = SqliteContactsProvider.create(ContactRows.generate(10, 1));
+        resolver = new ProviderResolver(provider);
+    }
+
+    @After
+    public void tearDown() {
+        provider.close();
+    }
+
+    @Test
+    public void backReferencesSurviveBatchBoundaries() {
+        List<Contact> contacts = contacts(300);
+
+        final List<Integer> progress = new ArrayList<>();
+        BatchWriter writer = new BatchWriter(resolver, new ProgressListener() {
+            @Override
+            public void onProgress(int written) {
+                progress.add(written);
+            }
+        });
+        long roundTrips = provider.getRoundTrips();
+        for (Contact contact : contacts) {
+            writer.insert(contact);
+        }
+        writer.flush();
+
+        int batches = (int) (provider.getRoundTrips() - roundTrips);
+        assertTrue("batches: " + batches, batches > 1);
+        assertEquals(batches, progress.size());
+        assertEquals(Integer.valueOf(contacts.size()), progress.get(progress.size() - 1));
+
+        Map<String, Contact> found = new HashMap<>();
+        for (Contact contact : new Query(resolver).whereStartsWith(Contact.Field.DisplayName, PREFIX).find()) {
+            found.put(contact.getDisplayName(), contact);
+        }
+
+        assertEquals(contacts.size(), found.size());
+        for (int i = 0; i < contacts.size(); i++) {
+            Contact contact = found.get(PREFIX + i);
+            List<String> numbers = new ArrayList<>();
+            for (PhoneNumber phoneNumber : contact.getPhoneNumbers()) {
+                numbers.add(phoneNumber.getNumber());
+            }
+
+            for (int j = 0; j < 5; j++) {
+                assertTrue(numbers.contains(number(i, j)));
+            }
+            assertEquals(5, numbers.size());
+        }
+    }
+
+    @Test
+    public void rejectedBatchesFailTheWrite() {
+        Query query = new Query(resolver(2));
+        try {
+            query.insertAll(contacts(300));
+            fail("expected a ContactWriteException");
+        } catch (ContactWriteException e) {
+            assertTrue(e.getCause() instanceof OperationApplicationException);
+        }
+
+        // the first batch stays written, the rest is not.
+        int written = new Query(resolver).whereStartsWith(Contact.Field.DisplayName, PREFIX).find().size();
+        assertTrue("written: " + written, written > 0 && written < 300);
+    }
+
+    @Test
+    public void progressStopsAtTheRejectedBatch() {
+        final List<Integer> progress = new ArrayList<>();
+        ContactWriteException error = null;
+        try {
+            new Query(resolver(3)).insertAll(contacts(300), new ProgressListener() {
+                @Override
+                public void onProgress(int written) {
+                    progress.add(written);
+                }
+            });
+        } catch (ContactWriteException e) {
+            error = e;
+        }
+
+        assertNotNull(error);
+        assertEquals(2, progress.size());
+        assertEquals(progress.get(1), Integer.valueOf(error.getWrittenContacts()));
+        assertEquals(error.getWrittenContacts(),
+                new Query(resolver).whereStartsWith(Contact.Field.DisplayName, PREFIX).find().size());
+    }
+
+    @Test
+    public void flushWithoutOperationsDoesNothing() {
+        long roundTrips = provider.getRoundTrips();
+
+        new BatchWriter(resolver).flush();
+
+        assertEquals(roundTrips, provider.getRoundTrips());
+    }
+
+    // 7 operations per contact, so batches end at contact boundaries that don't divide the limit.
+    private static List<Contact> contacts(int count) {
+        List<Contact> contacts = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Contact contact = new Contact().addDisplayName(PREFIX + i);
+            for (int j = 0; j < 5; j++) {
+                contact.addPhoneNumber(new PhoneNumber(number(i, j), PhoneNumber.Type.MOBILE, null));
+            }
+            contacts.add(contact);
+        }
+
+        return contacts;
+    }
+
+    /**
+     * Creates a resolver of the provider that rejects the given batch, counting from 1.
+     */
+    private ProviderResolver resolver(final int rejectedBatch) {
+        return new ProviderResolver(new AbstractContentInterface() {
+            private int batches = 0;
+
+            @Override
+            public Cursor query(Uri uri, String[] projection, Bundle queryArgs, CancellationSignal signal) {
+                return provider.query(uri, projection, queryArgs, signal);
+            }
+
+            @Override
+            public ContentProviderResult[] applyBatch(String authority, ArrayList<ContentProviderOperation> operations)
+                    throws OperationApplicationException {
+                if (++batches == rejectedBatch) {
+                    throw new OperationApplicationException("rejected batch " + batches);
+                }
+
+                return provider.applyBatch(authority, operations);
+            }
+        });
+    }
+
+    private static String number(int contact, int index) {
+        return "+1 555 " + (1000000 + contact * 10 + index);
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright 2016 Tamir Shomer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.tamir7.contacts;
+
+import android.provider.ContactsContract;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Pages through names with ties and null values in SQLite, from every position of the full order.
+ */
+public class ContactOrderTest {
+    private static final String NAME = ContactsContract.Data.DISPLAY_NAME;
+    private static final String ID = ContactsContract.RawContacts.CONTACT_ID;
+    private static final String[] NAMES = {"Ann", "Ben", "Ann", null, "ann", "Zoe", null, "Ben", "Ann", "Émile"};
+
+    private Connection connection;
+
+    @Before
+    public void setUp() throws SQLException {
+        connection = DriverManager.getConnection("jdbc:sqlite::memory:");
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("CREATE TABLE data (" + ID + " INTEGER, " + NAME + " TEXT)");
+        }
+
+        try (PreparedStatement insert = connection.prepareStatement("INSERT INTO data VALUES (?, ?)")) {
+            for (int i = 0; i < NAMES.length; i++) {
+                insert.setLong(1, 100 - i * 7);
+                insert.setString(2, NAMES[i]);
+                insert.execute();
+            }
+        }
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        connection.close();
+    }
+
+    @Test
+    public void pagesAscendingWithTies() throws SQLException {
+        assertPagesFromEveryPosition(ContactOrder.DEFAULT);
+    }
+
+    @Test
+    public void pagesDescendingWithTies() throws SQLException {
+        assertPagesFromEveryPosition(ContactOrder.NONE.then(NAME, true, false));
+    }
+
+    @Test
+    public void pagesByIdOnly() throws SQLException {
+        assertPagesFromEveryPosition(ContactOrder.NONE.then(ID, true, false));
+    }
+
+    @Test
+    public void comparatorBreaksTiesById() {
+        ContactOrder order = ContactOrder.DEFAULT;
+
+        assertTrue(order.comparator().compare(new Object[]{"Ann", 1L}, new Object[]{"Ann", 2L}) < 0);
+        assertTrue(order.comparator().compare(new Object[]{null, 9L}, new Object[]{"Ann", 2L}) < 0);
+        assertTrue(order.comparator().compare(new Object[]{"Zoe", 1L}, new Object[]{"Émile", 2L}) < 0);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void comparatorRejectsLocalizedKeys() {
+        ContactOrder.NONE.then(ContactsContract.Contacts.SORT_KEY_PRIMARY, false, true).comparator();
+    }
+
+    private void assertPagesFromEveryPosition(ContactOrder order) throws SQLException {
+        List<Object[]> all = select(order, null);
+        assertEquals(NAMES.length, all.size());
+
+        boolean unique = order.getSortOrder().equals(ID + " DESC");
+        for (int i = 0; i < all.size(); i++) {
+            Object[] position = all.get(i);
+            Object[] values = unique ? new Object[0] : new Object[]{position[0]};
+            List<Object[]> page = select(order, order.after(values, (Long) position[1]));
+
+            assertEquals("after position " + i, ids(all.subList(i + 1, all.size())), ids(page));
+        }
+    }
+
+    private List<Object[]> select(ContactOrder order, Where where) throws SQLException {
+        String sql = "SELECT " + NAME + ", " + ID + " FROM data"
+                + (where == null ? "" : " WHERE " + where) + " ORDER BY " + order.getSortOrder();
+        List<Object[]> rows = new ArrayList<>();
+        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+            String[] args = where == null ? null : where.getArgs(null);
+            for (int i = 0; args != null && i < args.length; i++) {
+                statement.setString(i + 1, args[i]);
+            }
+
+            try (ResultSet result = statement.executeQuery()) {
+                while (result.next()) {
+                    rows.add(new Object[]{result.getString(1), result.getLong(2)});
+                }
+            }
+        }
+
+        return rows;
+    }
+
+    private static List<Long> ids(List<Object[]> rows) {
+        List<Long> ids = new ArrayList<>();
+        for (Object[] row : rows) {
+            ids.add((Long) row[1]);
+        }
+
+        return ids;
+    }
+}
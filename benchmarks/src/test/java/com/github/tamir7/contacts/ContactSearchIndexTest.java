@@ -0,0 +1,117 @@
+/*
+ * Copyright 2016 Tamir Shomer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.tamir7.contacts;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ContactSearchIndexTest {
+
+    @Test
+    public void findsWordsByPrefix() {
+        ContactSearchIndex index = new ContactSearchIndex(Arrays.asList(
+                contact(1, "Ann Schmidt", "+49 151 1234567"),
+                contact(2, "Anna Schulz", "+49 30 7654321"),
+                contact(3, "Ben Annen", "+1 212 5550000")));
+
+        assertEquals(Arrays.asList(1L, 2L, 3L), index.search("ann", 10));
+        assertEquals(Arrays.asList(1L, 2L), index.search("ann sch", 10));
+        assertEquals(Collections.singletonList(2L), index.search("schu", 10));
+        assertEquals(Collections.<Long>emptyList(), index.search("carl", 10));
+        assertEquals(Collections.singletonList(1L), index.search("ann sch", 1));
+    }
+
+    @Test
+    public void ranksExactMatchesFirst() {
+        ContactSearchIndex index = new ContactSearchIndex(Arrays.asList(
+                contact(1, "Annabel Lee", null),
+                contact(2, "Ann Lee", null)));
+
+        assertEquals(Arrays.asList(2L, 1L), index.search("ann", 10));
+    }
+
+    @Test
+    public void ignoresCaseAndDiacritics() {
+        ContactSearchIndex index = new ContactSearchIndex(Collections.singletonList(contact(1, "Émile Müller", null)));
+
+        assertEquals(Collections.singletonList(1L), index.search("emile MULL", 10));
+    }
+
+    @Test
+    public void findsDigitsAnywhereInNumbers() {
+        ContactSearchIndex index = new ContactSearchIndex(Arrays.asList(
+                contact(1, "Ann", "+49 151 1234567"),
+                contact(2, "Ben", "+1 212 5550000")));
+
+        assertEquals(Collections.singletonList(1L), index.search("4567", 10));
+        assertEquals(Collections.singletonList(2L), index.search("1212", 10));
+    }
+
+    @Test
+    public void removesContacts() {
+        ContactSearchIndex index = new ContactSearchIndex(Arrays.asList(
+                contact(1, "Ann Schmidt", "+49 151 1234567"),
+                contact(2, "Anna Schulz", null)));
+
+        assertTrue(index.remove(1));
+        assertFalse(index.remove(1));
+        assertEquals(1, index.size());
+        assertEquals(Collections.singletonList(2L), index.search("ann", 10));
+        assertEquals(Collections.<Long>emptyList(), index.search("schm", 10));
+        assertEquals(Collections.<Long>emptyList(), index.search("4567", 10));
+    }
+
+    @Test
+    public void replacesContactsWithTheSameId() {
+        ContactSearchIndex index = new ContactSearchIndex(Collections.singletonList(contact(1, "Ann Schmidt", null)));
+
+        index.add(contact(1, "Ann Weber", null));
+
+        assertEquals(1, index.size());
+        assertEquals(Collections.<Long>emptyList(), index.search("schmidt", 10));
+        assertEquals(Collections.singletonList(1L), index.search("web", 10));
+    }
+
+    @Test
+    public void findsWordsAgainAfterRemovingAllContacts() {
+        ContactSearchIndex index = new ContactSearchIndex(ContactRows.generate(200, 42).getContacts());
+        for (Contact contact : ContactRows.generate(200, 42).getContacts()) {
+            index.remove(contact.getId());
+        }
+
+        index.add(contact(1, "Ann Schmidt", null));
+
+        assertEquals(0, index.search("b", 10).size());
+        assertEquals(Collections.singletonList(1L), index.search("schm", 10));
+    }
+
+    private static Contact contact(long id, String name, String number) {
+        Contact contact = new Contact().addDisplayName(name);
+        contact.setId(id);
+        if (number != null) {
+            contact.addPhoneNumber(new PhoneNumber(number, PhoneNumber.Type.MOBILE, null));
+        }
+
+        return contact;
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright 2016 Tamir Shomer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.tamir7.contacts;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class ContactSnapshotTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void readsBackWhatWasWritten() throws IOException {
+        List<Contact> contacts = ContactRows.generate(500, 42).getContacts();
+        File file = folder.newFile();
+
+        ContactSnapshot.write(file, contacts, 1234L, "where null");
+        ContactSnapshot snapshot = ContactSnapshot.open(file);
+
+        assertEquals(1234L, snapshot.getTimestamp());
+        assertEquals("where null", snapshot.getQueryKey());
+        assertEquals(contacts.size(), snapshot.size());
+        for (int i = 0; i < contacts.size(); i++) {
+            assertContact(contacts.get(i), snapshot.get(i));
+        }
+    }
+
+    @Test
+    public void findsContactsById() throws IOException {
+        List<Contact> contacts = ContactRows.generate(100, 7).getContacts();
+        File file = folder.newFile();
+        ContactSnapshot.write(file, contacts, 0, "");
+        ContactSnapshot snapshot = ContactSnapshot.open(file);
+
+        for (Contact contact : contacts) {
+            assertContact(contact, snapshot.findById(contact.getId()));
+        }
+
+        assertNull(snapshot.findById(-5));
+    }
+
+    @Test
+    public void writesEmptySnapshots() throws IOException {
+        File file = folder.newFile();
+        ContactSnapshot.write(file, Collections.<Contact>emptyList(), 5, "key");
+
+        assertEquals(0, ContactSnapshot.open(file).size());
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsTruncatedFiles() throws IOException {
+        File file = folder.newFile();
+        ContactSnapshot.write(file, ContactRows.generate(10, 1).getContacts(), 0, "");
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(raf.length() - 3);
+        }
+
+        ContactSnapshot.open(file);
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsNegativeCounts() throws IOException {
+        ContactSnapshot.open(corrupt(16, -100));
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsCountsBeyondTheFile() throws IOException {
+        ContactSnapshot.open(corrupt(40, 1 << 29));
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsCountsThatOverflowTheOffsets() throws IOException {
+        ContactSnapshot.open(corrupt(16, Integer.MAX_VALUE / 40));
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsQueryKeysOutsideOfTheStrings() throws IOException {
+        ContactSnapshot.open(corrupt(44, 1 << 20));
+    }
+
+    /**
+     * Writes a snapshot and overwrites one int of its header.
+     */
+    private File corrupt(int offset, int value) throws IOException {
+        File file = folder.newFile();
+        ContactSnapshot.write(file, ContactRows.generate(10, 1).getContacts(), 0, "key");
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(offset);
+            raf.writeInt(value);
+        }
+
+        return file;
+    }
+
+    private static void assertContact(Contact expected, Contact actual) {
+        assertEquals(expected.getId(), actual.getId());
+        assertEquals(expected.getDisplayName(), actual.getDisplayName());
+        assertEquals(expected.getGivenName(), actual.getGivenName());
+        assertEquals(expected.getFamilyName(), actual.getFamilyName());
+        assertEquals(expected.getPhotoUri(), actual.getPhotoUri());
+        assertEquals(expected.getCompanyName(), actual.getCompanyName());
+        assertEquals(expected.getCompanyTitle(), actual.getCompanyTitle());
+        assertEquals(expected.getNote(), actual.getNote());
+        assertEquals(expected.getPhoneNumbers(), actual.getPhoneNumbers());
+        assertEquals(expected.getEmails(), actual.getEmails());
+        assertEquals(expected.getEvents(), actual.getEvents());
+        assertEquals(expected.getWebsites(), actual.getWebsites());
+        assertEquals(expected.getAddresses().size(), actual.getAddresses().size());
+        for (int i = 0; i < expected.getAddresses().size(); i++) {
+            Address expectedAddress = expected.getAddresses().get(i);
+            Address actualAddress = actual.getAddresses().get(i);
+            assertEquals(expectedAddress.getFormattedAddress(), actualAddress.getFormattedAddress());
+            assertEquals(expectedAddress.getStreet(), actualAddress.getStreet());
+            assertEquals(expectedAddress.getCity(), actualAddress.getCity());
+            assertEquals(expectedAddress.getType(), actualAddress.getType());
+        }
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2016 Tamir Shomer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.tamir7.contacts;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ContactTableTest {
+    private SqliteContactsProvider provider;
+    private ProviderResolver resolver;
+
+    @Before
+    public void setUp() throws Exception {
+        provider = SqliteContactsProvider.create(ContactRows.generate(2000, 42));
+        resolver = new ProviderResolver(provider);
+    }
+
+    @After
+    public void tearDown() {
+        Query.setSubselectsSupported(null);
+        provider.close();
+    }
+
+    @Test
+    public void holdsTheContactsFindReturns() {
+        for (boolean subselects : new boolean[]{true, false}) {
+            Query.setSubselectsSupported(subselects);
+
+            assertTable(new Query(resolver).find(), new Query(resolver).findTable());
+        }
+    }
+
+    @Test
+    public void holdsTheContactsMatchingConstraints() {
+        for (boolean subselects : new boolean[]{true, false}) {
+            Query.setSubselectsSupported(subselects);
+            Query query = new Query(resolver).whereStartsWith(Contact.Field.DisplayName, "A")
+                    .whereContains(Contact.Field.Email, "example.com");
+            Query tableQuery = new Query(resolver).whereStartsWith(Contact.Field.DisplayName, "A")
+                    .whereContains(Contact.Field.Email, "example.com");
+
+            List<Contact> expected = query.find();
+            assertTrue(!expected.isEmpty());
+            assertTable(expected, tableQuery.findTable());
+        }
+    }
+
+    @Test
+    public void streamsRowsUpToTheLimit() {
+        for (boolean subselects : new boolean[]{true, false}) {
+            Query.setSubselectsSupported(subselects);
+            long rowsRead = provider.getRowsRead();
+            new Query(resolver).whereContains(Contact.Field.Email, "example.com").findTable();
+            long allRows = provider.getRowsRead() - rowsRead;
+
+            rowsRead = provider.getRowsRead();
+            ContactTable table = new Query(resolver).whereContains(Contact.Field.Email, "example.com")
+                    .limit(30).findTable();
+            long firstRows = provider.getRowsRead() - rowsRead;
+
+            assertTable(new Query(resolver).whereContains(Contact.Field.Email, "example.com").limit(30).find(),
+                    table);
+            assertTrue(firstRows + " of " + allRows, firstRows < allRows / 2);
+        }
+    }
+
+    @Test
+    public void movesRowsOverTheTable() {
+        ContactTable table = new Query(resolver).limit(10).findTable();
+        ContactTable.Row row = table.newRow();
+
+        int count = 0;
+        while (row.moveToNext()) {
+            assertEquals(table.getId(count), row.getId());
+            assertEquals(table.getDisplayName(count), row.getDisplayName());
+            assertEquals(table.getPhoneNumberCount(count), row.getPhoneNumberCount());
+            count++;
+        }
+
+        assertEquals(10, count);
+    }
+
+    private static void assertTable(List<Contact> expected, ContactTable table) {
+        assertEquals(expected.size(), table.size());
+        for (int i = 0; i < expected.size(); i++) {
+            Contact contact = expected.get(i);
+            Contact row = table.getContact(i);
+            assertEquals(contact.getId(), row.getId());
+            assertEquals(contact.getDisplayName(), row.getDisplayName());
+            assertEquals(contact.getGivenName(), row.getGivenName());
+            assertEquals(contact.getFamilyName(), row.getFamilyName());
+            assertEquals(contact.getCompanyName(), row.getCompanyName());
+            assertEquals(contact.getCompanyTitle(), row.getCompanyTitle());
+            assertEquals(contact.getNote(), row.getNote());
+            assertEquals(contact.getPhoneNumbers(), row.getPhoneNumbers());
+            assertEquals(contact.getEmails(), row.getEmails());
+            assertEquals(contact.getEvents(), row.getEvents());
+            assertEquals(contact.getWebsites(), row.getWebsites());
+            assertEquals(contact.getAddresses().size(), row.getAddresses().size());
+            for (int j = 0; j < contact.getAddresses().size(); j++) {
+                assertEquals(contact.getAddresses().get(j).getFormattedAddress(),
+                        row.getAddresses().get(j).getFormattedAddress());
+            }
+        }
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2016 Tamir Shomer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.tamir7.contacts;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class IdSetExecutorTest {
+    // sorts by the last digit, so the results of every chunk interleave with all others.
+    private static final Comparator<Long> BY_LAST_DIGIT = new Comparator<Long>() {
+        @Override
+        public int compare(Long lhs, Long rhs) {
+            int result = Long.compare(lhs % 10, rhs % 10);
+            return result != 0 ? result : Long.compare(lhs, rhs);
+        }
+    };
+
+    private static final IdSetExecutor.ChunkQuery<Long> SORTED_CHUNK = new IdSetExecutor.ChunkQuery<Long>() {
+        @Override
+        public List<Long> query(IdSet ids) {
+            List<Long> result = toList(ids);
+            Collections.sort(result, BY_LAST_DIGIT);
+            return result;
+        }
+    };
+
+    @Test
+    public void mergesChunksInOrder() {
+        IdSet ids = range(IdSetExecutor.CHUNK_SIZE * 3 + 7);
+        List<Long> expected = toList(ids);
+        Collections.sort(expected, BY_LAST_DIGIT);
+
+        assertEquals(expected, IdSetExecutor.execute(ids, SORTED_CHUNK, BY_LAST_DIGIT, -1));
+    }
+
+    @Test
+    public void stopsMergingAtTheLimit() {
+        IdSet ids = range(IdSetExecutor.CHUNK_SIZE * 3 + 7);
+        List<Long> expected = toList(ids);
+        Collections.sort(expected, BY_LAST_DIGIT);
+
+        assertEquals(expected.subList(0, 25), IdSetExecutor.execute(ids, SORTED_CHUNK, BY_LAST_DIGIT, 25));
+        assertEquals(0, IdSetExecutor.execute(ids, SORTED_CHUNK, BY_LAST_DIGIT, 0).size());
+    }
+
+    @Test
+    public void truncatesASingleChunk() {
+        IdSet ids = range(20);
+
+        assertEquals(SORTED_CHUNK.query(ids).subList(0, 5), IdSetExecutor.execute(ids, SORTED_CHUNK, BY_LAST_DIGIT, 5));
+    }
+
+    @Test
+    public void concatenatesChunksInIdOrder() {
+        IdSet ids = range(IdSetExecutor.CHUNK_SIZE * 2 + 1);
+        IdSetExecutor.ChunkQuery<Long> first = new IdSetExecutor.ChunkQuery<Long>() {
+            @Override
+            public List<Long> query(IdSet chunk) {
+                return Collections.singletonList(chunk.get(0));
+            }
+        };
+
+        List<Long> expected = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            expected.add((long) i * IdSetExecutor.CHUNK_SIZE);
+        }
+
+        assertEquals(expected, IdSetExecutor.executeAll(ids, first));
+    }
+
+    private static IdSet range(int size) {
+        long[] ids = new long[size];
+        for (int i = 0; i < size; i++) {
+            ids[i] = i;
+        }
+
+        return IdSet.of(ids);
+    }
+
+    private static List<Long> toList(IdSet ids) {
+        List<Long> list = new ArrayList<>(ids.size());
+        for (int i = 0; i < ids.size(); i++) {
+            list.add(ids.get(i));
+        }
+
+        return list;
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright 2016 Tamir Shomer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.tamir7.contacts;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.content.ContextWrapper;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class PhoneNumberLookupTest {
+    private ContactRows rows;
+    private SqliteContactsProvider provider;
+    private PhoneNumberLookup lookup;
+
+    @Before
+    public void setUp() throws Exception {
+        // numbers missing from the lookup are resolved by the provider, which has none of these.
+        rows = ContactRows.generate(10, 1);
+        provider = SqliteContactsProvider.create(rows);
+        final ContentResolver resolver = new ProviderResolver(provider);
+        Contacts.initialize(new ContextWrapper(null) {
+            @Override
+            public Context getApplicationContext() {
+                return this;
+            }
+
+            @Override
+            public ContentResolver getContentResolver() {
+                return resolver;
+            }
+        });
+
+        lookup = new PhoneNumberLookup(Arrays.asList(
+                contact(1, "+49 151 1234567"),
+                contact(2, "+1 212 5550000"),
+                contact(3, "030 7654321")));
+    }
+
+    @After
+    public void tearDown() {
+        provider.close();
+    }
+
+    @Test
+    public void findsNumbersInAnyFormat() {
+        assertEquals(1, lookup.lookup("+491511234567"));
+        assertEquals(1, lookup.lookup("+49 (151) 123-4567"));
+        assertEquals(1, lookup.lookup("0049 151 1234567"));
+        assertEquals(1, lookup.lookup("0151 1234567"));
+        assertEquals(2, lookup.lookup("212-555-0000"));
+        assertEquals(3, lookup.lookup("+49 30 7654321"));
+    }
+
+    @Test
+    public void rejectsNumbersThatOnlyShareTheLastDigits() {
+        assertEquals(PhoneNumberLookup.NOT_FOUND, lookup.lookup("+1 555 1234567"));
+        assertEquals(PhoneNumberLookup.NOT_FOUND, lookup.lookup("+49 160 1234567"));
+        assertEquals(PhoneNumberLookup.NOT_FOUND, lookup.lookup(""));
+        assertEquals(PhoneNumberLookup.NOT_FOUND, lookup.lookup("withheld"));
+    }
+
+    @Test
+    public void removesContacts() {
+        lookup.remove(contact(1, "+49 151 1234567"));
+
+        assertEquals(PhoneNumberLookup.NOT_FOUND, lookup.lookup("+49 151 1234567"));
+        assertEquals(PhoneNumberLookup.NOT_FOUND, lookup.lookup("0151 1234567"));
+        assertEquals(2, lookup.lookup("+1 212 5550000"));
+    }
+
+    @Test
+    public void removesNumbersTheProviderResolved() {
+        Contact known = rows.getContacts().get(0);
+        String number = known.getPhoneNumbers().get(0).getNumber();
+        assertEquals((long) known.getId(), lookup.lookup(number));
+        assertEquals((long) known.getId(), lookup.lookup(number));
+        assertEquals(1, lookup.getProviderHitCount());
+
+        Contact removed = new Contact();
+        removed.setId(known.getId());
+        lookup.remove(removed);
+
+        assertEquals((long) known.getId(), lookup.lookup(number));
+        assertEquals(2, lookup.getProviderHitCount());
+    }
+
+    @Test
+    public void keepsNumbersTakenOverByOtherContacts() {
+        lookup.add(contact(4, "+1 212 5550000"));
+        lookup.remove(contact(2, "+1 212 5550000"));
+
+        assertEquals(4, lookup.lookup("+1 212 5550000"));
+    }
+
+    @Test
+    public void updatesContacts() {
+        lookup.update(contact(3, "+49 30 1111111"));
+
+        assertEquals(PhoneNumberLookup.NOT_FOUND, lookup.lookup("030 7654321"));
+        assertEquals(3, lookup.lookup("030 1111111"));
+    }
+
+    @Test
+    public void forgetsNotFoundNumbersWhenContactsAreAdded() {
+        assertEquals(PhoneNumberLookup.NOT_FOUND, lookup.lookup("+44 20 7946 0000"));
+
+        lookup.add(contact(4, "+44 20 7946 0000"));
+
+        assertEquals(4, lookup.lookup("020 7946 0000"));
+    }
+
+    @Test
+    public void findsRemainingNumbersAfterManyRemovals() {
+        Random random = new Random(3);
+        List<Contact> contacts = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            contacts.add(contact(100 + i, "+49" + (1000000000L + random.nextInt(900000000))));
+        }
+
+        PhoneNumberLookup big = new PhoneNumberLookup(contacts);
+        for (int i = 0; i < contacts.size(); i += 3) {
+            big.remove(contacts.get(i));
+        }
+
+        for (int i = 0; i < contacts.size(); i++) {
+            String number = contacts.get(i).getPhoneNumbers().get(0).getNumber();
+            assertEquals(number, i % 3 == 0 ? PhoneNumberLookup.NOT_FOUND : 100 + i, big.lookup(number));
+        }
+    }
+
+    private static Contact contact(long id, String number) {
+        Contact contact = new Contact();
+        contact.setId(id);
+        contact.addPhoneNumber(new PhoneNumber(number, PhoneNumber.Type.MOBILE, null));
+        return contact;
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright 2016 Tamir Shomer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.tamir7.contacts;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.CancellationSignal;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PreparedQueryTest {
+    private SqliteContactsProvider provider;
+    private ProviderResolver resolver;
+    private final List<String> selections = new ArrayList<>();
+    private final List<List<String>> selectionArgs = new ArrayList<>();
+
+    @Before
+    public void setUp() throws Exception {
+        provider = SqliteContactsProvider.create(ContactRows.generate(500, 42));
+        // records the selection and arguments of every call.
+        resolver = new ProviderResolver(new AbstractContentInterface() {
+            @Override
+            public Cursor query(Uri uri, String[] projection, Bundle queryArgs, CancellationSignal signal) {
+                synchronized (selections) {
+                    String[] args = queryArgs.getStringArray(ContentResolver.QUERY_ARG_SQL_SELECTION_ARGS);
+                    selections.add(queryArgs.getString(ContentResolver.QUERY_ARG_SQL_SELECTION));
+                    selectionArgs.add(args == null ? null : Arrays.asList(args));
+                }
+
+                return provider.query(uri, projection, queryArgs, signal);
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        Query.setSubselectsSupported(null);
+        Contacts.setCache(null);
+        Contacts.setQueryListener(null);
+        provider.close();
+    }
+
+    @Test
+    public void executesLikeFindWithTheBoundValues() {
+        for (boolean subselects : new boolean[]{true, false}) {
+            Query.setSubselectsSupported(subselects);
+            PreparedQuery prepared = new Query(resolver)
+                    .whereStartsWith(Contact.Field.DisplayName, Query.parameter(0))
+                    .whereContains(Contact.Field.Email, Query.parameter(1))
+                    .compile();
+
+            for (String prefix : new String[]{"A", "Ma", "Zoe"}) {
+                List<Contact> expected = new Query(resolver)
+                        .whereStartsWith(Contact.Field.DisplayName, prefix)
+                        .whereContains(Contact.Field.Email, "example.com")
+                        .find();
+
+                assertFalse(expected.isEmpty());
+                assertEquals(ids(expected), ids(prepared.execute(prefix, "example.com")));
+            }
+        }
+    }
+
+    @Test
+    public void sendsTheSameSelectionWithOtherArguments() {
+        Query.setSubselectsSupported(true);
+        PreparedQuery prepared = new Query(resolver)
+                .whereStartsWith(Contact.Field.DisplayName, Query.parameter(0))
+                .compile();
+
+        prepared.execute("A");
+        int calls = selections.size();
+        prepared.execute("Ma");
+
+        assertEquals(calls * 2, selections.size());
+        for (int i = 0; i < calls; i++) {
+            assertEquals(selections.get(i), selections.get(calls + i));
+        }
+        assertNotEquals(selectionArgs.subList(0, calls), selectionArgs.subList(calls, calls * 2));
+    }
+
+    @Test
+    public void ignoresLaterChangesOfTheQuery() {
+        Query query = new Query(resolver).whereStartsWith(Contact.Field.DisplayName, Query.parameter(0));
+        PreparedQuery prepared = query.compile();
+        query.limit(1);
+
+        assertTrue(prepared.execute("A").size() > 1);
+    }
+
+    @Test
+    public void cachesExecutionsPerValue() {
+        Contacts.setCache(new QueryCache(8, 16 * 1024 * 1024));
+        PreparedQuery prepared = new Query(resolver)
+                .whereStartsWith(Contact.Field.DisplayName, Query.parameter(0))
+                .compile();
+
+        List<Contact> first = prepared.execute("A");
+        long roundTrips = provider.getRoundTrips();
+        List<Contact> second = prepared.execute("A");
+        assertEquals(roundTrips, provider.getRoundTrips());
+        assertEquals(ids(first), ids(second));
+
+        List<Contact> other = prepared.execute("Ma");
+        assertTrue(provider.getRoundTrips() > roundTrips);
+        assertNotEquals(ids(first), ids(other));
+    }
+
+    @Test
+    public void reportsExecutionsToTheListener() {
+        final AtomicInteger calls = new AtomicInteger();
+        Contacts.setQueryListener(new QueryListener() {
+            @Override
+            public void onProviderCall(Uri uri, int selectionLength, long elapsedNanos) {
+                calls.incrementAndGet();
+            }
+
+            @Override
+            public void onPhase(Phase phase, int rowsRead, int contacts, long elapsedNanos) {}
+        });
+
+        new Query(resolver).whereStartsWith(Contact.Field.DisplayName, Query.parameter(0)).compile().execute("A");
+
+        assertTrue(calls.get() > 0);
+        assertEquals(selections.size(), calls.get());
+    }
+
+    private static List<Long> ids(List<Contact> contacts) {
+        List<Long> ids = new ArrayList<>();
+        for (Contact contact : contacts) {
+            ids.add(contact.getId());
+        }
+
+        return ids;
+    }
+}
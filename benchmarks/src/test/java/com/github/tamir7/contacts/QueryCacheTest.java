@@ -0,0 +1,135 @@
+/*
+ * Copyright 2016 Tamir Shomer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.tamir7.contacts;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class QueryCacheTest {
+    private SqliteContactsProvider provider;
+    private ProviderResolver resolver;
+
+    @Before
+    public void setUp() throws Exception {
+        provider = SqliteContactsProvider.create(ContactRows.generate(300, 42));
+        resolver = new ProviderResolver(provider);
+        Contacts.setCache(new QueryCache(8, 16 * 1024 * 1024));
+    }
+
+    @After
+    public void tearDown() {
+        Contacts.setCache(null);
+        provider.close();
+    }
+
+    @Test
+    public void repeatedQueriesMakeNoProviderCalls() {
+        List<Contact> first = new Query(resolver).whereContains(Contact.Field.Email, "example.com").find();
+        long roundTrips = provider.getRoundTrips();
+
+        List<Contact> second = new Query(resolver).whereContains(Contact.Field.Email, "example.com").find();
+
+        assertEquals(roundTrips, provider.getRoundTrips());
+        assertEquals(ids(first), ids(second));
+    }
+
+    @Test
+    public void queriesWithOtherSettingsAreCachedSeparately() {
+        List<Contact> all = new Query(resolver).find();
+        long roundTrips = provider.getRoundTrips();
+
+        List<Contact> page = new Query(resolver).limit(10).find();
+        List<Contact> names = new Query(resolver).include(Contact.Field.DisplayName).find();
+
+        assertTrue(provider.getRoundTrips() > roundTrips);
+        assertEquals(ids(all.subList(0, 10)), ids(page));
+        assertTrue(names.get(0).getPhoneNumbers().isEmpty());
+    }
+
+    @Test
+    public void callersGetTheirOwnCopies() {
+        Contact contact = new Query(resolver).limit(1).find().get(0);
+        int numbers = contact.getPhoneNumbers().size();
+        contact.addPhoneNumber(new PhoneNumber("+1 555 0100000", PhoneNumber.Type.HOME, null));
+
+        Contact cached = new Query(resolver).limit(1).find().get(0);
+
+        assertEquals(numbers, cached.getPhoneNumbers().size());
+    }
+
+    @Test
+    public void writesOfTheLibraryInvalidateTheCache() {
+        int count = new Query(resolver).find().size();
+
+        new Query(resolver).insertAll(Collections.singletonList(new Contact().addDisplayName("Cached Contact")));
+
+        assertEquals(count + 1, new Query(resolver).find().size());
+    }
+
+    @Test
+    public void resultsOfQueriesThatRanDuringAnInvalidationAreNotStored() {
+        QueryCache cache = new QueryCache(8, 1024 * 1024);
+        long generation = cache.getGeneration();
+        cache.invalidate();
+
+        cache.put("key", new ArrayList<Contact>(), generation);
+
+        assertNull(cache.get("key"));
+    }
+
+    @Test
+    public void evictsTheLeastRecentlyUsedResults() {
+        QueryCache cache = new QueryCache(2, 1024 * 1024);
+        cache.put("a", new ArrayList<Contact>(), cache.getGeneration());
+        cache.put("b", new ArrayList<Contact>(), cache.getGeneration());
+        cache.get("a");
+
+        cache.put("c", new ArrayList<Contact>(), cache.getGeneration());
+
+        assertNotNull(cache.get("a"));
+        assertNull(cache.get("b"));
+        assertNotNull(cache.get("c"));
+    }
+
+    @Test
+    public void doesNotStoreResultsLargerThanTheCache() {
+        QueryCache cache = new QueryCache(8, 100);
+
+        cache.put("key", ContactRows.generate(10, 1).getContacts(), cache.getGeneration());
+
+        assertNull(cache.get("key"));
+    }
+
+    private static List<Long> ids(List<Contact> contacts) {
+        List<Long> ids = new ArrayList<>();
+        for (Contact contact : contacts) {
+            ids.add(contact.getId());
+        }
+
+        return ids;
+    }
+}
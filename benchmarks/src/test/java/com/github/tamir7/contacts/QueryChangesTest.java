@@ -0,0 +1,151 @@
+/*
+ * Copyright 2016 Tamir Shomer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.tamir7.contacts;
+
+import android.content.ContentProviderOperation;
+import android.provider.ContactsContract;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class QueryChangesTest {
+    private List<Contact> contacts;
+    private SqliteContactsProvider provider;
+    private ProviderResolver resolver;
+
+    @Before
+    public void setUp() throws Exception {
+        ContactRows rows = ContactRows.generate(300, 42);
+        contacts = rows.getContacts();
+        provider = SqliteContactsProvider.create(rows);
+        resolver = new ProviderResolver(provider);
+    }
+
+    @After
+    public void tearDown() {
+        Query.setSubselectsSupported(null);
+        provider.close();
+    }
+
+    @Test
+    public void initialSyncReturnsAllContacts() {
+        ContactChanges changes = new Query(resolver).changedSince(0);
+
+        assertEquals(contacts.size(), changes.getUpdatedContacts().size());
+        assertTrue(changes.getDeletedContactIds().isEmpty());
+        assertTrue(changes.getTimestamp() > 0);
+    }
+
+    @Test
+    public void reportsUpdatesAndDeletionsSinceTheLastSync() throws Exception {
+        for (boolean subselects : new boolean[]{true, false}) {
+            Query.setSubselectsSupported(subselects);
+            long start = System.currentTimeMillis();
+            Contact updated = contacts.get(subselects ? 1 : 2);
+            Contact deleted = contacts.get(subselects ? 3 : 4);
+            new Query(resolver).updateContact(updated.addDisplayName("Changed Name"));
+            delete(deleted.getId());
+
+            ContactChanges changes = new Query(resolver).changedSince(start);
+
+            assertEquals(1, changes.getUpdatedContacts().size());
+            assertEquals(updated.getId(), changes.getUpdatedContacts().get(0).getId());
+            assertEquals("Changed Name", changes.getUpdatedContacts().get(0).getDisplayName());
+            assertTrue(changes.getDeletedContactIds().contains(deleted.getId()));
+            // a change this recent may be followed by another in the same millisecond.
+            assertTrue(changes.getTimestamp() >= start && changes.getTimestamp() <= System.currentTimeMillis());
+        }
+    }
+
+    @Test
+    public void reportsOnlyChangedContactsMatchingTheQuery() {
+        long start = System.currentTimeMillis();
+        List<Contact> changed = new ArrayList<>();
+        for (Contact contact : contacts.subList(0, 20)) {
+            changed.add(contact.addNote("changed"));
+        }
+        new Query(resolver).saveAll(changed);
+
+        int matching = 0;
+        for (Contact contact : changed) {
+            if (!contact.getEmails().isEmpty()) {
+                matching++;
+            }
+        }
+
+        ContactChanges changes = new Query(resolver).whereContains(Contact.Field.Email, "example.com")
+                .changedSince(start);
+
+        assertEquals(matching, changes.getUpdatedContacts().size());
+        for (Contact contact : changes.getUpdatedContacts()) {
+            assertFalse(contact.getEmails().isEmpty());
+        }
+    }
+
+    @Test
+    public void quietSyncsMakeOneProviderCallWithSubselects() {
+        long future = System.currentTimeMillis() + 60000;
+        for (boolean subselects : new boolean[]{true, false}) {
+            Query.setSubselectsSupported(subselects);
+            long roundTrips = provider.getRoundTrips();
+
+            ContactChanges changes = new Query(resolver).changedSince(future);
+
+            assertTrue(changes.getUpdatedContacts().isEmpty());
+            assertTrue(changes.getDeletedContactIds().isEmpty());
+            assertEquals(future, changes.getTimestamp());
+            assertEquals(subselects ? 1 : 2, provider.getRoundTrips() - roundTrips);
+        }
+    }
+
+    @Test
+    public void hasChangesSinceSeesUpdatesAndDeletions() throws Exception {
+        long start = System.currentTimeMillis();
+        assertFalse(new Query(resolver).hasChangesSince(start + 60000));
+
+        delete(contacts.get(0).getId());
+
+        assertTrue(new Query(resolver).hasChangesSince(start));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void rejectsLimits() {
+        new Query(resolver).limit(10).changedSince(0);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void rejectsPaging() {
+        Contact first = contacts.get(0);
+        new Query(resolver).after(first.getDisplayName(), first.getId()).changedSince(0);
+    }
+
+    private void delete(long contactId) throws Exception {
+        ArrayList<ContentProviderOperation> ops = new ArrayList<>();
+        ops.add(ContentProviderOperation.newDelete(ContactsContract.RawContacts.CONTENT_URI)
+                .withSelection(ContactsContract.RawContacts.CONTACT_ID + " = ?", new String[]{String.valueOf(contactId)})
+                .build());
+        resolver.applyBatch(ContactsContract.AUTHORITY, ops);
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright 2016 Tamir Shomer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.tamir7.contacts;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class QueryForEachTest {
+    private static final Comparator<Contact> BY_NAME = new Comparator<Contact>() {
+        @Override
+        public int compare(Contact lhs, Contact rhs) {
+            int result = ContactOrder.compareBinary(lhs.getDisplayName(), rhs.getDisplayName());
+            return result != 0 ? result : lhs.getId().compareTo(rhs.getId());
+        }
+    };
+
+    private List<Contact> contacts;
+    private SqliteContactsProvider provider;
+    private ProviderResolver resolver;
+
+    @Before
+    public void setUp() throws Exception {
+        ContactRows rows = ContactRows.generate(2000, 42);
+        contacts = rows.getContacts();
+        provider = SqliteContactsProvider.create(rows);
+        resolver = new ProviderResolver(provider);
+    }
+
+    @After
+    public void tearDown() {
+        Query.setSubselectsSupported(null);
+        provider.close();
+    }
+
+    @Test
+    public void streamsAllContactsInOrder() {
+        for (boolean subselects : new boolean[]{true, false}) {
+            Query.setSubselectsSupported(subselects);
+            List<Contact> expected = new ArrayList<>(contacts);
+            Collections.sort(expected, BY_NAME);
+
+            assertEquals(ids(expected), ids(forEach(new Query(resolver))));
+        }
+    }
+
+    @Test
+    public void streamsContactsMatchingConstraintsOnEveryTable() {
+        List<Contact> expected = new ArrayList<>();
+        List<Contact> expectedPrefix = new ArrayList<>();
+        for (Contact contact : contacts) {
+            if (!contact.getPhoneNumbers().isEmpty() && !contact.getEmails().isEmpty()) {
+                expected.add(contact);
+                if (contact.getDisplayName().startsWith("A")) {
+                    expectedPrefix.add(contact);
+                }
+            }
+        }
+        Collections.sort(expected, BY_NAME);
+        Collections.sort(expectedPrefix, BY_NAME);
+        // more contacts than fit into a chunk of ids, and a constraint on the contacts table.
+        assertTrue(expected.size() > IdSetExecutor.CHUNK_SIZE);
+        assertTrue(!expectedPrefix.isEmpty() && expectedPrefix.size() < expected.size());
+
+        for (boolean subselects : new boolean[]{true, false}) {
+            Query.setSubselectsSupported(subselects);
+            Query query = new Query(resolver).hasPhoneNumber().whereContains(Contact.Field.Email, "example.com");
+            Query prefixQuery = new Query(resolver).whereStartsWith(Contact.Field.DisplayName, "A")
+                    .whereContains(Contact.Field.Email, "example.com");
+
+            assertEquals(ids(expected), ids(forEach(query)));
+            assertEquals(ids(expected), ids(query.find()));
+            assertEquals(ids(expectedPrefix), ids(forEach(prefixQuery)));
+            assertEquals(ids(expectedPrefix), ids(prefixQuery.find()));
+        }
+    }
+
+    @Test
+    public void stopsAtTheLimit() {
+        List<Contact> expected = new ArrayList<>();
+        for (Contact contact : contacts) {
+            if (!contact.getEmails().isEmpty()) {
+                expected.add(contact);
+            }
+        }
+        Collections.sort(expected, BY_NAME);
+
+        for (boolean subselects : new boolean[]{true, false}) {
+            Query.setSubselectsSupported(subselects);
+            Query all = new Query(resolver).whereContains(Contact.Field.Email, "example.com");
+            long rowsRead = provider.getRowsRead();
+            forEach(all);
+            long allRows = provider.getRowsRead() - rowsRead;
+
+            Query first = new Query(resolver).whereContains(Contact.Field.Email, "example.com").limit(30);
+            rowsRead = provider.getRowsRead();
+            List<Contact> found = forEach(first);
+            long firstRows = provider.getRowsRead() - rowsRead;
+
+            assertEquals(ids(expected.subList(0, 30)), ids(found));
+            assertTrue(firstRows + " of " + allRows, firstRows < allRows / 2);
+        }
+    }
+
+    private static List<Contact> forEach(Query query) {
+        final List<Contact> found = new ArrayList<>();
+        query.forEach(new ContactConsumer() {
+            @Override
+            public void accept(Contact contact) {
+                found.add(contact);
+            }
+        });
+
+        return found;
+    }
+
+    private static List<Long> ids(List<Contact> contacts) {
+        List<Long> ids = new ArrayList<>();
+        for (Contact contact : contacts) {
+            ids.add(contact.getId());
+        }
+
+        return ids;
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright 2016 Tamir Shomer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.tamir7.contacts;
+
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.CancellationSignal;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class QueryOrTest {
+    private List<Contact> contacts;
+    private SqliteContactsProvider provider;
+    private ProviderResolver resolver;
+    private final AtomicInteger running = new AtomicInteger();
+    private final AtomicInteger maxRunning = new AtomicInteger();
+
+    @Before
+    public void setUp() throws Exception {
+        ContactRows rows = ContactRows.generate(1000, 42);
+        contacts = rows.getContacts();
+        provider = SqliteContactsProvider.create(rows);
+        // records how many provider calls overlap; each call takes a while, so concurrent ones do.
+        resolver = new ProviderResolver(new AbstractContentInterface() {
+            @Override
+            public Cursor query(Uri uri, String[] projection, Bundle queryArgs, CancellationSignal signal) {
+                int now = running.incrementAndGet();
+                while (true) {
+                    int max = maxRunning.get();
+                    if (now <= max || maxRunning.compareAndSet(max, now)) {
+                        break;
+                    }
+                }
+
+                try {
+                    Thread.sleep(50);
+                    return provider.query(uri, projection, queryArgs, signal);
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                } finally {
+                    running.decrementAndGet();
+                }
+            }
+        });
+        Query.setSubselectsSupported(false);
+    }
+
+    @After
+    public void tearDown() {
+        Query.setSubselectsSupported(null);
+        provider.close();
+    }
+
+    @Test
+    public void returnsTheUnionOfAllBranchesOnce() {
+        Set<String> names = givenNames(4);
+        // the last branch overlaps with the first.
+        String first = names.iterator().next();
+        List<Query> branches = branches(names);
+        branches.add(new Query(resolver).whereEqualTo(Contact.Field.GivenName, first));
+
+        Set<Long> expected = new LinkedHashSet<>();
+        for (Contact contact : contacts) {
+            if (names.contains(contact.getGivenName())) {
+                expected.add(contact.getId());
+            }
+        }
+
+        List<Contact> found = new Query(resolver).or(branches).find();
+        Set<Long> foundIds = new LinkedHashSet<>();
+        for (Contact contact : found) {
+            foundIds.add(contact.getId());
+        }
+
+        assertEquals(found.size(), foundIds.size());
+        assertEquals(expected, foundIds);
+    }
+
+    @Test
+    public void resolvesBranchesConcurrently() {
+        new Query(resolver).or(branches(givenNames(4))).find();
+
+        assertTrue("max concurrent calls: " + maxRunning.get(), maxRunning.get() > 1);
+    }
+
+    @Test
+    public void limitsTheParallelism() {
+        new Query(resolver).or(branches(givenNames(4)), 1).find();
+
+        assertEquals(1, maxRunning.get());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsParallelismBelowOne() {
+        new Query(resolver).or(branches(givenNames(2)), 0);
+    }
+
+    private Set<String> givenNames(int count) {
+        Set<String> names = new LinkedHashSet<>();
+        for (Contact contact : contacts) {
+            if (names.size() == count) {
+                break;
+            }
+            names.add(contact.getGivenName());
+        }
+
+        return names;
+    }
+
+    private List<Query> branches(Set<String> names) {
+        List<Query> branches = new ArrayList<>();
+        for (String name : names) {
+            branches.add(new Query(resolver).whereEqualTo(Contact.Field.GivenName, name));
+        }
+
+        return branches;
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright 2016 Tamir Shomer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.tamir7.contacts;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class QueryPagingTest {
+    private static final int PAGE = 37;
+
+    private List<Contact> contacts;
+    private SqliteContactsProvider provider;
+    private ProviderResolver resolver;
+
+    @Before
+    public void setUp() throws Exception {
+        ContactRows rows = ContactRows.generate(1000, 42);
+        contacts = rows.getContacts();
+        provider = SqliteContactsProvider.create(rows);
+        resolver = new ProviderResolver(provider);
+    }
+
+    @After
+    public void tearDown() {
+        Query.setSubselectsSupported(null);
+        provider.close();
+    }
+
+    @Test
+    public void pagesThroughAllContacts() {
+        List<Contact> expected = sorted(contacts, false);
+
+        for (boolean subselects : new boolean[]{true, false}) {
+            Query.setSubselectsSupported(subselects);
+            List<Contact> pages = new ArrayList<>();
+            List<Contact> page = new Query(resolver).limit(PAGE).find();
+            while (!page.isEmpty()) {
+                assertTrue(page.size() <= PAGE);
+                pages.addAll(page);
+                Contact last = page.get(page.size() - 1);
+                page = new Query(resolver).after(last.getDisplayName(), last.getId()).limit(PAGE).find();
+            }
+
+            assertEquals(ids(expected), ids(pages));
+        }
+    }
+
+    @Test
+    public void pagesThroughMatchingContactsInDescendingOrder() {
+        List<Contact> expected = new ArrayList<>();
+        for (Contact contact : contacts) {
+            if (!contact.getEmails().isEmpty()) {
+                expected.add(contact);
+            }
+        }
+        expected = sorted(expected, true);
+
+        for (boolean subselects : new boolean[]{true, false}) {
+            Query.setSubselectsSupported(subselects);
+            List<Contact> pages = new ArrayList<>();
+            Contact last = null;
+            while (true) {
+                Query query = new Query(resolver).whereContains(Contact.Field.Email, "example.com")
+                        .orderBy(Contact.Field.DisplayName, Query.Direction.DESCENDING);
+                if (last != null) {
+                    query.after(last.getId(), last.getDisplayName());
+                }
+
+                List<Contact> page = query.limit(PAGE).find();
+                if (page.isEmpty()) {
+                    break;
+                }
+
+                pages.addAll(page);
+                last = page.get(page.size() - 1);
+            }
+
+            assertEquals(ids(expected), ids(pages));
+        }
+    }
+
+    @Test
+    public void limitsAreResolvedByTheProvider() {
+        Query.setSubselectsSupported(true);
+        long rowsRead = provider.getRowsRead();
+        long roundTrips = provider.getRoundTrips();
+
+        List<Contact> found = new Query(resolver).limit(10).find();
+
+        assertEquals(ids(sorted(contacts, false).subList(0, 10)), ids(found));
+        assertEquals(1, provider.getRoundTrips() - roundTrips);
+        // the rows of the first ten contacts, not of all of them.
+        assertTrue(provider.getRowsRead() - rowsRead < 100);
+    }
+
+    @Test
+    public void limitZeroMakesNoProviderCalls() {
+        long roundTrips = provider.getRoundTrips();
+
+        assertTrue(new Query(resolver).whereContains(Contact.Field.Email, "example.com").limit(0).find().isEmpty());
+        assertEquals(roundTrips, provider.getRoundTrips());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void rejectsOrderByAfterAfter() {
+        new Query(resolver).after("Ann", 5).orderBy(Contact.Field.ContactId, Query.Direction.ASCENDING);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNegativeLimits() {
+        new Query(resolver).limit(-1);
+    }
+
+    private static List<Contact> sorted(List<Contact> contacts, final boolean descending) {
+        List<Contact> sorted = new ArrayList<>(contacts);
+        Collections.sort(sorted, new Comparator<Contact>() {
+            @Override
+            public int compare(Contact lhs, Contact rhs) {
+                int result = ContactOrder.compareBinary(lhs.getDisplayName(), rhs.getDisplayName());
+                if (descending) {
+                    result = -result;
+                }
+
+                return result != 0 ? result : lhs.getId().compareTo(rhs.getId());
+            }
+        });
+
+        return sorted;
+    }
+
+    private static List<Long> ids(List<Contact> contacts) {
+        List<Long> ids = new ArrayList<>();
+        for (Contact contact : contacts) {
+            ids.add(contact.getId());
+        }
+
+        return ids;
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright 2016 Tamir Shomer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.tamir7.contacts;
+
+import android.provider.ContactsContract;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class QueryPlanTest {
+    private List<Contact> contacts;
+    private SqliteContactsProvider provider;
+    private ProviderResolver resolver;
+
+    @Before
+    public void setUp() throws Exception {
+        ContactRows rows = ContactRows.generate(2000, 42);
+        contacts = rows.getContacts();
+        provider = SqliteContactsProvider.create(rows);
+        resolver = new ProviderResolver(provider);
+    }
+
+    @After
+    public void tearDown() {
+        Query.setSubselectsSupported(null);
+        provider.close();
+    }
+
+    @Test
+    public void plansASingleFetchWithSubselects() {
+        Query.setSubselectsSupported(true);
+        QueryPlan plan = query().explain();
+
+        assertFalse(plan.isMeasured());
+        assertEquals(1, plan.getSteps().size());
+        QueryPlan.Step fetch = plan.getSteps().get(0);
+        assertEquals(QueryListener.Phase.FETCH, fetch.getPhase());
+        assertEquals(ContactsContract.Data.CONTENT_URI, fetch.getUri());
+        assertEquals(Collections.<Integer>emptyList(), fetch.getDependencies());
+        assertEquals(null, fetch.getIdColumn());
+        assertEquals(-1, fetch.getCalls());
+    }
+
+    @Test
+    public void plansChainedIdStepsPerMimeType() {
+        Query.setSubselectsSupported(false);
+        List<QueryPlan.Step> steps = query().explain().getSteps();
+
+        assertEquals(3, steps.size());
+        assertEquals(QueryListener.Phase.RESOLVE_IDS, steps.get(0).getPhase());
+        assertEquals(Collections.<Integer>emptyList(), steps.get(0).getDependencies());
+        assertEquals(QueryListener.Phase.RESOLVE_IDS, steps.get(1).getPhase());
+        assertEquals(Collections.singletonList(0), steps.get(1).getDependencies());
+        assertEquals(QueryListener.Phase.FETCH, steps.get(2).getPhase());
+        assertEquals(Collections.singletonList(1), steps.get(2).getDependencies());
+        assertEquals(ContactsContract.RawContacts.CONTACT_ID, steps.get(2).getIdColumn());
+        assertTrue(steps.get(2).getSelection(), steps.get(2).getSelection().contains("ids of steps 1"));
+    }
+
+    @Test
+    public void plansOrBranchesIndependently() {
+        Query.setSubselectsSupported(false);
+        Query query = new Query(resolver);
+        query.or(Arrays.asList(
+                new Query(resolver).whereContains(Contact.Field.Email, "example.com"),
+                new Query(resolver).whereStartsWith(Contact.Field.DisplayName, "A")));
+        List<QueryPlan.Step> steps = query.explain().getSteps();
+
+        assertEquals(3, steps.size());
+        assertEquals(QueryListener.Phase.RESOLVE_IDS, steps.get(0).getPhase());
+        assertEquals(QueryListener.Phase.RESOLVE_OR_BRANCH, steps.get(1).getPhase());
+        assertEquals(Collections.<Integer>emptyList(), steps.get(1).getDependencies());
+        assertEquals(Arrays.asList(0, 1), steps.get(2).getDependencies());
+    }
+
+    @Test
+    public void plansNothingForAnEmptyLimit() {
+        assertTrue(query().limit(0).explain().getSteps().isEmpty());
+    }
+
+    @Test
+    public void measuresTheCallsRowsAndContactsOfEveryStep() {
+        int matching = 0;
+        for (Contact contact : contacts) {
+            if (!contact.getEmails().isEmpty()) {
+                matching++;
+            }
+        }
+        assertTrue(matching > IdSetExecutor.CHUNK_SIZE);
+
+        for (boolean subselects : new boolean[]{true, false}) {
+            Query.setSubselectsSupported(subselects);
+            long roundTrips = provider.getRoundTrips();
+            long rowsRead = provider.getRowsRead();
+            QueryPlan plan = query().explain(true);
+            long planRoundTrips = provider.getRoundTrips() - roundTrips;
+            long planRowsRead = provider.getRowsRead() - rowsRead;
+
+            assertTrue(plan.isMeasured());
+            int calls = 0;
+            int rows = 0;
+            for (QueryPlan.Step step : plan.getSteps()) {
+                calls += step.getCalls();
+                rows += step.getRows();
+            }
+            assertEquals(planRoundTrips, calls);
+            assertEquals(planRowsRead, rows);
+
+            QueryPlan.Step fetch = plan.getSteps().get(plan.getSteps().size() - 1);
+            assertEquals(matching, fetch.getContacts());
+            assertEquals(subselects ? 1 : (matching + IdSetExecutor.CHUNK_SIZE - 1) / IdSetExecutor.CHUNK_SIZE,
+                    fetch.getCalls());
+            assertEquals(query().find().size(), fetch.getContacts());
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void refusesToMeasureUnboundParameters() {
+        new Query(resolver).whereStartsWith(Contact.Field.DisplayName, Query.parameter(0)).explain(true);
+    }
+
+    /**
+     * Every generated number starts with +1, so the contacts with an email match.
+     */
+    private Query query() {
+        return new Query(resolver)
+                .whereContains(Contact.Field.Email, "example.com")
+                .whereStartsWith(Contact.Field.PhoneNumber, "+1");
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright 2016 Tamir Shomer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.tamir7.contacts;
+
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.CancellationSignal;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class QueryTaskTest {
+    private static final int CONTACTS = 200;
+
+    private SqliteContactsProvider provider;
+    // provider calls wait for a permit while blocking is on.
+    private final Semaphore permits = new Semaphore(0);
+    private final Semaphore entered = new Semaphore(0);
+    private volatile boolean blocking = false;
+    private ProviderResolver resolver;
+
+    @Before
+    public void setUp() throws Exception {
+        provider = SqliteContactsProvider.create(ContactRows.generate(CONTACTS, 42));
+        resolver = new ProviderResolver(new AbstractContentInterface() {
+            @Override
+            public Cursor query(Uri uri, String[] projection, Bundle queryArgs, CancellationSignal signal) {
+                if (blocking) {
+                    entered.release();
+                    permits.acquireUninterruptibly();
+                }
+
+                return provider.query(uri, projection, queryArgs, signal);
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        provider.close();
+    }
+
+    @Test
+    public void cancellingOneTaskDoesNotCancelAnotherOfTheSameQuery() throws Exception {
+        Query query = new Query(resolver);
+        Result first = new Result();
+        Result second = new Result();
+        blocking = true;
+
+        query.findAsync(new ThreadExecutor(), first);
+        assertTrue(entered.tryAcquire(10, TimeUnit.SECONDS));
+        QueryTask secondTask = query.findAsync(new ThreadExecutor(), second);
+        assertTrue(entered.tryAcquire(10, TimeUnit.SECONDS));
+
+        secondTask.cancel();
+        blocking = false;
+        permits.release(2);
+
+        assertTrue(first.await());
+        assertNull(first.error);
+        assertEquals(CONTACTS, first.contacts.size());
+        assertTrue(secondTask.isCancelled());
+        assertEquals(1, second.done.getCount());
+    }
+
+    @Test
+    public void runsTheQueryAsItWasWhenStarted() throws Exception {
+        Query query = new Query(resolver);
+        List<Runnable> runnables = new ArrayList<>();
+        Result result = new Result();
+
+        query.findAsync(new QueueExecutor(runnables), result);
+        query.whereEqualTo(Contact.Field.DisplayName, "nobody");
+        runnables.get(0).run();
+
+        assertTrue(result.await());
+        assertEquals(CONTACTS, result.contacts.size());
+        assertEquals(0, query.find().size());
+    }
+
+    @Test
+    public void cancelledTasksDoNotRun() throws Exception {
+        List<Runnable> runnables = new ArrayList<>();
+        Result result = new Result();
+        long roundTrips = provider.getRoundTrips();
+
+        new Query(resolver).findAsync(new QueueExecutor(runnables), result).cancel();
+        runnables.get(0).run();
+
+        assertEquals(1, result.done.getCount());
+        assertEquals(roundTrips, provider.getRoundTrips());
+    }
+
+    private static final class Result implements FindCallback {
+        final CountDownLatch done = new CountDownLatch(1);
+        volatile List<Contact> contacts;
+        volatile Exception error;
+
+        @Override
+        public void done(List<Contact> contacts, Exception e) {
+            this.contacts = contacts;
+            this.error = e;
+            done.countDown();
+        }
+
+        boolean await() throws InterruptedException {
+            return done.await(10, TimeUnit.SECONDS);
+        }
+    }
+
+    private static final class ThreadExecutor implements Executor {
+        @Override
+        public void execute(Runnable command) {
+            new Thread(command).start();
+        }
+    }
+
+    private static final class QueueExecutor implements Executor {
+        private final List<Runnable> runnables;
+
+        QueueExecutor(List<Runnable> runnables) {
+            this.runnables = runnables;
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            runnables.add(command);
+        }
+    }
+}
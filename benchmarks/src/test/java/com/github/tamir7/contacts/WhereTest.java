@@ -0,0 +1,91 @@
+/*
+ * Copyright 2016 Tamir Shomer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.tamir7.contacts;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class WhereTest {
+
+    @Test
+    public void rendersStringsAsArgumentsAndNumbersInline() {
+        Where where = Where.equalTo("a", "x").and(Where.startsWith("b", "y")).and(Where.greaterThan("c", 3));
+
+        assertEquals("( a=? AND b LIKE ? AND c>3 )", where.toString());
+        assertArrayEquals(new String[]{"x", "y%"}, where.getArgs(null));
+    }
+
+    @Test
+    public void nestsJunctionsOfDifferentKinds() {
+        Where where = Where.equalTo("a", 1).or(Where.equalTo("b", 2)).and(Where.isNull("c"));
+
+        assertEquals("( ( a=1 OR b=2 ) AND c IS NULL )", where.toString());
+        assertNull(where.getArgs(null));
+    }
+
+    @Test
+    public void mergesIdSetsOnTheSameColumn() {
+        assertEquals("id IN (1, 2, 3, 4)",
+                Where.in("id", IdSet.of(1, 2, 3)).or(Where.in("id", IdSet.of(3, 4))).toString());
+        assertEquals("id IN (2, 3)",
+                Where.in("id", IdSet.of(1, 2, 3)).and(Where.in("id", IdSet.of(2, 3, 4))).toString());
+    }
+
+    @Test
+    public void keepsInListsOnDifferentColumns() {
+        assertEquals("( id IN (1, 2) AND other IN (2) )",
+                Where.in("id", IdSet.of(1, 2)).and(Where.in("other", IdSet.of(2))).toString());
+    }
+
+    @Test
+    public void mergesValueListsInAnOr() {
+        Where where = Where.in("id", Arrays.<Object>asList("p", "q")).or(Where.in("id", Arrays.<Object>asList("q", "r")));
+
+        assertEquals("id IN (?, ?, ?)", where.toString());
+        assertArrayEquals(new String[]{"p", "q", "r"}, where.getArgs(null));
+    }
+
+    @Test
+    public void bindsParameters() {
+        Where where = Where.startsWith("n", Query.parameter(0)).and(Where.equalTo("m", Query.parameter(1)));
+
+        assertEquals("( n LIKE ? AND m=? )", where.toString());
+        assertArrayEquals(new String[]{"?0%", "?1"}, where.describeArgs());
+        assertArrayEquals(new String[]{"An%", "x"}, where.getArgs(new Object[]{"An", "x"}));
+        assertEquals("( n LIKE ? AND m=? ) [Bo%, y]", where.bind(new Object[]{"Bo", "y"}).toKeyString());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsMissingParameterValues() {
+        Where.equalTo("m", Query.parameter(1)).getArgs(new Object[]{"x"});
+    }
+
+    @Test
+    public void rendersSubSelects() {
+        assertEquals("contact_id IN (SELECT contact_id FROM view_data WHERE mimetype=? GROUP BY contact_id "
+                        + "ORDER BY display_name, contact_id LIMIT 10)",
+                Where.inSelect("contact_id", "contact_id", "view_data", Where.equalTo("mimetype", "m"),
+                        "display_name, contact_id", 10).toString());
+        assertEquals("NOT ( EXISTS (SELECT 1 FROM t WHERE ts>=5) )",
+                Where.not(Where.exists("t", Where.greaterThanOrEqual("ts", 5))).toString());
+    }
+}
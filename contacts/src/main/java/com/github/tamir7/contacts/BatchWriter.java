@@ -0,0 +1,128 @@
+/*
+ * Copyright 2016 Tamir Shomer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.tamir7.contacts;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentResolver;
+import android.content.OperationApplicationException;
+import android.os.RemoteException;
+
+import java.util.ArrayList;
+
+import static android.provider.ContactsContract.AUTHORITY;
+
+/**
+ * Collects the operations of many contacts and applies them in size limited batches.
+ *
+ * A batch is applied once it would exceed {@link #MAX_OPERATIONS} operations or an estimated parcel
+ * size of {@link #MAX_BYTES}, well below the binder transaction limit. The operations of a single
+ * contact are never split between batches, so back references stay valid.
+ */
+final class BatchWriter {
+    static final int MAX_OPERATIONS = 400;
+    static final int MAX_BYTES = 256 * 1024;
+
+    private final ContentResolver cr;
+    private final ProgressListener listener;
+    private final ArrayList<ContentProviderOperation> ops = new ArrayList<>();
+    private int bytes = 0;
+    private int pendingContacts = 0;
+    private int writtenContacts = 0;
+
+    BatchWriter(ContentResolver cr) {
+        this(cr, null);
+    }
+
+    BatchWriter(ContentResolver cr, ProgressListener listener) {
+        this.cr = cr;
+        this.listener = listener;
+    }
+
+    /**
+     * Adds the operations that update an existing contact.
+     *
+     * @param contact The contact to update.
+     */
+    void update(Contact contact) {
+        ContactOperations contactOps = ContactOperations.update(contact);
+        if (!fits(contactOps)) {
+            flush();
+        }
+
+        add(contactOps);
+    }
+
+    /**
+     * Adds the operations that insert a new contact.
+     *
+     * @param contact The contact to insert.
+     */
+    void insert(Contact contact) {
+        ContactOperations contactOps = ContactOperations.insert(contact, ops.size());
+        if (!fits(contactOps)) {
+            flush();
+            // back references are indexes into the batch, so they change with the batch.
+            contactOps = ContactOperations.insert(contact, 0);
+        }
+
+        add(contactOps);
+    }
+
+    /**
+     * Applies all pending operations.
+     *
+     * @throws ContactWriteException If the provider rejects the batch.
+     */
+    void flush() {
+        if (ops.isEmpty()) {
+            return;
+        }
+
+        try {
+            cr.applyBatch(AUTHORITY, ops);
+        } catch (RemoteException | OperationApplicationException e) {
+            // the provider rolled the batch back, so the cache is still valid.
+            throw new ContactWriteException(writtenContacts, e);
+        }
+
+        // results cached before the write are stale, even before the provider reports the change.
+        QueryCache cache = Contacts.getCache();
+        if (cache != null) {
+            cache.invalidate();
+        }
+
+        // only written contacts are reported, a failed batch throws before this.
+        writtenContacts += pendingContacts;
+        pendingContacts = 0;
+        bytes = 0;
+        ops.clear();
+
+        if (listener != null) {
+            listener.onProgress(writtenContacts);
+        }
+    }
+
+    private boolean fits(ContactOperations contactOps) {
+        return ops.isEmpty() || (ops.size() + contactOps.size() <= MAX_OPERATIONS &&
+                bytes + contactOps.getEstimatedBytes() <= MAX_BYTES);
+    }
+
+    private void add(ContactOperations contactOps) {
+        ops.addAll(contactOps.build());
+        bytes += contactOps.getEstimatedBytes();
+        pendingContacts++;
+    }
+}
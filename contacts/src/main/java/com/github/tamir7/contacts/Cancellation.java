@@ -0,0 +1,88 @@
+/*
+ * Copyright 2016 Tamir Shomer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.tamir7.contacts;
+
+import android.annotation.TargetApi;
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Build;
+import android.os.CancellationSignal;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Tracks the cancellation of a query execution.
+ *
+ * On Jelly Bean and newer every provider call gets its own {@link CancellationSignal}, so cancelling
+ * also stops the provider calls that are running concurrently. On older versions the execution
+ * stops at the next provider call or contact.
+ */
+class Cancellation {
+    static final Cancellation NONE = new Cancellation();
+
+    private final Set<Object> signals = Collections.newSetFromMap(new ConcurrentHashMap<Object, Boolean>());
+    private volatile boolean cancelled = false;
+
+    void cancel() {
+        cancelled = true;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            for (Object signal : signals) {
+                ((CancellationSignal) signal).cancel();
+            }
+        }
+    }
+
+    boolean isCancelled() {
+        return cancelled;
+    }
+
+    void throwIfCancelled() {
+        if (cancelled) {
+            throw new CancellationException("Query was cancelled");
+        }
+    }
+
+    Cursor query(ContentResolver cr, Uri uri, String[] projection, String selection, String[] selectionArgs,
+                 String sortOrder) {
+        throwIfCancelled();
+        if (this == NONE || Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
+            return cr.query(uri, projection, selection, selectionArgs, sortOrder);
+        }
+
+        return queryWithSignal(cr, uri, projection, selection, selectionArgs, sortOrder);
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private Cursor queryWithSignal(ContentResolver cr, Uri uri, String[] projection, String selection,
+                                   String[] selectionArgs, String sortOrder) {
+        CancellationSignal signal = new CancellationSignal();
+        signals.add(signal);
+        try {
+            // cancel() may have run before the signal was added.
+            if (cancelled) {
+                signal.cancel();
+            }
+
+            return cr.query(uri, projection, selection, selectionArgs, sortOrder, signal);
+        } finally {
+            signals.remove(signal);
+        }
+    }
+}
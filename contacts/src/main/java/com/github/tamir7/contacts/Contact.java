@@ -19,13 +19,18 @@ package com.github.tamir7.contacts;
 import android.annotation.SuppressLint;
 import android.provider.ContactsContract;
 
+import java.util.AbstractList;
 import java.util.Arrays;
-import java.util.HashSet;
+import java.util.Collections;
 import java.util.List;
-import java.util.Set;
+import java.util.RandomAccess;
 
 /**
  * Represents a compound contact. aggregating all phones, email and photo's a contact has.
+ *
+ * Phone numbers, emails, events, websites and addresses are kept in small arrays that are only
+ * allocated once the first value is added, and the lists returned by the getters are read only
+ * views of them.
  */
 public final class Contact {
     private Long id;
@@ -33,14 +38,19 @@ public final class Contact {
     private String givenName;
     private String familyName;
 
-    private final Set<PhoneNumber> phoneNumbers = new HashSet<>();
+    private Object[] phoneNumbers;
+    private int phoneNumberCount;
     private String photoUri;
-    private final Set<Email> emails = new HashSet<>();
-    private final Set<Event> events = new HashSet<>();
+    private Object[] emails;
+    private int emailCount;
+    private Object[] events;
+    private int eventCount;
     private String companyName;
     private String companyTitle;
-    private final Set<String> websites = new HashSet<>();
-    private final Set<Address> addresses = new HashSet<>();
+    private Object[] websites;
+    private int websiteCount;
+    private Object[] addresses;
+    private int addressCount;
     private String note;
 
     interface AbstractField {
@@ -150,6 +160,33 @@ public final class Contact {
         this.id = id;
     }
 
+    /**
+     * Creates a copy of this contact that can be modified without affecting this one. The values,
+     * like phone numbers and emails, are immutable and shared.
+     */
+    Contact copy() {
+        Contact copy = new Contact();
+        copy.id = id;
+        copy.displayName = displayName;
+        copy.givenName = givenName;
+        copy.familyName = familyName;
+        copy.phoneNumbers = copyOf(phoneNumbers, phoneNumberCount);
+        copy.phoneNumberCount = phoneNumberCount;
+        copy.photoUri = photoUri;
+        copy.emails = copyOf(emails, emailCount);
+        copy.emailCount = emailCount;
+        copy.events = copyOf(events, eventCount);
+        copy.eventCount = eventCount;
+        copy.companyName = companyName;
+        copy.companyTitle = companyTitle;
+        copy.websites = copyOf(websites, websiteCount);
+        copy.websiteCount = websiteCount;
+        copy.addresses = copyOf(addresses, addressCount);
+        copy.addressCount = addressCount;
+        copy.note = note;
+        return copy;
+    }
+
     public Contact addDisplayName(String displayName) {
         this.displayName = displayName;
         return this;
@@ -166,7 +203,9 @@ public final class Contact {
     }
 
     public Contact addPhoneNumber(PhoneNumber phoneNumber) {
-        phoneNumbers.add(phoneNumber);
+        if (!contains(phoneNumbers, phoneNumberCount, phoneNumber)) {
+            phoneNumbers = append(phoneNumbers, phoneNumberCount++, phoneNumber);
+        }
         return this;
     }
 
@@ -176,12 +215,16 @@ public final class Contact {
     }
 
     public Contact addEmail(Email email) {
-        emails.add(email);
+        if (!contains(emails, emailCount, email)) {
+            emails = append(emails, emailCount++, email);
+        }
         return this;
     }
 
     public Contact addEvent(Event event) {
-        events.add(event);
+        if (!contains(events, eventCount, event)) {
+            events = append(events, eventCount++, event);
+        }
         return this;
     }
 
@@ -196,7 +239,9 @@ public final class Contact {
     }
 
     public Contact addWebsite(String website) {
-        websites.add(website);
+        if (!contains(websites, websiteCount, website)) {
+            websites = append(websites, websiteCount++, website);
+        }
         return this;
     }
 
@@ -206,7 +251,9 @@ public final class Contact {
     }
 
     public Contact addAddress(Address address) {
-        addresses.add(address);
+        if (!contains(addresses, addressCount, address)) {
+            addresses = append(addresses, addressCount++, address);
+        }
         return this;
     }
 
@@ -252,7 +299,7 @@ public final class Contact {
      * @return A List of phone numbers.
      */
     public List<PhoneNumber> getPhoneNumbers() {
-        return Arrays.asList(phoneNumbers.toArray(new PhoneNumber[phoneNumbers.size()]));
+        return view(phoneNumbers, phoneNumberCount);
     }
 
     /**
@@ -270,7 +317,7 @@ public final class Contact {
      * @return A List of emails.
      */
     public List<Email> getEmails() {
-        return Arrays.asList(emails.toArray(new Email[emails.size()]));
+        return view(emails, emailCount);
     }
 
     /**
@@ -279,7 +326,7 @@ public final class Contact {
      * @return A List of emails.
      */
     public List<Event> getEvents() {
-        return Arrays.asList(events.toArray(new Event[events.size()]));
+        return view(events, eventCount);
     }
 
     /**
@@ -325,7 +372,7 @@ public final class Contact {
      * @return A list of websites
      */
     public List<String> getWebsites() {
-        return Arrays.asList(websites.toArray(new String[websites.size()]));
+        return view(websites, websiteCount);
     }
 
     /**
@@ -343,11 +390,12 @@ public final class Contact {
      * @return A list of addresses
      */
     public List<Address> getAddresses() {
-        return Arrays.asList(addresses.toArray(new Address[addresses.size()]));
+        return view(addresses, addressCount);
     }
 
     private Event getEvent(Event.Type type) {
-        for (Event event: events) {
+        for (int i = 0; i < eventCount; i++) {
+            Event event = (Event) events[i];
             if (type.equals(event.getType())) {
                 return event;
             }
@@ -355,4 +403,70 @@ public final class Contact {
 
         return null;
     }
+
+    private static boolean contains(Object[] values, int count, Object value) {
+        for (int i = 0; i < count; i++) {
+            if (values[i] == null ? value == null : values[i].equals(value)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Appends a value, growing the array if needed. Most contacts have a single value of a kind,
+     * so the first array holds exactly one.
+     */
+    private static Object[] append(Object[] values, int count, Object value) {
+        if (values == null) {
+            values = new Object[1];
+        } else if (count == values.length) {
+            values = Arrays.copyOf(values, count < 4 ? count + 2 : count * 2);
+        }
+
+        values[count] = value;
+        return values;
+    }
+
+    private static Object[] copyOf(Object[] values, int count) {
+        return values == null ? null : Arrays.copyOf(values, count);
+    }
+
+    private static <T> List<T> view(Object[] values, int count) {
+        if (count == 0) {
+            return Collections.emptyList();
+        }
+
+        return new ArrayView<>(values, count);
+    }
+
+    /**
+     * A read only list over the first values of an array. Values are only ever appended to the
+     * arrays of a contact, so a view keeps showing the values it was created with.
+     */
+    private static final class ArrayView<T> extends AbstractList<T> implements RandomAccess {
+        private final Object[] values;
+        private final int size;
+
+        ArrayView(Object[] values, int size) {
+            this.values = values;
+            this.size = size;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public T get(int index) {
+            if (index >= size) {
+                throw new IndexOutOfBoundsException("index " + index + ", size " + size);
+            }
+
+            return (T) values[index];
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
 }
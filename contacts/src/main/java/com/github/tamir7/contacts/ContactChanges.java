@@ -0,0 +1,74 @@
+/*
+ * Copyright 2016 Tamir Shomer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.tamir7.contacts;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Represents the changes of the address book since a point in time.
+ *
+ * @see Query#changedSince(long)
+ */
+public final class ContactChanges {
+    private final List<Contact> updatedContacts;
+    private final List<Long> deletedContactIds;
+    private final long timestamp;
+
+    ContactChanges(List<Contact> updatedContacts, List<Long> deletedContactIds, long timestamp) {
+        this.updatedContacts = Collections.unmodifiableList(updatedContacts);
+        this.deletedContactIds = Collections.unmodifiableList(deletedContactIds);
+        this.timestamp = timestamp;
+    }
+
+    /**
+     * Gets the contacts that were added or changed.
+     *
+     * @return The updated contacts, in the same order as {@link Query#find()} returns them.
+     */
+    public List<Contact> getUpdatedContacts() {
+        return updatedContacts;
+    }
+
+    /**
+     * Gets the ids of the contacts that were deleted.
+     *
+     * @return The deleted contact ids.
+     */
+    public List<Long> getDeletedContactIds() {
+        return deletedContactIds;
+    }
+
+    /**
+     * Gets the high-water mark of these changes. Pass it to the next call of
+     * {@link Query#changedSince(long)} to get the changes that happen after these. Contacts that
+     * changed within a few seconds of this call may be reported by the next call again.
+     *
+     * @return The timestamp of the earliest change the next sync reports, in milliseconds.
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * Checks whether anything changed.
+     *
+     * @return true if no contact was updated or deleted.
+     */
+    public boolean isEmpty() {
+        return updatedContacts.isEmpty() && deletedContactIds.isEmpty();
+    }
+}
@@ -0,0 +1,221 @@
+/*
+ * Copyright 2016 Tamir Shomer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.tamir7.contacts;
+
+import android.content.ContentProviderOperation;
+import android.provider.ContactsContract;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Builds the provider operations that write a single contact, and estimates their parcel size.
+ * The first operation of a contact allows the provider to yield.
+ */
+final class ContactOperations {
+    private static final String UPDATE_SELECTION = ContactsContract.RawContacts.CONTACT_ID + "=? AND " +
+            ContactsContract.Data.MIMETYPE + "=?";
+
+    // Rough parcel sizes of an operation with its uri, and of a single value besides its strings.
+    private static final int OPERATION_BYTES = 160;
+    private static final int VALUE_BYTES = 16;
+
+    private final List<ContentProviderOperation.Builder> builders = new ArrayList<>();
+    private ContentProviderOperation.Builder current;
+    private int estimatedBytes = 0;
+
+    private ContactOperations() {}
+
+    /**
+     * Builds the operations that update the data of an existing contact.
+     * Names, company and note are written to the rows of their mime type. Phone numbers are
+     * written to the row that holds the same number.
+     *
+     * @param contact The contact to update.
+     * @return The operations.
+     */
+    static ContactOperations update(Contact contact) {
+        ContactOperations ops = new ContactOperations();
+        String id = String.valueOf(contact.getId());
+
+        if (contact.getDisplayName() != null || contact.getGivenName() != null ||
+                contact.getFamilyName() != null) {
+            ops.newOperation(newUpdate(id, ContactsContract.CommonDataKinds.StructuredName.CONTENT_ITEM_TYPE))
+                    .withValue(ContactsContract.CommonDataKinds.StructuredName.DISPLAY_NAME, contact.getDisplayName())
+                    .withValue(ContactsContract.CommonDataKinds.StructuredName.GIVEN_NAME, contact.getGivenName())
+                    .withValue(ContactsContract.CommonDataKinds.StructuredName.FAMILY_NAME, contact.getFamilyName());
+        }
+
+        if (contact.getCompanyName() != null || contact.getCompanyTitle() != null) {
+            ops.newOperation(newUpdate(id, ContactsContract.CommonDataKinds.Organization.CONTENT_ITEM_TYPE))
+                    .withValue(ContactsContract.CommonDataKinds.Organization.COMPANY, contact.getCompanyName())
+                    .withValue(ContactsContract.CommonDataKinds.Organization.TITLE, contact.getCompanyTitle());
+        }
+
+        if (contact.getNote() != null) {
+            ops.newOperation(newUpdate(id, ContactsContract.CommonDataKinds.Note.CONTENT_ITEM_TYPE))
+                    .withValue(ContactsContract.CommonDataKinds.Note.NOTE, contact.getNote());
+        }
+
+        for (PhoneNumber phoneNumber : contact.getPhoneNumbers()) {
+            ops.newOperation(newUpdate(id, ContactsContract.CommonDataKinds.Phone.CONTENT_ITEM_TYPE,
+                    ContactsContract.CommonDataKinds.Phone.NUMBER, phoneNumber.getNumber()))
+                    .withPhoneValues(phoneNumber, false);
+        }
+
+        return ops;
+    }
+
+    /**
+     * Builds the operations that insert a new raw contact with all of its data.
+     * The data rows reference the raw contact through a back reference.
+     *
+     * @param contact   The contact to insert.
+     * @param base      The index the raw contact insert will have in its batch.
+     * @return The operations.
+     */
+    static ContactOperations insert(Contact contact, int base) {
+        ContactOperations ops = new ContactOperations();
+        ops.newOperation(ContentProviderOperation.newInsert(ContactsContract.RawContacts.CONTENT_URI))
+                .withValue(ContactsContract.RawContacts.ACCOUNT_TYPE, null)
+                .withValue(ContactsContract.RawContacts.ACCOUNT_NAME, null);
+
+        if (contact.getDisplayName() != null || contact.getGivenName() != null ||
+                contact.getFamilyName() != null) {
+            ops.newData(base, ContactsContract.CommonDataKinds.StructuredName.CONTENT_ITEM_TYPE)
+                    .withValue(ContactsContract.CommonDataKinds.StructuredName.DISPLAY_NAME, contact.getDisplayName())
+                    .withValue(ContactsContract.CommonDataKinds.StructuredName.GIVEN_NAME, contact.getGivenName())
+                    .withValue(ContactsContract.CommonDataKinds.StructuredName.FAMILY_NAME, contact.getFamilyName());
+        }
+
+        for (PhoneNumber phoneNumber : contact.getPhoneNumbers()) {
+            ops.newData(base, ContactsContract.CommonDataKinds.Phone.CONTENT_ITEM_TYPE)
+                    .withPhoneValues(phoneNumber, true);
+        }
+
+        for (Email email : contact.getEmails()) {
+            ops.newData(base, ContactsContract.CommonDataKinds.Email.CONTENT_ITEM_TYPE)
+                    .withValue(ContactsContract.CommonDataKinds.Email.ADDRESS, email.getAddress())
+                    .withValue(ContactsContract.CommonDataKinds.Email.TYPE, Email.Type.fromType(email.getType()))
+                    .withValue(ContactsContract.CommonDataKinds.Email.LABEL, email.getLabel());
+        }
+
+        for (Event event : contact.getEvents()) {
+            ops.newData(base, ContactsContract.CommonDataKinds.Event.CONTENT_ITEM_TYPE)
+                    .withValue(ContactsContract.CommonDataKinds.Event.START_DATE, event.getStartDate())
+                    .withValue(ContactsContract.CommonDataKinds.Event.TYPE, Event.Type.fromType(event.getType()))
+                    .withValue(ContactsContract.CommonDataKinds.Event.LABEL, event.getLabel());
+        }
+
+        if (contact.getCompanyName() != null || contact.getCompanyTitle() != null) {
+            ops.newData(base, ContactsContract.CommonDataKinds.Organization.CONTENT_ITEM_TYPE)
+                    .withValue(ContactsContract.CommonDataKinds.Organization.COMPANY, contact.getCompanyName())
+                    .withValue(ContactsContract.CommonDataKinds.Organization.TITLE, contact.getCompanyTitle());
+        }
+
+        for (String website : contact.getWebsites()) {
+            ops.newData(base, ContactsContract.CommonDataKinds.Website.CONTENT_ITEM_TYPE)
+                    .withValue(ContactsContract.CommonDataKinds.Website.URL, website);
+        }
+
+        if (contact.getNote() != null) {
+            ops.newData(base, ContactsContract.CommonDataKinds.Note.CONTENT_ITEM_TYPE)
+                    .withValue(ContactsContract.CommonDataKinds.Note.NOTE, contact.getNote());
+        }
+
+        for (Address address : contact.getAddresses()) {
+            ops.newData(base, ContactsContract.CommonDataKinds.StructuredPostal.CONTENT_ITEM_TYPE)
+                    .withValue(ContactsContract.CommonDataKinds.StructuredPostal.FORMATTED_ADDRESS,
+                            address.getFormattedAddress())
+                    .withValue(ContactsContract.CommonDataKinds.StructuredPostal.STREET, address.getStreet())
+                    .withValue(ContactsContract.CommonDataKinds.StructuredPostal.CITY, address.getCity())
+                    .withValue(ContactsContract.CommonDataKinds.StructuredPostal.REGION, address.getRegion())
+                    .withValue(ContactsContract.CommonDataKinds.StructuredPostal.POSTCODE, address.getPostcode())
+                    .withValue(ContactsContract.CommonDataKinds.StructuredPostal.COUNTRY, address.getCountry())
+                    .withValue(ContactsContract.CommonDataKinds.StructuredPostal.TYPE,
+                            Address.Type.fromType(address.getType()))
+                    .withValue(ContactsContract.CommonDataKinds.StructuredPostal.LABEL, address.getLabel());
+        }
+
+        return ops;
+    }
+
+    int size() {
+        return builders.size();
+    }
+
+    int getEstimatedBytes() {
+        return estimatedBytes;
+    }
+
+    List<ContentProviderOperation> build() {
+        List<ContentProviderOperation> ops = new ArrayList<>(builders.size());
+        for (ContentProviderOperation.Builder builder : builders) {
+            ops.add(builder.withYieldAllowed(ops.isEmpty()).build());
+        }
+
+        return ops;
+    }
+
+    private ContactOperations newOperation(ContentProviderOperation.Builder builder) {
+        builders.add(builder);
+        current = builder;
+        estimatedBytes += OPERATION_BYTES;
+        return this;
+    }
+
+    private ContactOperations newData(int base, String mimeType) {
+        return newOperation(ContentProviderOperation.newInsert(ContactsContract.Data.CONTENT_URI)
+                .withValueBackReference(ContactsContract.Data.RAW_CONTACT_ID, base))
+                .withValue(ContactsContract.Data.MIMETYPE, mimeType);
+    }
+
+    private ContactOperations withValue(String column, Object value) {
+        current.withValue(column, value);
+        estimatedBytes += VALUE_BYTES + 2 * column.length();
+        if (value instanceof String) {
+            estimatedBytes += 2 * ((String) value).length();
+        }
+
+        return this;
+    }
+
+    private ContactOperations withPhoneValues(PhoneNumber phoneNumber, boolean withNumber) {
+        if (withNumber) {
+            withValue(ContactsContract.CommonDataKinds.Phone.NUMBER, phoneNumber.getNumber());
+        }
+
+        withValue(ContactsContract.CommonDataKinds.Phone.TYPE, PhoneNumber.Type.fromType(phoneNumber.getType()));
+        withValue(ContactsContract.CommonDataKinds.Phone.LABEL, phoneNumber.getLabel());
+        if (android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.JELLY_BEAN) {
+            withValue(ContactsContract.CommonDataKinds.Phone.NORMALIZED_NUMBER, phoneNumber.getNormalizedNumber());
+        }
+
+        return this;
+    }
+
+    private static ContentProviderOperation.Builder newUpdate(String contactId, String mimeType) {
+        return ContentProviderOperation.newUpdate(ContactsContract.Data.CONTENT_URI)
+                .withSelection(UPDATE_SELECTION, new String[]{contactId, mimeType});
+    }
+
+    private static ContentProviderOperation.Builder newUpdate(String contactId, String mimeType,
+                                                              String column, String value) {
+        return ContentProviderOperation.newUpdate(ContactsContract.Data.CONTENT_URI)
+                .withSelection(UPDATE_SELECTION + " AND " + column + "=?",
+                        new String[]{contactId, mimeType, value});
+    }
+}
@@ -0,0 +1,264 @@
+/*
+ * Copyright 2016 Tamir Shomer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.tamir7.contacts;
+
+import android.database.Cursor;
+import android.provider.ContactsContract;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * The order of query results: sort keys on columns that have the same value in all data rows of a
+ * contact, followed by the contact id.
+ *
+ * The contact id breaks all ties, so the rows of each contact are adjacent in the results, and
+ * every contact has a unique position that {@link #after(Object[], long)} can page from.
+ */
+final class ContactOrder {
+    private static final String ID_COLUMN = ContactsContract.RawContacts.CONTACT_ID;
+
+    static final ContactOrder NONE = new ContactOrder(new String[0], new boolean[0], new boolean[0]);
+    static final ContactOrder DEFAULT = NONE.then(ContactsContract.Data.DISPLAY_NAME, false, false);
+
+    private final String[] columns;
+    private final boolean[] descending;
+    private final boolean[] localized;
+    private final String sortOrder;
+    private final String contactsSortOrder;
+
+    private ContactOrder(String[] columns, boolean[] descending, boolean[] localized) {
+        this.columns = columns;
+        this.descending = descending;
+        this.localized = localized;
+        sortOrder = render(ID_COLUMN);
+        contactsSortOrder = render(ContactsContract.Contacts._ID);
+    }
+
+    private String render(String idColumn) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < columns.length; i++) {
+            builder.append(ID_COLUMN.equals(columns[i]) ? idColumn : columns[i])
+                    .append(descending[i] ? " DESC, " : ", ");
+        }
+
+        if (isUnique()) {
+            builder.setLength(builder.length() - 2);
+        } else {
+            builder.append(idColumn);
+        }
+
+        return builder.toString();
+    }
+
+    /**
+     * Adds a sort key that breaks the ties of the existing keys.
+     *
+     * @param column        The column of the key.
+     * @param descending    Whether the key sorts in descending order.
+     * @param localized     Whether the provider collates the column by the rules of the locale.
+     * @return The extended order, or this if the contact id already breaks all ties.
+     */
+    ContactOrder then(String column, boolean descending, boolean localized) {
+        if (isUnique()) {
+            return this;
+        }
+
+        if (Arrays.asList(columns).contains(column)) {
+            throw new IllegalArgumentException("already ordered by " + column);
+        }
+
+        String[] newColumns = Arrays.copyOf(columns, columns.length + 1);
+        boolean[] newDescending = Arrays.copyOf(this.descending, columns.length + 1);
+        boolean[] newLocalized = Arrays.copyOf(this.localized, columns.length + 1);
+        newColumns[columns.length] = column;
+        newDescending[columns.length] = descending;
+        newLocalized[columns.length] = localized;
+        return new ContactOrder(newColumns, newDescending, newLocalized);
+    }
+
+    private boolean isUnique() {
+        return columns.length > 0 && columns[columns.length - 1].equals(ID_COLUMN);
+    }
+
+    /**
+     * Gets the sort order of the provider query.
+     */
+    String getSortOrder() {
+        return sortOrder;
+    }
+
+    /**
+     * Gets the sort order of a query on the contacts table, which names the contact id _id.
+     */
+    String getContactsSortOrder() {
+        return contactsSortOrder;
+    }
+
+    /**
+     * Checks whether a key of this order is collated by the rules of the locale. Only the provider
+     * can sort by such a key, see {@link #comparator()}.
+     */
+    boolean isLocalized() {
+        for (boolean value : localized) {
+            if (value) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Adds the columns of the sort keys that are missing from a projection.
+     */
+    String[] addColumns(String[] projection) {
+        String[] result = projection;
+        for (String column : columns) {
+            if (!Arrays.asList(result).contains(column)) {
+                result = Arrays.copyOf(result, result.length + 1);
+                result[result.length - 1] = column;
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Builds a selection that matches the rows of the contacts that come after the given position.
+     * SQLite sorts null values first, so in ascending order a null value comes before all others,
+     * and in descending order after all others.
+     *
+     * @param values    The values of the sort keys at the position, except the contact id.
+     * @param contactId The contact id at the position.
+     */
+    Where after(Object[] values, long contactId) {
+        int keys = isUnique() ? columns.length - 1 : columns.length;
+        if (values.length != keys) {
+            throw new IllegalArgumentException("expected " + keys + " sort values, got " + values.length);
+        }
+
+        Where where = isUnique() && descending[keys] ? Where.lessThan(ID_COLUMN, contactId)
+                : Where.greaterThan(ID_COLUMN, contactId);
+
+        for (int i = keys - 1; i >= 0; i--) {
+            String column = columns[i];
+            Object value = values[i];
+            Where same = value == null ? Where.isNull(column) : Where.equalTo(column, value);
+            Where later;
+            if (descending[i]) {
+                later = value == null ? null : Where.lessThan(column, value).or(Where.isNull(column));
+            } else {
+                later = value == null ? Where.isNotNull(column) : Where.greaterThan(column, value);
+            }
+
+            where = later == null ? same.and(where) : later.or(same.and(where));
+        }
+
+        return where;
+    }
+
+    /**
+     * Reads the values of the sort keys and the contact id from the current row of a cursor
+     * that projects the columns of this order.
+     *
+     * @param c         The cursor.
+     * @param indexes   The indexes of the columns of the keys, as returned by {@link #getIndexes(Cursor)}.
+     */
+    Object[] read(Cursor c, int[] indexes) {
+        Object[] values = new Object[columns.length + 1];
+        for (int i = 0; i < columns.length; i++) {
+            values[i] = ID_COLUMN.equals(columns[i]) ? c.getLong(indexes[i]) : c.getString(indexes[i]);
+        }
+
+        values[columns.length] = c.getLong(indexes[columns.length]);
+        return values;
+    }
+
+    int[] getIndexes(Cursor c) {
+        int[] indexes = new int[columns.length + 1];
+        for (int i = 0; i < columns.length; i++) {
+            indexes[i] = c.getColumnIndexOrThrow(columns[i]);
+        }
+
+        indexes[columns.length] = c.getColumnIndexOrThrow(ID_COLUMN);
+        return indexes;
+    }
+
+    /**
+     * Creates a comparator of values read by {@link #read(Cursor, int[])} that sorts like the
+     * provider. The provider compares text by its UTF-8 bytes, which is the order of the code
+     * points. Localized keys use a collation of the provider that can't be reproduced here.
+     *
+     * @throws IllegalStateException If this order has localized keys.
+     */
+    Comparator<Object[]> comparator() {
+        if (isLocalized()) {
+            throw new IllegalStateException("only the provider can sort by " + sortOrder);
+        }
+
+        return new Comparator<Object[]>() {
+            @Override
+            public int compare(Object[] lhs, Object[] rhs) {
+                for (int i = 0; i <= columns.length; i++) {
+                    Object lhsValue = lhs[i];
+                    Object rhsValue = rhs[i];
+                    int result;
+                    if (lhsValue == null || rhsValue == null) {
+                        result = lhsValue == rhsValue ? 0 : (lhsValue == null ? -1 : 1);
+                    } else if (lhsValue instanceof Long) {
+                        result = ((Long) lhsValue).compareTo((Long) rhsValue);
+                    } else {
+                        result = compareBinary((String) lhsValue, (String) rhsValue);
+                    }
+
+                    if (result != 0) {
+                        return i < columns.length && descending[i] ? -result : result;
+                    }
+                }
+
+                return 0;
+            }
+        };
+    }
+
+    /**
+     * Compares strings by code point. Unlike {@link String#compareTo(String)}, which compares
+     * UTF-16 chars, it orders supplementary characters after all others, as their UTF-8 bytes do.
+     */
+    static int compareBinary(String lhs, String rhs) {
+        int length = Math.min(lhs.length(), rhs.length());
+        for (int i = 0; i < length; i++) {
+            char lhsChar = lhs.charAt(i);
+            char rhsChar = rhs.charAt(i);
+            if (lhsChar != rhsChar) {
+                if (Character.isSurrogate(lhsChar) != Character.isSurrogate(rhsChar)) {
+                    return Character.isSurrogate(lhsChar) ? 1 : -1;
+                }
+
+                return lhsChar - rhsChar;
+            }
+        }
+
+        return lhs.length() - rhs.length();
+    }
+
+    @Override
+    public String toString() {
+        return sortOrder;
+    }
+}
@@ -0,0 +1,678 @@
+/*
+ * Copyright 2016 Tamir Shomer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.tamir7.contacts;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * An in memory type-ahead index over the names, email addresses and phone numbers of contacts.
+ *
+ * Names, company names and the local parts of email addresses are split into tokens that are
+ * stored in a compressed (radix) trie, so every word of a contact can be completed from a prefix.
+ * The digits of phone numbers are also stored in the trie for prefix matches, and in a trigram
+ * index for matches anywhere inside a number.
+ *
+ * Every word of a search must match a token of a contact. Matches in the display name rank
+ * highest, then given and family names and phone numbers, then company names and email
+ * addresses; exact token matches rank above prefix matches. Contacts with the same rank keep the
+ * order they were added in, so an index built from a {@link Query} result ranks them by name.
+ * Contacts added after a removal may take the place of the removed one in that order.
+ */
+public final class ContactSearchIndex {
+    private static final int WEIGHT_DISPLAY_NAME = 3;
+    private static final int WEIGHT_NAME = 2;
+    private static final int WEIGHT_PHONE = 2;
+    private static final int WEIGHT_COMPANY = 1;
+    private static final int WEIGHT_EMAIL = 1;
+    private static final int WEIGHT_BITS = 3;
+    private static final int MAX_TOKENS = 63;
+    private static final long NO_ID = Long.MIN_VALUE;
+
+    private final Node root = new Node(new char[0]);
+    private final IntList[] trigrams = new IntList[1000];
+    private final Map<Long, Integer> slots = new HashMap<>();
+    private final IntList freeSlots = new IntList();
+
+    // per slot data, indexed by slot.
+    private long[] ids = new long[0];
+    private String[][] tokens = new String[0][];
+    private byte[][] weights = new byte[0][];
+    private String[] digits = new String[0];
+
+    // per search scratch space, indexed by slot.
+    private int[] marks = new int[0];
+    private int[] scores = new int[0];
+    private int generation = 0;
+
+    /**
+     * Creates an empty index.
+     */
+    public ContactSearchIndex() {}
+
+    /**
+     * Creates an index of the given contacts.
+     *
+     * @param contacts  The contacts to index, typically the result of a {@link Query}.
+     */
+    public ContactSearchIndex(Collection<Contact> contacts) {
+        for (Contact contact : contacts) {
+            add(contact);
+        }
+    }
+
+    /**
+     * Adds a contact to the index, replacing the indexed contact with the same id.
+     *
+     * @param contact   The contact to add. It must have an id.
+     */
+    public synchronized void add(Contact contact) {
+        if (contact.getId() == null) {
+            throw new IllegalArgumentException("contact has no id");
+        }
+
+        remove(contact.getId());
+
+        Map<String, Integer> contactTokens = new LinkedHashMap<>();
+        addTokens(contactTokens, contact.getDisplayName(), WEIGHT_DISPLAY_NAME);
+        addTokens(contactTokens, contact.getGivenName(), WEIGHT_NAME);
+        addTokens(contactTokens, contact.getFamilyName(), WEIGHT_NAME);
+        addTokens(contactTokens, contact.getCompanyName(), WEIGHT_COMPANY);
+        for (Email email : contact.getEmails()) {
+            String address = email.getAddress();
+            if (address != null) {
+                int at = address.indexOf('@');
+                addTokens(contactTokens, at < 0 ? address : address.substring(0, at), WEIGHT_EMAIL);
+            }
+        }
+
+        StringBuilder contactDigits = new StringBuilder();
+        for (PhoneNumber phoneNumber : contact.getPhoneNumbers()) {
+            addDigits(contactTokens, contactDigits, phoneNumber.getNormalizedNumber());
+            addDigits(contactTokens, contactDigits, phoneNumber.getNumber());
+        }
+
+        int slot = allocateSlot();
+        ids[slot] = contact.getId();
+        tokens[slot] = contactTokens.keySet().toArray(new String[contactTokens.size()]);
+        weights[slot] = new byte[contactTokens.size()];
+        digits[slot] = contactDigits.toString();
+        slots.put(contact.getId(), slot);
+
+        int i = 0;
+        for (Map.Entry<String, Integer> entry : contactTokens.entrySet()) {
+            weights[slot][i++] = (byte) (int) entry.getValue();
+            insert(entry.getKey(), posting(slot, entry.getValue()));
+        }
+
+        for (int gram : trigramsOf(digits[slot])) {
+            if (trigrams[gram] == null) {
+                trigrams[gram] = new IntList();
+            }
+
+            trigrams[gram].add(slot);
+        }
+    }
+
+    /**
+     * Removes a contact from the index.
+     *
+     * @param contactId The id of the contact to remove.
+     * @return true if the contact was indexed.
+     */
+    public synchronized boolean remove(long contactId) {
+        Integer slot = slots.remove(contactId);
+        if (slot == null) {
+            return false;
+        }
+
+        for (int i = 0; i < tokens[slot].length; i++) {
+            delete(tokens[slot][i], posting(slot, weights[slot][i]));
+        }
+
+        for (int gram : trigramsOf(digits[slot])) {
+            trigrams[gram].removeValue(slot);
+        }
+
+        ids[slot] = NO_ID;
+        tokens[slot] = null;
+        weights[slot] = null;
+        digits[slot] = null;
+        freeSlots.add(slot);
+        return true;
+    }
+
+    /**
+     * Gets the number of indexed contacts.
+     *
+     * @return The number of indexed contacts.
+     */
+    public synchronized int size() {
+        return slots.size();
+    }
+
+    /**
+     * Searches the index.
+     *
+     * @param query         The words to search for. Each word matches the start of a name, company or
+     *                      email word, or any part of a phone number.
+     * @param maxResults    The maximum number of returned ids.
+     * @return The ids of the matching contacts, best match first.
+     */
+    public synchronized List<Long> search(String query, int maxResults) {
+        List<String> queryTokens = tokenize(query);
+        List<Long> result = new ArrayList<>();
+        if (queryTokens.isEmpty() || maxResults <= 0) {
+            return result;
+        }
+
+        if (queryTokens.size() > MAX_TOKENS) {
+            queryTokens = queryTokens.subList(0, MAX_TOKENS);
+        }
+
+        // the longest word is the most selective one: it finds the candidates, the other words
+        // only verify them.
+        String driver = queryTokens.get(0);
+        for (String token : queryTokens) {
+            if (token.length() > driver.length()) {
+                driver = token;
+            }
+        }
+
+        IntList candidates = new IntList();
+        int mark = nextMark();
+        collectPrefixMatches(driver, mark, candidates);
+        if (isDigits(driver) && driver.length() >= 3) {
+            collectDigitMatches(driver, mark, candidates);
+        }
+
+        long[] ranked = new long[candidates.size()];
+        int count = 0;
+        for (int i = 0; i < candidates.size(); i++) {
+            int slot = candidates.get(i);
+            int score = scores[slot];
+            boolean matches = true;
+            for (String token : queryTokens) {
+                if (token != driver) {
+                    int tokenScore = score(slot, token);
+                    if (tokenScore < 0) {
+                        matches = false;
+                        break;
+                    }
+
+                    score += tokenScore;
+                }
+            }
+
+            if (matches) {
+                // higher scores first, then slots in the order they were added.
+                ranked[count++] = ((long) (Integer.MAX_VALUE - score) << 32) | slot;
+            }
+        }
+
+        Arrays.sort(ranked, 0, count);
+        for (int i = 0; i < Math.min(count, maxResults); i++) {
+            result.add(ids[(int) ranked[i]]);
+        }
+
+        return result;
+    }
+
+    /**
+     * Finds the tokens starting with the given prefix, and records the best score of each slot.
+     */
+    private void collectPrefixMatches(String prefix, int mark, IntList candidates) {
+        Node node = root;
+        int i = 0;
+        while (i < prefix.length()) {
+            Node child = node.getChild(prefix.charAt(i));
+            if (child == null) {
+                return;
+            }
+
+            int common = commonPrefix(child.label, prefix, i);
+            if (common < child.label.length && i + common < prefix.length()) {
+                return;
+            }
+
+            i += common;
+            node = child;
+        }
+
+        // postings of the node itself match the prefix exactly, unless the prefix ended inside
+        // its label.
+        boolean exact = isExactMatch(prefix, node);
+        List<Node> stack = new ArrayList<>();
+        stack.add(node);
+        while (!stack.isEmpty()) {
+            Node current = stack.remove(stack.size() - 1);
+            for (int p = 0; p < current.postingCount; p++) {
+                int posting = current.postings[p];
+                int score = (posting & ((1 << WEIGHT_BITS) - 1)) * 2 + (exact && current == node ? 1 : 0);
+                record(posting >>> WEIGHT_BITS, score, mark, candidates);
+            }
+
+            for (int c = 0; c < current.childCount; c++) {
+                stack.add(current.children[c]);
+            }
+        }
+    }
+
+    private boolean isExactMatch(String prefix, Node node) {
+        int depth = 0;
+        Node current = root;
+        while (current != node) {
+            Node child = current.getChild(prefix.charAt(depth));
+            depth += child.label.length;
+            current = child;
+        }
+
+        return depth == prefix.length();
+    }
+
+    /**
+     * Finds the phone numbers containing the given digits, using the rarest trigram of the digits.
+     */
+    private void collectDigitMatches(String query, int mark, IntList candidates) {
+        IntList rarest = null;
+        for (int gram : trigramsOf(query)) {
+            IntList list = trigrams[gram];
+            if (list == null) {
+                return;
+            }
+
+            if (rarest == null || list.size() < rarest.size()) {
+                rarest = list;
+            }
+        }
+
+        for (int i = 0; i < rarest.size(); i++) {
+            int slot = rarest.get(i);
+            if (digits[slot].contains(query)) {
+                record(slot, WEIGHT_PHONE * 2, mark, candidates);
+            }
+        }
+    }
+
+    private void record(int slot, int score, int mark, IntList candidates) {
+        if (marks[slot] != mark) {
+            marks[slot] = mark;
+            scores[slot] = score;
+            candidates.add(slot);
+        } else if (score > scores[slot]) {
+            scores[slot] = score;
+        }
+    }
+
+    /**
+     * Scores a word of a search against the tokens of a slot.
+     *
+     * @return The best score, or -1 if the word matches no token.
+     */
+    private int score(int slot, String token) {
+        int best = -1;
+        String[] slotTokens = tokens[slot];
+        for (int i = 0; i < slotTokens.length; i++) {
+            if (slotTokens[i].startsWith(token)) {
+                best = Math.max(best, weights[slot][i] * 2 + (slotTokens[i].length() == token.length() ? 1 : 0));
+            }
+        }
+
+        if (best < 0 && isDigits(token) && digits[slot].contains(token)) {
+            best = WEIGHT_PHONE * 2;
+        }
+
+        return best;
+    }
+
+    private int nextMark() {
+        if (++generation == 0) {
+            // the marks wrapped around, stale marks must not look current.
+            Arrays.fill(marks, 0);
+            generation = 1;
+        }
+
+        return generation;
+    }
+
+    private int allocateSlot() {
+        if (freeSlots.size() > 0) {
+            return freeSlots.removeLast();
+        }
+
+        int slot = ids.length;
+        int capacity = Math.max(16, slot * 2);
+        ids = Arrays.copyOf(ids, capacity);
+        Arrays.fill(ids, slot, capacity, NO_ID);
+        tokens = Arrays.copyOf(tokens, capacity);
+        weights = Arrays.copyOf(weights, capacity);
+        digits = Arrays.copyOf(digits, capacity);
+        marks = Arrays.copyOf(marks, capacity);
+        scores = Arrays.copyOf(scores, capacity);
+        for (int i = capacity - 1; i > slot; i--) {
+            freeSlots.add(i);
+        }
+
+        return slot;
+    }
+
+    private void insert(String token, int posting) {
+        Node node = root;
+        int i = 0;
+        while (i < token.length()) {
+            Node child = node.getChild(token.charAt(i));
+            if (child == null) {
+                child = new Node(token.substring(i).toCharArray());
+                node.addChild(child);
+                node = child;
+                break;
+            }
+
+            int common = commonPrefix(child.label, token, i);
+            if (common < child.label.length) {
+                // split the edge at the end of the common prefix.
+                Node middle = new Node(Arrays.copyOf(child.label, common));
+                child.label = Arrays.copyOfRange(child.label, common, child.label.length);
+                node.replaceChild(child, middle);
+                middle.addChild(child);
+                child = middle;
+            }
+
+            i += common;
+            node = child;
+        }
+
+        node.addPosting(posting);
+    }
+
+    private void delete(String token, int posting) {
+        List<Node> path = new ArrayList<>();
+        path.add(root);
+        Node node = root;
+        int i = 0;
+        while (i < token.length()) {
+            Node child = node.getChild(token.charAt(i));
+            if (child == null || commonPrefix(child.label, token, i) < child.label.length) {
+                return;
+            }
+
+            i += child.label.length;
+            path.add(child);
+            node = child;
+        }
+
+        node.removePosting(posting);
+
+        // removes the nodes left without postings and children, and merges a node left with a
+        // single child and no postings into that child, so the trie stays compressed.
+        for (int depth = path.size() - 1; depth > 0; depth--) {
+            Node current = path.get(depth);
+            if (current.postingCount > 0 || current.childCount > 1) {
+                return;
+            }
+
+            Node parent = path.get(depth - 1);
+            if (current.childCount == 1) {
+                Node only = current.children[0];
+                char[] label = Arrays.copyOf(current.label, current.label.length + only.label.length);
+                System.arraycopy(only.label, 0, label, current.label.length, only.label.length);
+                only.label = label;
+                parent.replaceChild(current, only);
+                return;
+            }
+
+            parent.removeChild(current);
+        }
+    }
+
+    private static int commonPrefix(char[] label, String token, int offset) {
+        int max = Math.min(label.length, token.length() - offset);
+        int i = 0;
+        while (i < max && label[i] == token.charAt(offset + i)) {
+            i++;
+        }
+
+        return i;
+    }
+
+    private static int posting(int slot, int weight) {
+        return (slot << WEIGHT_BITS) | weight;
+    }
+
+    private static void addTokens(Map<String, Integer> tokens, String value, int weight) {
+        for (String token : tokenize(value)) {
+            Integer previous = tokens.get(token);
+            if (previous == null || previous < weight) {
+                tokens.put(token, weight);
+            }
+        }
+    }
+
+    private static void addDigits(Map<String, Integer> tokens, StringBuilder digits, String number) {
+        if (number == null) {
+            return;
+        }
+
+        StringBuilder numberDigits = new StringBuilder(number.length());
+        for (int i = 0; i < number.length(); i++) {
+            char c = number.charAt(i);
+            if (c >= '0' && c <= '9') {
+                numberDigits.append(c);
+            }
+        }
+
+        if (numberDigits.length() > 0) {
+            addTokens(tokens, numberDigits.toString(), WEIGHT_PHONE);
+            digits.append(numberDigits).append(' ');
+        }
+    }
+
+    /**
+     * Splits a value into lower case words without diacritics.
+     */
+    static List<String> tokenize(String value) {
+        List<String> tokens = new ArrayList<>();
+        if (value == null) {
+            return tokens;
+        }
+
+        String normalized = (isAscii(value) ? value : stripMarks(value)).toLowerCase(Locale.ROOT);
+        int start = -1;
+        for (int i = 0; i <= normalized.length(); i++) {
+            boolean letterOrDigit = i < normalized.length() && Character.isLetterOrDigit(normalized.charAt(i));
+            if (letterOrDigit && start < 0) {
+                start = i;
+            } else if (!letterOrDigit && start >= 0) {
+                tokens.add(normalized.substring(start, i));
+                start = -1;
+            }
+        }
+
+        return tokens;
+    }
+
+    private static String stripMarks(String value) {
+        String decomposed = Normalizer.normalize(value, Normalizer.Form.NFD);
+        StringBuilder stripped = new StringBuilder(decomposed.length());
+        for (int i = 0; i < decomposed.length(); i++) {
+            char c = decomposed.charAt(i);
+            if (Character.getType(c) != Character.NON_SPACING_MARK) {
+                stripped.append(c);
+            }
+        }
+
+        return stripped.toString();
+    }
+
+    private static boolean isAscii(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            if (value.charAt(i) > 0x7f) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static boolean isDigits(String token) {
+        for (int i = 0; i < token.length(); i++) {
+            char c = token.charAt(i);
+            if (c < '0' || c > '9') {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Gets the distinct trigrams of a digit string, each encoded as a number below 1000.
+     */
+    private static int[] trigramsOf(String digits) {
+        IntList grams = new IntList();
+        boolean[] seen = new boolean[1000];
+        for (int i = 0; i + 3 <= digits.length(); i++) {
+            char a = digits.charAt(i);
+            char b = digits.charAt(i + 1);
+            char c = digits.charAt(i + 2);
+            if (a == ' ' || b == ' ' || c == ' ') {
+                continue;
+            }
+
+            int gram = (a - '0') * 100 + (b - '0') * 10 + (c - '0');
+            if (!seen[gram]) {
+                seen[gram] = true;
+                grams.add(gram);
+            }
+        }
+
+        return grams.toArray();
+    }
+
+    private static final class Node {
+        private static final Node[] NO_CHILDREN = new Node[0];
+        private static final int[] NO_POSTINGS = new int[0];
+
+        private char[] label;
+        private Node[] children = NO_CHILDREN;
+        private int childCount = 0;
+        private int[] postings = NO_POSTINGS;
+        private int postingCount = 0;
+
+        Node(char[] label) {
+            this.label = label;
+        }
+
+        Node getChild(char c) {
+            for (int i = 0; i < childCount; i++) {
+                if (children[i].label[0] == c) {
+                    return children[i];
+                }
+            }
+
+            return null;
+        }
+
+        void addChild(Node child) {
+            if (childCount == children.length) {
+                children = Arrays.copyOf(children, Math.max(2, childCount * 2));
+            }
+
+            children[childCount++] = child;
+        }
+
+        void replaceChild(Node child, Node replacement) {
+            for (int i = 0; i < childCount; i++) {
+                if (children[i] == child) {
+                    children[i] = replacement;
+                    return;
+                }
+            }
+        }
+
+        void removeChild(Node child) {
+            for (int i = 0; i < childCount; i++) {
+                if (children[i] == child) {
+                    children[i] = children[--childCount];
+                    children[childCount] = null;
+                    return;
+                }
+            }
+        }
+
+        void addPosting(int posting) {
+            if (postingCount == postings.length) {
+                postings = Arrays.copyOf(postings, Math.max(2, postingCount * 2));
+            }
+
+            postings[postingCount++] = posting;
+        }
+
+        void removePosting(int posting) {
+            for (int i = 0; i < postingCount; i++) {
+                if (postings[i] == posting) {
+                    postings[i] = postings[--postingCount];
+                    return;
+                }
+            }
+        }
+    }
+
+    private static final class IntList {
+        private int[] values = new int[4];
+        private int size = 0;
+
+        void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+
+            values[size++] = value;
+        }
+
+        int get(int index) {
+            return values[index];
+        }
+
+        int size() {
+            return size;
+        }
+
+        int removeLast() {
+            return values[--size];
+        }
+
+        void removeValue(int value) {
+            for (int i = 0; i < size; i++) {
+                if (values[i] == value) {
+                    values[i] = values[--size];
+                    return;
+                }
+            }
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(values, size);
+        }
+    }
+}
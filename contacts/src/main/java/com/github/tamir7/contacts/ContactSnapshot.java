@@ -0,0 +1,521 @@
+/*
+ * Copyright 2016 Tamir Shomer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.tamir7.contacts;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A read only list of contacts, memory mapped from a snapshot file.
+ *
+ * Nothing is parsed up front: opening a snapshot only maps the file, and each contact is decoded
+ * from its fixed width record when it is accessed. Contacts are returned as new instances, so
+ * changing them does not change the snapshot.
+ *
+ * The file consists of a header, followed by these sections:
+ * contact records, an id index sorted by contact id, phone number, email, event, address and
+ * website records, the offsets of the string table, and the UTF-8 string data. Records refer to
+ * strings by their index in the string table, and to their phone numbers, emails, events,
+ * addresses and websites by a start index and a count in the matching section.
+ *
+ * @see SnapshotStore
+ */
+public final class ContactSnapshot extends AbstractList<Contact> {
+    private static final int MAGIC = 0x43534e50; // "CSNP"
+    private static final int VERSION = 1;
+    private static final int NULL = -1;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final int HEADER_BYTES = 48;
+    private static final int CONTACT_BYTES = 8 + 7 * 4 + 5 * 8;
+    private static final int ID_BYTES = 8 + 4;
+    private static final int PHONE_BYTES = 4 * 4;
+    private static final int EMAIL_BYTES = 3 * 4;
+    private static final int EVENT_BYTES = 3 * 4;
+    private static final int ADDRESS_BYTES = 8 * 4;
+    private static final int WEBSITE_BYTES = 4;
+
+    private final ByteBuffer buffer;
+    private final long timestamp;
+    private final String queryKey;
+    private final int contactCount;
+    private final int idsOffset;
+    private final int phonesOffset;
+    private final int emailsOffset;
+    private final int eventsOffset;
+    private final int addressesOffset;
+    private final int websitesOffset;
+    private final int stringOffsetsOffset;
+    private final int stringDataOffset;
+
+    private ContactSnapshot(ByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+        if (buffer.capacity() < HEADER_BYTES || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            throw new IOException("not a contact snapshot");
+        }
+
+        timestamp = buffer.getLong(8);
+        contactCount = buffer.getInt(16);
+        int phoneCount = buffer.getInt(20);
+        int emailCount = buffer.getInt(24);
+        int eventCount = buffer.getInt(28);
+        int addressCount = buffer.getInt(32);
+        int websiteCount = buffer.getInt(36);
+        int stringCount = buffer.getInt(40);
+        if (contactCount < 0 || phoneCount < 0 || emailCount < 0 || eventCount < 0 || addressCount < 0
+                || websiteCount < 0 || stringCount < 0) {
+            throw new IOException("corrupt contact snapshot");
+        }
+
+        // the sections are computed in longs, so huge counts can't overflow into valid offsets.
+        long ids = HEADER_BYTES + (long) contactCount * CONTACT_BYTES;
+        long phones = ids + (long) contactCount * ID_BYTES;
+        long emails = phones + (long) phoneCount * PHONE_BYTES;
+        long events = emails + (long) emailCount * EMAIL_BYTES;
+        long addresses = events + (long) eventCount * EVENT_BYTES;
+        long websites = addresses + (long) addressCount * ADDRESS_BYTES;
+        long stringOffsets = websites + (long) websiteCount * WEBSITE_BYTES;
+        long stringData = stringOffsets + (stringCount + 1L) * 4;
+        if (stringData > buffer.capacity()) {
+            throw new IOException("truncated contact snapshot");
+        }
+
+        idsOffset = (int) ids;
+        phonesOffset = (int) phones;
+        emailsOffset = (int) emails;
+        eventsOffset = (int) events;
+        addressesOffset = (int) addresses;
+        websitesOffset = (int) websites;
+        stringOffsetsOffset = (int) stringOffsets;
+        stringDataOffset = (int) stringData;
+
+        int stringDataLength = buffer.getInt(stringOffsetsOffset + stringCount * 4);
+        if (stringDataOffset + (long) stringDataLength != buffer.capacity()) {
+            throw new IOException("truncated contact snapshot");
+        }
+
+        int queryKeyIndex = buffer.getInt(44);
+        if (queryKeyIndex != NULL) {
+            if (queryKeyIndex < 0 || queryKeyIndex >= stringCount) {
+                throw new IOException("corrupt contact snapshot");
+            }
+
+            int start = buffer.getInt(stringOffsetsOffset + queryKeyIndex * 4);
+            int end = buffer.getInt(stringOffsetsOffset + queryKeyIndex * 4 + 4);
+            if (start < 0 || start > end || end > stringDataLength) {
+                throw new IOException("corrupt contact snapshot");
+            }
+        }
+
+        queryKey = getString(queryKeyIndex);
+    }
+
+    /**
+     * Maps a snapshot file.
+     *
+     * @param file  The snapshot file.
+     * @return The snapshot.
+     * @throws IOException if the file can't be read or is not a valid snapshot.
+     */
+    public static ContactSnapshot open(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            // the mapping stays valid after the channel is closed.
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new ContactSnapshot(buffer);
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Gets the time the contacts of this snapshot were read.
+     *
+     * @return The timestamp in milliseconds.
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    String getQueryKey() {
+        return queryKey;
+    }
+
+    @Override
+    public int size() {
+        return contactCount;
+    }
+
+    @Override
+    public Contact get(int index) {
+        if (index < 0 || index >= contactCount) {
+            throw new IndexOutOfBoundsException("index " + index + ", size " + contactCount);
+        }
+
+        int offset = HEADER_BYTES + index * CONTACT_BYTES;
+        Contact contact = new Contact();
+        long id = buffer.getLong(offset);
+        contact.setId(id == NULL ? null : id);
+        offset += 8;
+
+        contact.addDisplayName(getString(buffer.getInt(offset)));
+        contact.addGivenName(getString(buffer.getInt(offset + 4)));
+        contact.addFamilyName(getString(buffer.getInt(offset + 8)));
+        contact.addPhotoUri(getString(buffer.getInt(offset + 12)));
+        contact.addCompanyName(getString(buffer.getInt(offset + 16)));
+        contact.addCompanyTitle(getString(buffer.getInt(offset + 20)));
+        contact.addNote(getString(buffer.getInt(offset + 24)));
+        offset += 28;
+
+        int start = buffer.getInt(offset);
+        int end = start + buffer.getInt(offset + 4);
+        for (int i = start; i < end; i++) {
+            contact.addPhoneNumber(getPhoneNumber(phonesOffset + i * PHONE_BYTES));
+        }
+
+        start = buffer.getInt(offset + 8);
+        end = start + buffer.getInt(offset + 12);
+        for (int i = start; i < end; i++) {
+            contact.addEmail(getEmail(emailsOffset + i * EMAIL_BYTES));
+        }
+
+        start = buffer.getInt(offset + 16);
+        end = start + buffer.getInt(offset + 20);
+        for (int i = start; i < end; i++) {
+            contact.addEvent(getEvent(eventsOffset + i * EVENT_BYTES));
+        }
+
+        start = buffer.getInt(offset + 24);
+        end = start + buffer.getInt(offset + 28);
+        for (int i = start; i < end; i++) {
+            contact.addAddress(getAddress(addressesOffset + i * ADDRESS_BYTES));
+        }
+
+        start = buffer.getInt(offset + 32);
+        end = start + buffer.getInt(offset + 36);
+        for (int i = start; i < end; i++) {
+            contact.addWebsite(getString(buffer.getInt(websitesOffset + i * WEBSITE_BYTES)));
+        }
+
+        return contact;
+    }
+
+    /**
+     * Gets the contact with the given id, decoding only that contact.
+     *
+     * @param id    The contact id.
+     * @return The contact, or null if the snapshot doesn't contain it.
+     */
+    public Contact findById(long id) {
+        int low = 0;
+        int high = contactCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            long midId = buffer.getLong(idsOffset + mid * ID_BYTES);
+            if (midId < id) {
+                low = mid + 1;
+            } else if (midId > id) {
+                high = mid - 1;
+            } else {
+                return get(buffer.getInt(idsOffset + mid * ID_BYTES + 8));
+            }
+        }
+
+        return null;
+    }
+
+    private PhoneNumber getPhoneNumber(int offset) {
+        String number = getString(buffer.getInt(offset));
+        String normalizedNumber = getString(buffer.getInt(offset + 4));
+        PhoneNumber.Type type = PhoneNumber.Type.values()[buffer.getInt(offset + 8)];
+        if (type == PhoneNumber.Type.CUSTOM) {
+            return new PhoneNumber(number, getString(buffer.getInt(offset + 12)), normalizedNumber);
+        }
+
+        return new PhoneNumber(number, type, normalizedNumber);
+    }
+
+    private Email getEmail(int offset) {
+        String address = getString(buffer.getInt(offset));
+        Email.Type type = Email.Type.values()[buffer.getInt(offset + 4)];
+        if (type == Email.Type.CUSTOM) {
+            return new Email(address, getString(buffer.getInt(offset + 8)));
+        }
+
+        return new Email(address, type);
+    }
+
+    private Event getEvent(int offset) {
+        String startDate = getString(buffer.getInt(offset));
+        Event.Type type = Event.Type.values()[buffer.getInt(offset + 4)];
+        if (type == Event.Type.CUSTOM) {
+            return new Event(startDate, getString(buffer.getInt(offset + 8)));
+        }
+
+        return new Event(startDate, type);
+    }
+
+    private Address getAddress(int offset) {
+        String formattedAddress = getString(buffer.getInt(offset));
+        String street = getString(buffer.getInt(offset + 4));
+        String city = getString(buffer.getInt(offset + 8));
+        String region = getString(buffer.getInt(offset + 12));
+        String postcode = getString(buffer.getInt(offset + 16));
+        String country = getString(buffer.getInt(offset + 20));
+        Address.Type type = Address.Type.values()[buffer.getInt(offset + 24)];
+        if (type == Address.Type.CUSTOM) {
+            return new Address(formattedAddress, street, city, region, postcode, country,
+                    getString(buffer.getInt(offset + 28)));
+        }
+
+        return new Address(formattedAddress, street, city, region, postcode, country, type);
+    }
+
+    private String getString(int index) {
+        if (index == NULL) {
+            return null;
+        }
+
+        int start = buffer.getInt(stringOffsetsOffset + index * 4);
+        int end = buffer.getInt(stringOffsetsOffset + index * 4 + 4);
+        byte[] bytes = new byte[end - start];
+        // a duplicate keeps concurrent reads from sharing a position.
+        ByteBuffer data = buffer.duplicate();
+        data.position(stringDataOffset + start);
+        data.get(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    /**
+     * Writes a snapshot file. The file is replaced atomically, so snapshots mapped from the previous
+     * file stay readable.
+     *
+     * @param file      The snapshot file.
+     * @param contacts  The contacts of the snapshot, in the order they are returned.
+     * @param timestamp The time the contacts were read.
+     * @param queryKey  The canonical form of the query the contacts were read with.
+     * @throws IOException if the file can't be written.
+     */
+    static void write(File file, Collection<Contact> contacts, long timestamp, String queryKey)
+            throws IOException {
+        Writer writer = new Writer();
+        int queryKeyIndex = writer.strings.indexOf(queryKey);
+        for (Contact contact : contacts) {
+            writer.add(contact);
+        }
+
+        File tmp = new File(file.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(timestamp);
+            out.writeInt(writer.contacts.size() / (CONTACT_BYTES / 4));
+            out.writeInt(writer.phones.size() / (PHONE_BYTES / 4));
+            out.writeInt(writer.emails.size() / (EMAIL_BYTES / 4));
+            out.writeInt(writer.events.size() / (EVENT_BYTES / 4));
+            out.writeInt(writer.addresses.size() / (ADDRESS_BYTES / 4));
+            out.writeInt(writer.websites.size());
+            out.writeInt(writer.strings.size());
+            out.writeInt(queryKeyIndex);
+            writer.writeTo(out);
+        } finally {
+            out.close();
+        }
+
+        if (!tmp.renameTo(file)) {
+            tmp.delete();
+            throw new IOException("failed to replace " + file);
+        }
+    }
+
+    /**
+     * Lays out the sections of a snapshot. Contact records are kept as ints, with the 64 bit id
+     * split into its high and low half.
+     */
+    private static final class Writer {
+        private final StringTable strings = new StringTable();
+        private final IntList contacts = new IntList();
+        private final IntList phones = new IntList();
+        private final IntList emails = new IntList();
+        private final IntList events = new IntList();
+        private final IntList addresses = new IntList();
+        private final IntList websites = new IntList();
+        private final List<long[]> ids = new ArrayList<>();
+
+        void add(Contact contact) {
+            long id = contact.getId() == null ? NULL : contact.getId();
+            ids.add(new long[]{id, ids.size()});
+            contacts.add((int) (id >>> 32));
+            contacts.add((int) id);
+
+            contacts.add(strings.indexOf(contact.getDisplayName()));
+            contacts.add(strings.indexOf(contact.getGivenName()));
+            contacts.add(strings.indexOf(contact.getFamilyName()));
+            contacts.add(strings.indexOf(contact.getPhotoUri()));
+            contacts.add(strings.indexOf(contact.getCompanyName()));
+            contacts.add(strings.indexOf(contact.getCompanyTitle()));
+            contacts.add(strings.indexOf(contact.getNote()));
+
+            contacts.add(phones.size() / (PHONE_BYTES / 4));
+            contacts.add(contact.getPhoneNumbers().size());
+            for (PhoneNumber phoneNumber : contact.getPhoneNumbers()) {
+                phones.add(strings.indexOf(phoneNumber.getNumber()));
+                phones.add(strings.indexOf(phoneNumber.getNormalizedNumber()));
+                phones.add(phoneNumber.getType().ordinal());
+                phones.add(strings.indexOf(phoneNumber.getLabel()));
+            }
+
+            contacts.add(emails.size() / (EMAIL_BYTES / 4));
+            contacts.add(contact.getEmails().size());
+            for (Email email : contact.getEmails()) {
+                emails.add(strings.indexOf(email.getAddress()));
+                emails.add(email.getType().ordinal());
+                emails.add(strings.indexOf(email.getLabel()));
+            }
+
+            contacts.add(events.size() / (EVENT_BYTES / 4));
+            contacts.add(contact.getEvents().size());
+            for (Event event : contact.getEvents()) {
+                events.add(strings.indexOf(event.getStartDate()));
+                events.add(event.getType().ordinal());
+                events.add(strings.indexOf(event.getLabel()));
+            }
+
+            contacts.add(addresses.size() / (ADDRESS_BYTES / 4));
+            contacts.add(contact.getAddresses().size());
+            for (Address address : contact.getAddresses()) {
+                addresses.add(strings.indexOf(address.getFormattedAddress()));
+                addresses.add(strings.indexOf(address.getStreet()));
+                addresses.add(strings.indexOf(address.getCity()));
+                addresses.add(strings.indexOf(address.getRegion()));
+                addresses.add(strings.indexOf(address.getPostcode()));
+                addresses.add(strings.indexOf(address.getCountry()));
+                addresses.add(address.getType().ordinal());
+                addresses.add(strings.indexOf(address.getLabel()));
+            }
+
+            contacts.add(websites.size());
+            contacts.add(contact.getWebsites().size());
+            for (String website : contact.getWebsites()) {
+                websites.add(strings.indexOf(website));
+            }
+        }
+
+        void writeTo(DataOutputStream out) throws IOException {
+            contacts.writeTo(out);
+
+            long[][] index = ids.toArray(new long[ids.size()][]);
+            Arrays.sort(index, new Comparator<long[]>() {
+                @Override
+                public int compare(long[] lhs, long[] rhs) {
+                    return lhs[0] < rhs[0] ? -1 : (lhs[0] == rhs[0] ? 0 : 1);
+                }
+            });
+            for (long[] entry : index) {
+                out.writeLong(entry[0]);
+                out.writeInt((int) entry[1]);
+            }
+
+            phones.writeTo(out);
+            emails.writeTo(out);
+            events.writeTo(out);
+            addresses.writeTo(out);
+            websites.writeTo(out);
+            strings.writeTo(out);
+        }
+    }
+
+    /**
+     * Deduplicates strings, so repeated values like labels and cities are stored once.
+     */
+    private static final class StringTable {
+        private final Map<String, Integer> indices = new HashMap<>();
+        private final List<byte[]> values = new ArrayList<>();
+
+        int indexOf(String value) {
+            if (value == null) {
+                return NULL;
+            }
+
+            Integer index = indices.get(value);
+            if (index == null) {
+                index = values.size();
+                indices.put(value, index);
+                values.add(value.getBytes(UTF_8));
+            }
+
+            return index;
+        }
+
+        int size() {
+            return values.size();
+        }
+
+        void writeTo(DataOutputStream out) throws IOException {
+            int offset = 0;
+            out.writeInt(offset);
+            for (byte[] value : values) {
+                offset += value.length;
+                out.writeInt(offset);
+            }
+
+            for (byte[] value : values) {
+                out.write(value);
+            }
+        }
+    }
+
+    private static final class IntList {
+        private int[] values = new int[64];
+        private int size = 0;
+
+        void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+
+            values[size++] = value;
+        }
+
+        int size() {
+            return size;
+        }
+
+        void writeTo(DataOutputStream out) throws IOException {
+            for (int i = 0; i < size; i++) {
+                out.writeInt(values[i]);
+            }
+        }
+    }
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright 2016 Tamir Shomer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.tamir7.contacts;
+
+/**
+ * Thrown when the provider rejects a batch of writes. Batches applied before the failed one stay
+ * written, the contacts of the failed batch and all later ones are not written.
+ *
+ * @see Query#saveAll(java.util.Collection)
+ */
+public final class ContactWriteException extends RuntimeException {
+    private final int writtenContacts;
+
+    ContactWriteException(int writtenContacts, Throwable cause) {
+        super("failed to write contacts after " + writtenContacts + " were written", cause);
+        this.writtenContacts = writtenContacts;
+    }
+
+    /**
+     * Gets the number of contacts written before the failed batch, in the order they were given.
+     * It is also the last number reported to the {@link ProgressListener} of the write.
+     *
+     * @return The number of written contacts.
+     */
+    public int getWrittenContacts() {
+        return writtenContacts;
+    }
+}
@@ -18,9 +18,18 @@ package com.github.tamir7.contacts;
 
 import android.content.ContentResolver;
 import android.content.Context;
+import android.provider.ContactsContract;
+
+import java.util.concurrent.Executor;
 
 public final class Contacts {
+    // Few concurrent queries, the provider serves them on a small binder thread pool.
+    private static final int QUERY_THREADS = 2;
+
     private static ContentResolver cr;
+    private static Executor executor;
+    private static volatile QueryCache cache;
+    private static volatile QueryListener queryListener;
 
     private Contacts() {}
 
@@ -41,6 +50,11 @@ public final class Contacts {
         if (cr == null) exception();
     }
 
+    static ContentResolver getContentResolver() {
+        check();
+        return cr;
+    }
+
     /**
      * Get a new Query object to find contacts.
      *
@@ -50,4 +64,72 @@ public final class Contacts {
         check();
         return new Query(cr);
     }
+
+    /**
+     * Get the executor that runs background queries.
+     * It runs at most two queries at a time, so concurrent queries do not all compete for the
+     * contacts provider.
+     *
+     * @return The executor of the library.
+     */
+    public static synchronized Executor getExecutor() {
+        if (executor == null) {
+            executor = TaskRunner.createPool("Contacts-query", QUERY_THREADS);
+        }
+
+        return executor;
+    }
+
+    /**
+     * Enable caching of query results.
+     * Queries with the same constraints, included fields and paging return their cached result
+     * until the contacts provider reports a change, or the library writes contacts. Every caller
+     * gets its own copy of the cached contacts, which it may modify.
+     *
+     * @param maxEntries    The maximum number of cached results.
+     * @param maxBytes      The maximum estimated heap size of all cached results.
+     */
+    public static synchronized void enableCache(int maxEntries, long maxBytes) {
+        check();
+        disableCache();
+        cache = new QueryCache(maxEntries, maxBytes);
+        cr.registerContentObserver(ContactsContract.AUTHORITY_URI, true, cache.getObserver());
+    }
+
+    /**
+     * Disable caching of query results and drop all cached results.
+     */
+    public static synchronized void disableCache() {
+        if (cache != null) {
+            cr.unregisterContentObserver(cache.getObserver());
+            cache = null;
+        }
+    }
+
+    static QueryCache getCache() {
+        return cache;
+    }
+
+    /**
+     * Sets the cache of query results without observing the provider, e.g. for tests on a JVM.
+     *
+     * @param queryCache    The cache, or null to disable caching.
+     */
+    static synchronized void setCache(QueryCache queryCache) {
+        cache = queryCache;
+    }
+
+    /**
+     * Set the listener that receives the provider calls and phases of all queries.
+     *
+     * @param listener  The listener, or null to remove it.
+     * @see QueryStats
+     */
+    public static void setQueryListener(QueryListener listener) {
+        queryListener = listener;
+    }
+
+    static QueryListener getQueryListener() {
+        return queryListener;
+    }
 }
@@ -17,143 +17,175 @@
 package com.github.tamir7.contacts;
 
 import android.database.Cursor;
-import android.provider.ContactsContract;
 
+/**
+ * Maps the rows of a Data cursor to contact values.
+ *
+ * The column index of every {@link Contact.Field} is resolved once, when the helper is created,
+ * so a single helper should be created per cursor and reused for all of its rows.
+ */
 class CursorHelper {
+    private static final Contact.Field[] FIELDS = Contact.Field.values();
+
     private final Cursor c;
+    private final int[] columns = new int[FIELDS.length];
+    private final int mimeTypeColumn;
+    private final StringPool pool = new StringPool();
 
     CursorHelper(Cursor c) {
+        this(c, FieldPlan.ALL);
+    }
+
+    /**
+     * Creates a helper that only reads the fields included in the given plan, even if a column
+     * of another field is part of the cursor because a different mime type stores it.
+     */
+    CursorHelper(Cursor c, FieldPlan plan) {
         this.c = c;
+        for (Contact.Field field : FIELDS) {
+            columns[field.ordinal()] = plan.includes(field) ? c.getColumnIndex(field.getColumn()) : -1;
+        }
+
+        // the contact id is read for every row, whether it is included or not.
+        columns[Contact.Field.ContactId.ordinal()] = c.getColumnIndex(Contact.Field.ContactId.getColumn());
+        mimeTypeColumn = c.getColumnIndex(Contact.InternalField.MimeType.getColumn());
     }
 
-    Long getContactId() {
-        return getLong(c, ContactsContract.RawContacts.CONTACT_ID);
+    /**
+     * Gets the contact id of the current row. The contact id column must be part of the projection.
+     */
+    long getContactId() {
+        return c.getLong(columns[Contact.Field.ContactId.ordinal()]);
     }
 
     String getMimeType() {
-        return getString(c, ContactsContract.Data.MIMETYPE);
+        return mimeTypeColumn == -1 ? null : c.getString(mimeTypeColumn);
     }
 
     String getDisplayName() {
-        return getString(c, ContactsContract.Data.DISPLAY_NAME);
+        return getString(Contact.Field.DisplayName);
     }
 
     String getGivenName() {
-        return getString(c, ContactsContract.CommonDataKinds.StructuredName.GIVEN_NAME);
+        return getString(Contact.Field.GivenName);
     }
 
     String getFamilyName() {
-        return getString(c, ContactsContract.CommonDataKinds.StructuredName.FAMILY_NAME);
+        return getString(Contact.Field.FamilyName);
     }
 
     String getCompanyName() {
-        return getString(c, ContactsContract.CommonDataKinds.Organization.COMPANY);
+        return getPooledString(Contact.Field.CompanyName);
     }
 
     String getCompanyTitle() {
-        return getString(c, ContactsContract.CommonDataKinds.Organization.TITLE);
+        return getPooledString(Contact.Field.CompanyTitle);
     }
 
     String getWebsite() {
-        return getString(c, ContactsContract.CommonDataKinds.Website.URL);
+        return getString(Contact.Field.Website);
     }
 
     String getNote() {
-        return getString(c, ContactsContract.CommonDataKinds.Note.NOTE);
+        return getString(Contact.Field.Note);
     }
 
     Address getAddress() {
-        String address = getString(c, ContactsContract.CommonDataKinds.StructuredPostal.FORMATTED_ADDRESS);
+        String address = getString(Contact.Field.Address);
         if (address == null) {
             return null;
         }
 
-        Integer typeValue = getInt(c, ContactsContract.CommonDataKinds.StructuredPostal.TYPE);
+        Integer typeValue = getInt(Contact.Field.AddressType);
         Address.Type type = typeValue == null ? Address.Type.UNKNOWN : Address.Type.fromValue(typeValue);
 
-        String street = getString(c, ContactsContract.CommonDataKinds.StructuredPostal.STREET);
-        String city = getString(c, ContactsContract.CommonDataKinds.StructuredPostal.CITY);
-        String region = getString(c, ContactsContract.CommonDataKinds.StructuredPostal.REGION);
-        String postcode = getString(c, ContactsContract.CommonDataKinds.StructuredPostal.POSTCODE);
-        String country = getString(c, ContactsContract.CommonDataKinds.StructuredPostal.COUNTRY);
+        String street = getString(Contact.Field.AddressStreet);
+        String city = getPooledString(Contact.Field.AddressCity);
+        String region = getPooledString(Contact.Field.AddressRegion);
+        String postcode = getString(Contact.Field.AddressPostcode);
+        String country = getPooledString(Contact.Field.AddressCountry);
 
         if (!type.equals(Address.Type.CUSTOM)) {
             return new Address(address, street, city, region, postcode, country, type);
         }
 
-        String label = getString(c, ContactsContract.CommonDataKinds.StructuredPostal.LABEL);
+        String label = getPooledString(Contact.Field.AddressLabel);
         return new Address(address, street, city, region, postcode, country, label);
     }
 
     PhoneNumber getPhoneNumber() {
-        String number = getString(c, ContactsContract.CommonDataKinds.Phone.NUMBER);
+        String number = getString(Contact.Field.PhoneNumber);
         if (number == null) {
             return null;
         }
 
-        String normalizedNumber = null;
-        if (android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.JELLY_BEAN) {
-            normalizedNumber = getString(c, ContactsContract.CommonDataKinds.Phone.NORMALIZED_NUMBER);
-        }
+        String normalizedNumber = getString(Contact.Field.PhoneNormalizedNumber);
 
-        Integer typeValue = getInt(c, ContactsContract.CommonDataKinds.Phone.TYPE);
+        Integer typeValue = getInt(Contact.Field.PhoneType);
         PhoneNumber.Type type = typeValue == null ? PhoneNumber.Type.UNKNOWN :
                 PhoneNumber.Type.fromValue(typeValue);
         if (!type.equals(PhoneNumber.Type.CUSTOM)) {
             return new PhoneNumber(number, type, normalizedNumber);
         }
 
-        return new PhoneNumber(number,
-                getString(c, ContactsContract.CommonDataKinds.Phone.LABEL), normalizedNumber);
+        return new PhoneNumber(number, getPooledString(Contact.Field.PhoneLabel), normalizedNumber);
     }
 
     Email getEmail() {
-        String address = getString(c, ContactsContract.CommonDataKinds.Email.ADDRESS);
+        String address = getString(Contact.Field.Email);
         if (address == null) {
             return null;
         }
 
-        Integer typeValue = getInt(c, ContactsContract.CommonDataKinds.Email.TYPE);
+        Integer typeValue = getInt(Contact.Field.EmailType);
         Email.Type type = typeValue == null ? Email.Type.UNKNOWN : Email.Type.fromValue(typeValue);
         if (!type.equals(Email.Type.CUSTOM)) {
             return new Email(address, type);
         }
 
-        return new Email(address, getString(c, ContactsContract.CommonDataKinds.Email.LABEL));
+        return new Email(address, getPooledString(Contact.Field.EmailLabel));
     }
 
     String getPhotoUri() {
-        return getString(c, ContactsContract.Data.PHOTO_URI);
+        return getString(Contact.Field.PhotoUri);
     }
 
 
     Event getEvent() {
-        String startDate = getString(c, ContactsContract.CommonDataKinds.Event.START_DATE);
+        String startDate = getString(Contact.Field.EventStartDate);
         if (startDate == null) {
             return null;
         }
 
-        Integer typeValue = getInt(c, ContactsContract.CommonDataKinds.Event.TYPE);
+        Integer typeValue = getInt(Contact.Field.EventType);
         Event.Type type = typeValue ==  null ? Event.Type.UNKNOWN : Event.Type.fromValue(typeValue);
         if (!type.equals(Event.Type.CUSTOM)) {
             return new Event(startDate, type);
         }
 
-        return new Event(startDate, getString(c, ContactsContract.CommonDataKinds.Event.LABEL));
+        return new Event(startDate, getPooledString(Contact.Field.EventLabel));
     }
 
-    private String getString(Cursor c, String column) {
-        int index = c.getColumnIndex(column);
+    String getString(Contact.Field field) {
+        int index = columns[field.ordinal()];
         return index == -1 ? null : c.getString(index);
     }
 
-    private Integer getInt(Cursor c, String column) {
-        int index = c.getColumnIndex(column);
+    /**
+     * Gets a string that typically repeats across contacts, like a label or a city, sharing equal
+     * values between the contacts of this cursor.
+     */
+    String getPooledString(Contact.Field field) {
+        return pool.intern(getString(field));
+    }
+
+    Integer getInt(Contact.Field field) {
+        int index = columns[field.ordinal()];
         return index == -1 ? null : c.getInt(index);
     }
 
-    private  Long getLong(Cursor c, String column) {
-        int index = c.getColumnIndex(column);
+    Long getLong(Contact.Field field) {
+        int index = columns[field.ordinal()];
         return index == -1 ? null : c.getLong(index);
     }
 }
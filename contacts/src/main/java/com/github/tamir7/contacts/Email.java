@@ -51,6 +51,21 @@ public class Email {
                     return UNKNOWN;
             }
         }
+
+        static int fromType(Type type) {
+            switch (type) {
+                case HOME:
+                    return ContactsContract.CommonDataKinds.Email.TYPE_HOME;
+                case WORK:
+                    return ContactsContract.CommonDataKinds.Email.TYPE_WORK;
+                case OTHER:
+                    return ContactsContract.CommonDataKinds.Email.TYPE_OTHER;
+                case MOBILE:
+                    return ContactsContract.CommonDataKinds.Email.TYPE_MOBILE;
+                default:
+                    return ContactsContract.CommonDataKinds.Email.TYPE_CUSTOM;
+            }
+        }
     }
 
     Email(String address, Type type) {
@@ -48,6 +48,19 @@ public class Event {
                     return UNKNOWN;
             }
         }
+
+        static int fromType(Type type) {
+            switch (type) {
+                case ANNIVERSARY:
+                    return ContactsContract.CommonDataKinds.Event.TYPE_ANNIVERSARY;
+                case OTHER:
+                    return ContactsContract.CommonDataKinds.Event.TYPE_OTHER;
+                case BIRTHDAY:
+                    return ContactsContract.CommonDataKinds.Event.TYPE_BIRTHDAY;
+                default:
+                    return ContactsContract.CommonDataKinds.Event.TYPE_CUSTOM;
+            }
+        }
     }
 
     Event(String startDate, Type type) {
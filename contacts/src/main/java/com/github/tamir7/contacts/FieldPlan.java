@@ -0,0 +1,119 @@
+/*
+ * Copyright 2016 Tamir Shomer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.tamir7.contacts;
+
+import android.os.Build;
+import android.provider.ContactsContract;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The columns and mime types a query reads for a set of included fields.
+ *
+ * A plan is computed once per distinct set of fields and shared by all queries that include the
+ * same fields. Data columns shared by different mime types are projected once, and a
+ * {@link CursorHelper} created for a plan only reads the columns of the included fields.
+ */
+final class FieldPlan {
+    private static final ConcurrentHashMap<Long, FieldPlan> PLANS = new ConcurrentHashMap<>();
+
+    static final FieldPlan ALL = of(EnumSet.allOf(Contact.Field.class));
+
+    private final long mask;
+    private final String[] projection;
+    private final Where mimeWhere;
+
+    private FieldPlan(long mask) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
+            // the column doesn't exist before Jelly Bean.
+            mask &= ~bit(Contact.Field.PhoneNormalizedNumber);
+        }
+
+        this.mask = mask;
+
+        Set<String> columns = new LinkedHashSet<>();
+        columns.add(Contact.Field.ContactId.getColumn());
+        columns.add(Contact.InternalField.MimeType.getColumn());
+        Set<String> mimeTypes = new TreeSet<>();
+        for (Contact.Field field : Contact.Field.values()) {
+            if (includes(field)) {
+                columns.add(field.getColumn());
+                if (field.getMimeType() != null) {
+                    mimeTypes.add(field.getMimeType());
+                }
+            }
+        }
+
+        projection = columns.toArray(new String[columns.size()]);
+        // without data fields every row carries the included contact fields, so no row is filtered.
+        mimeWhere = mimeTypes.isEmpty() ? null
+                : Where.in(ContactsContract.Data.MIMETYPE, new ArrayList<Object>(mimeTypes));
+    }
+
+    /**
+     * Gets the plan of the given fields.
+     *
+     * @param fields    The included fields.
+     * @return The shared plan.
+     */
+    static FieldPlan of(Set<Contact.Field> fields) {
+        long mask = 0;
+        for (Contact.Field field : fields) {
+            mask |= bit(field);
+        }
+
+        FieldPlan plan = PLANS.get(mask);
+        if (plan == null) {
+            plan = new FieldPlan(mask);
+            FieldPlan existing = PLANS.putIfAbsent(mask, plan);
+            if (existing != null) {
+                plan = existing;
+            }
+        }
+
+        return plan;
+    }
+
+    boolean includes(Contact.Field field) {
+        return (mask & bit(field)) != 0;
+    }
+
+    /**
+     * Gets the columns to project. The returned array is shared and must not be modified.
+     */
+    String[] getProjection() {
+        return projection;
+    }
+
+    /**
+     * Gets the selection of the rows of the included mime types.
+     *
+     * @return The selection, or null if rows of all mime types are needed.
+     */
+    Where getMimeWhere() {
+        return mimeWhere;
+    }
+
+    private static long bit(Contact.Field field) {
+        // Contact.Field has fewer than 64 values.
+        return 1L << field.ordinal();
+    }
+}
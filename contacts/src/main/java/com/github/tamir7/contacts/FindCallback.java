@@ -0,0 +1,34 @@
+/*
+ * Copyright 2016 Tamir Shomer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.tamir7.contacts;
+
+import java.util.List;
+
+/**
+ * Receives the result of a query that runs in the background.
+ *
+ * @see Query#findAsync(FindCallback)
+ */
+public interface FindCallback {
+
+    /**
+     * Called when the query completed. Called on the thread that ran the query.
+     *
+     * @param contacts  The found contacts, or null if the query failed.
+     * @param e         The exception the query failed with, or null if it succeeded.
+     */
+    void done(List<Contact> contacts, Exception e);
+}
@@ -0,0 +1,232 @@
+/*
+ * Copyright 2016 Tamir Shomer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.tamir7.contacts;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * An immutable set of contact ids, stored as a sorted array of unique primitive longs.
+ *
+ * Unions and intersections merge the sorted arrays in linear time without boxing.
+ */
+final class IdSet {
+    static final IdSet EMPTY = new IdSet(new long[0], 0);
+
+    private final long[] ids;
+    private final int size;
+
+    private IdSet(long[] ids, int size) {
+        this.ids = ids;
+        this.size = size;
+    }
+
+    static IdSet of(Collection<Long> ids) {
+        Builder builder = new Builder(ids.size());
+        for (Long id : ids) {
+            builder.add(id);
+        }
+
+        return builder.build();
+    }
+
+    static IdSet of(long... ids) {
+        Builder builder = new Builder(ids.length);
+        for (long id : ids) {
+            builder.add(id);
+        }
+
+        return builder.build();
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    long get(int index) {
+        if (index >= size) {
+            throw new IndexOutOfBoundsException("index " + index + " size " + size);
+        }
+
+        return ids[index];
+    }
+
+    boolean contains(long id) {
+        return Arrays.binarySearch(ids, 0, size, id) >= 0;
+    }
+
+    /**
+     * Gets the ids between from, inclusive, and to, exclusive.
+     */
+    IdSet slice(int from, int to) {
+        return new IdSet(Arrays.copyOfRange(ids, from, to), to - from);
+    }
+
+    IdSet union(IdSet other) {
+        if (other.isEmpty()) {
+            return this;
+        } else if (isEmpty()) {
+            return other;
+        }
+
+        long[] result = new long[size + other.size];
+        int i = 0, j = 0, k = 0;
+        while (i < size && j < other.size) {
+            long a = ids[i];
+            long b = other.ids[j];
+            if (a < b) {
+                result[k++] = a;
+                i++;
+            } else if (b < a) {
+                result[k++] = b;
+                j++;
+            } else {
+                result[k++] = a;
+                i++;
+                j++;
+            }
+        }
+
+        while (i < size) {
+            result[k++] = ids[i++];
+        }
+
+        while (j < other.size) {
+            result[k++] = other.ids[j++];
+        }
+
+        return new IdSet(result, k);
+    }
+
+    IdSet intersect(IdSet other) {
+        long[] result = new long[Math.min(size, other.size)];
+        int i = 0, j = 0, k = 0;
+        while (i < size && j < other.size) {
+            long a = ids[i];
+            long b = other.ids[j];
+            if (a < b) {
+                i++;
+            } else if (b < a) {
+                j++;
+            } else {
+                result[k++] = a;
+                i++;
+                j++;
+            }
+        }
+
+        return new IdSet(result, k);
+    }
+
+    /**
+     * Appends the ids as a comma separated list.
+     */
+    void appendTo(StringBuilder builder) {
+        for (int i = 0; i < size; i++) {
+            if (i > 0) {
+                builder.append(", ");
+            }
+
+            builder.append(ids[i]);
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        IdSet that = (IdSet) o;
+        if (size != that.size) {
+            return false;
+        }
+
+        for (int i = 0; i < size; i++) {
+            if (ids[i] != that.ids[i]) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = 1;
+        for (int i = 0; i < size; i++) {
+            long id = ids[i];
+            result = 31 * result + (int) (id ^ (id >>> 32));
+        }
+
+        return result;
+    }
+
+    /**
+     * Collects ids in any order, with duplicates. A builder can only be built once.
+     */
+    static final class Builder {
+        private long[] ids;
+        private int size = 0;
+        private boolean sorted = true;
+
+        Builder() {
+            this(16);
+        }
+
+        Builder(int capacity) {
+            ids = new long[Math.max(capacity, 1)];
+        }
+
+        Builder add(long id) {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+            }
+
+            if (size > 0 && id < ids[size - 1]) {
+                sorted = false;
+            }
+
+            ids[size++] = id;
+            return this;
+        }
+
+        IdSet build() {
+            if (size == 0) {
+                return EMPTY;
+            }
+
+            // ids read from a cursor sorted by contact id are already in order.
+            if (!sorted) {
+                Arrays.sort(ids, 0, size);
+            }
+
+            int unique = 1;
+            for (int i = 1; i < size; i++) {
+                if (ids[i] != ids[unique - 1]) {
+                    ids[unique++] = ids[i];
+                }
+            }
+
+            IdSet set = new IdSet(ids, unique);
+            ids = null;
+            return set;
+        }
+    }
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright 2016 Tamir Shomer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.tamir7.contacts;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+
+/**
+ * Executes provider queries that are restricted to a large set of contact ids.
+ *
+ * Rendering tens of thousands of ids into a single IN list runs into SQLite statement length
+ * limits and is expensive to build and parse. The ids are split into chunks that are queried
+ * concurrently, and the sorted partial results are merged back into one sorted list.
+ */
+final class IdSetExecutor {
+    static final int CHUNK_SIZE = 500;
+
+    interface ChunkQuery<T> {
+
+        /**
+         * Queries the results for one chunk of ids.
+         *
+         * @param ids   The chunk of ids.
+         * @return The results of the chunk, sorted by the order of the executor.
+         */
+        List<T> query(IdSet ids);
+    }
+
+    interface IdChunkQuery {
+
+        /**
+         * Queries the matching ids of one chunk of ids.
+         *
+         * @param ids   The chunk of ids.
+         * @return The matching ids of the chunk.
+         */
+        IdSet query(IdSet ids);
+    }
+
+    private IdSetExecutor() {}
+
+    /**
+     * Queries all ids in chunks and merges the results.
+     *
+     * @param ids           The ids to query.
+     * @param chunkQuery    Queries a single chunk.
+     * @param order         The order of the results of every chunk and of the merged result.
+     * @param limit         The maximum number of results to return, or a negative number for all.
+     * @return The merged results.
+     */
+    static <T> List<T> execute(IdSet ids, ChunkQuery<T> chunkQuery, Comparator<? super T> order,
+                               int limit) {
+        if (ids.size() <= CHUNK_SIZE) {
+            return truncate(chunkQuery.query(ids), limit);
+        }
+
+        return merge(invokeAll(ids, chunkQuery), order, limit);
+    }
+
+    /**
+     * Queries all ids in chunks and concatenates the results, in the order of the chunks.
+     *
+     * @param ids           The ids to query.
+     * @param chunkQuery    Queries a single chunk.
+     * @return The results of all chunks.
+     */
+    static <T> List<T> executeAll(IdSet ids, ChunkQuery<T> chunkQuery) {
+        List<T> results = new ArrayList<>();
+        for (List<T> part : invokeAll(ids, chunkQuery)) {
+            results.addAll(part);
+        }
+
+        return results;
+    }
+
+    /**
+     * Queries all ids in chunks and unites the matching ids.
+     *
+     * @param ids           The ids to query.
+     * @param chunkQuery    Queries a single chunk.
+     * @return The matching ids of all chunks.
+     */
+    static IdSet executeIds(IdSet ids, final IdChunkQuery chunkQuery) {
+        if (ids.size() <= CHUNK_SIZE) {
+            return chunkQuery.query(ids);
+        }
+
+        List<Callable<IdSet>> tasks = new ArrayList<>();
+        for (int start = 0; start < ids.size(); start += CHUNK_SIZE) {
+            final IdSet chunk = ids.slice(start, Math.min(start + CHUNK_SIZE, ids.size()));
+            tasks.add(new Callable<IdSet>() {
+                @Override
+                public IdSet call() {
+                    return chunkQuery.query(chunk);
+                }
+            });
+        }
+
+        IdSet result = IdSet.EMPTY;
+        for (IdSet part : TaskRunner.invokeAll(tasks, TaskRunner.MAX_PARALLELISM)) {
+            result = result.union(part);
+        }
+
+        return result;
+    }
+
+    private static <T> List<List<T>> invokeAll(IdSet ids, final ChunkQuery<T> chunkQuery) {
+        if (ids.size() <= CHUNK_SIZE) {
+            return Collections.singletonList(chunkQuery.query(ids));
+        }
+
+        List<Callable<List<T>>> tasks = new ArrayList<>();
+        for (int start = 0; start < ids.size(); start += CHUNK_SIZE) {
+            final IdSet chunk = ids.slice(start, Math.min(start + CHUNK_SIZE, ids.size()));
+            tasks.add(new Callable<List<T>>() {
+                @Override
+                public List<T> call() {
+                    return chunkQuery.query(chunk);
+                }
+            });
+        }
+
+        return TaskRunner.invokeAll(tasks, TaskRunner.MAX_PARALLELISM);
+    }
+
+    private static <T> List<T> merge(List<List<T>> parts, final Comparator<? super T> order, int limit) {
+        int size = 0;
+        for (List<T> part : parts) {
+            size += part.size();
+        }
+
+        if (limit >= 0) {
+            size = Math.min(size, limit);
+        }
+
+        List<T> merged = new ArrayList<>(size);
+        PriorityQueue<Head<T>> heads = new PriorityQueue<>(Math.max(1, parts.size()), new Comparator<Head<T>>() {
+            @Override
+            public int compare(Head<T> lhs, Head<T> rhs) {
+                return order.compare(lhs.value, rhs.value);
+            }
+        });
+
+        for (List<T> part : parts) {
+            if (!part.isEmpty()) {
+                heads.add(new Head<>(part));
+            }
+        }
+
+        while (merged.size() < size) {
+            Head<T> head = heads.poll();
+            merged.add(head.value);
+            if (head.advance()) {
+                heads.add(head);
+            }
+        }
+
+        return merged;
+    }
+
+    private static <T> List<T> truncate(List<T> list, int limit) {
+        return limit < 0 || list.size() <= limit ? list : new ArrayList<>(list.subList(0, limit));
+    }
+
+    private static final class Head<T> {
+        private final List<T> part;
+        private int index = 0;
+        private T value;
+
+        Head(List<T> part) {
+            this.part = part;
+            this.value = part.get(0);
+        }
+
+        boolean advance() {
+            if (++index == part.size()) {
+                return false;
+            }
+
+            value = part.get(index);
+            return true;
+        }
+    }
+}
@@ -0,0 +1,509 @@
+/*
+ * Copyright 2016 Tamir Shomer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.tamir7.contacts;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.provider.ContactsContract;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Resolves phone numbers to contacts, for caller id like workloads.
+ *
+ * Numbers are keyed by all of their digits, and by their last {@link #SUFFIX_DIGITS} digits, so
+ * a number matches regardless of its formatting and of a missing country or area code. A match of
+ * the last digits only counts if the digits of the shorter number, without leading zeros, end the
+ * longer one: "0151 1234567" matches "+49 151 1234567", "+1 555 1234567" doesn't. The keys are kept
+ * in primitive hash tables: a lookup parses the digits of the number in place and costs up to three
+ * table probes, without allocating.
+ *
+ * Numbers that are not in the index are looked up with {@link ContactsContract.PhoneLookup},
+ * which applies the matching rules of the provider. Numbers the provider doesn't know either are
+ * remembered in a fixed size negative cache, so repeated unknown callers don't query the
+ * provider again.
+ */
+public final class PhoneNumberLookup {
+    /**
+     * The number of trailing digits that identify a number without its country or area code.
+     */
+    public static final int SUFFIX_DIGITS = 7;
+
+    /**
+     * Returned by {@link #lookup(CharSequence)} if no contact has the number.
+     */
+    public static final long NOT_FOUND = -1;
+
+    private static final long AMBIGUOUS = -2;
+    private static final int MAX_DIGITS = 17;
+    private static final int NEGATIVE_CACHE_SIZE = 1024;
+
+    private final ContentResolver cr;
+    private final LongMap numbers = new LongMap();
+    private final LongMap suffixes = new LongMap();
+    // the key of the longest number with a suffix, to verify the other digits of suffix matches.
+    private final LongMap suffixNumbers = new LongMap();
+    // the keys added for each contact, so removing a contact doesn't scan the tables.
+    private final Map<Long, LongList> contactNumbers = new HashMap<>();
+    private final Map<Long, LongList> contactSuffixes = new HashMap<>();
+    private final long[] negativeCache = new long[NEGATIVE_CACHE_SIZE];
+
+    private long hits = 0;
+    private long suffixHits = 0;
+    private long providerHits = 0;
+    private long negativeHits = 0;
+    private long misses = 0;
+
+    /**
+     * Creates a lookup of the phone numbers of the given contacts.
+     *
+     * @param contacts  The contacts to index, typically the result of a {@link Query} that
+     *                  includes {@link Contact.Field#PhoneNumber} and
+     *                  {@link Contact.Field#PhoneNormalizedNumber}.
+     */
+    public PhoneNumberLookup(Collection<Contact> contacts) {
+        cr = Contacts.getContentResolver();
+        for (Contact contact : contacts) {
+            add(contact);
+        }
+
+        clearNegativeCache();
+    }
+
+    /**
+     * Adds the phone numbers of a contact. Unknown numbers remembered so far are forgotten, as the
+     * contact may have one of them.
+     *
+     * @param contact   The contact to add. It must have an id.
+     */
+    public synchronized void add(Contact contact) {
+        if (contact.getId() == null) {
+            throw new IllegalArgumentException("contact has no id");
+        }
+
+        for (PhoneNumber phoneNumber : contact.getPhoneNumbers()) {
+            add(phoneNumber.getNumber(), contact.getId());
+            add(phoneNumber.getNormalizedNumber(), contact.getId());
+        }
+
+        clearNegativeCache();
+    }
+
+    /**
+     * Removes the phone numbers of a contact, including the numbers the provider resolved to it.
+     * If the contact shared the last digits of a number with another contact, these digits stay
+     * ambiguous, and such numbers are resolved by the provider.
+     *
+     * @param contact   The contact to remove. It must have an id.
+     */
+    public synchronized void remove(Contact contact) {
+        if (contact.getId() == null) {
+            throw new IllegalArgumentException("contact has no id");
+        }
+
+        long id = contact.getId();
+        LongList keys = contactNumbers.remove(id);
+        for (int i = 0; keys != null && i < keys.size(); i++) {
+            // the key may have been resolved to another contact since.
+            if (numbers.get(keys.get(i)) == id) {
+                numbers.remove(keys.get(i));
+            }
+        }
+
+        LongList suffixKeys = contactSuffixes.remove(id);
+        for (int i = 0; suffixKeys != null && i < suffixKeys.size(); i++) {
+            if (suffixes.get(suffixKeys.get(i)) == id) {
+                suffixes.remove(suffixKeys.get(i));
+                suffixNumbers.remove(suffixKeys.get(i));
+            }
+        }
+    }
+
+    /**
+     * Replaces the phone numbers of a contact with its current ones, e.g. after it was edited.
+     *
+     * @param contact   The contact to update. It must have an id.
+     */
+    public synchronized void update(Contact contact) {
+        remove(contact);
+        add(contact);
+    }
+
+    /**
+     * Finds the contact that has the given phone number.
+     *
+     * @param number    The phone number, in any format.
+     * @return The id of the contact, or {@link #NOT_FOUND}.
+     */
+    public long lookup(CharSequence number) {
+        long key = numberKey(number);
+        long suffix = suffixKey(number);
+
+        synchronized (this) {
+            if (key == NOT_FOUND && suffix == NOT_FOUND) {
+                // no usable digits, e.g. an empty or withheld number.
+                misses++;
+                return NOT_FOUND;
+            }
+
+            if (key != NOT_FOUND) {
+                long id = numbers.get(key);
+                if (id >= 0) {
+                    hits++;
+                    return id;
+                }
+            }
+
+            if (key != NOT_FOUND && suffix != NOT_FOUND) {
+                long id = suffixes.get(suffix);
+                if (id >= 0 && sameNumber(key, suffixNumbers.get(suffix))) {
+                    suffixHits++;
+                    return id;
+                }
+            }
+
+            if (key != NOT_FOUND && negativeCache[negativeIndex(key)] == key) {
+                negativeHits++;
+                return NOT_FOUND;
+            }
+        }
+
+        long id = lookupProvider(number.toString());
+
+        synchronized (this) {
+            if (id == NOT_FOUND) {
+                misses++;
+                if (key != NOT_FOUND) {
+                    negativeCache[negativeIndex(key)] = key;
+                }
+            } else {
+                providerHits++;
+                if (key != NOT_FOUND) {
+                    putNumber(key, id);
+                }
+            }
+        }
+
+        return id;
+    }
+
+    /**
+     * Forgets the numbers that were not found, e.g. after contacts were added outside of this
+     * lookup.
+     */
+    public synchronized void clearNegativeCache() {
+        for (int i = 0; i < negativeCache.length; i++) {
+            negativeCache[i] = NOT_FOUND;
+        }
+    }
+
+    /**
+     * Gets the number of lookups that matched all digits of an indexed number.
+     *
+     * @return The number of exact hits.
+     */
+    public synchronized long getHitCount() {
+        return hits;
+    }
+
+    /**
+     * Gets the number of lookups that matched the trailing digits of an indexed number, and were
+     * a shorter or longer form of it.
+     *
+     * @return The number of suffix hits.
+     */
+    public synchronized long getSuffixHitCount() {
+        return suffixHits;
+    }
+
+    /**
+     * Gets the number of lookups that were resolved by the provider.
+     *
+     * @return The number of provider hits.
+     */
+    public synchronized long getProviderHitCount() {
+        return providerHits;
+    }
+
+    /**
+     * Gets the number of lookups that were answered by the negative cache.
+     *
+     * @return The number of negative cache hits.
+     */
+    public synchronized long getNegativeCacheHitCount() {
+        return negativeHits;
+    }
+
+    /**
+     * Gets the number of lookups that found no contact, after querying the provider.
+     *
+     * @return The number of misses.
+     */
+    public synchronized long getMissCount() {
+        return misses;
+    }
+
+    private void add(String number, long id) {
+        if (number == null) {
+            return;
+        }
+
+        long key = numberKey(number);
+        if (key != NOT_FOUND) {
+            putNumber(key, id);
+        }
+
+        long suffix = suffixKey(number);
+        if (suffix != NOT_FOUND) {
+            long previous = suffixes.get(suffix);
+            // a suffix shared by numbers of different contacts identifies neither of them.
+            if (previous == NOT_FOUND) {
+                keysOf(contactSuffixes, id).add(suffix);
+            }
+
+            suffixes.put(suffix, previous == NOT_FOUND || previous == id ? id : AMBIGUOUS);
+            if (key != NOT_FOUND && key / 32 > suffixNumbers.get(suffix) / 32) {
+                suffixNumbers.put(suffix, key);
+            }
+        }
+    }
+
+    private void putNumber(long key, long id) {
+        if (numbers.get(key) != id) {
+            numbers.put(key, id);
+            keysOf(contactNumbers, id).add(key);
+        }
+    }
+
+    private static LongList keysOf(Map<Long, LongList> contactKeys, long id) {
+        LongList keys = contactKeys.get(id);
+        if (keys == null) {
+            keys = new LongList();
+            contactKeys.put(id, keys);
+        }
+
+        return keys;
+    }
+
+    private long lookupProvider(String number) {
+        Uri uri = Uri.withAppendedPath(ContactsContract.PhoneLookup.CONTENT_FILTER_URI, Uri.encode(number));
+        Cursor c;
+        long start = QuerySpan.beginCall();
+        try {
+            c = cr.query(uri, new String[]{ContactsContract.PhoneLookup._ID}, null, null, null);
+        } finally {
+            QuerySpan.endCall(uri, null, start);
+        }
+
+        if (c == null) {
+            return NOT_FOUND;
+        }
+
+        try {
+            return c.moveToFirst() ? c.getLong(0) : NOT_FOUND;
+        } finally {
+            c.close();
+        }
+    }
+
+    /**
+     * Encodes all digits of a number and their count, so numbers with leading zeros stay distinct.
+     *
+     * @return The key, or {@link #NOT_FOUND} if the number has no digits or too many of them.
+     */
+    private static long numberKey(CharSequence number) {
+        long value = 0;
+        int digits = 0;
+        for (int i = 0; i < number.length(); i++) {
+            char c = number.charAt(i);
+            if (c >= '0' && c <= '9') {
+                if (++digits > MAX_DIGITS) {
+                    return NOT_FOUND;
+                }
+
+                value = value * 10 + (c - '0');
+            }
+        }
+
+        return digits == 0 ? NOT_FOUND : value * 32 + digits;
+    }
+
+    /**
+     * Encodes the last {@link #SUFFIX_DIGITS} digits of a number.
+     *
+     * @return The key, or {@link #NOT_FOUND} if the number has fewer digits.
+     */
+    private static long suffixKey(CharSequence number) {
+        long value = 0;
+        long scale = 1;
+        int digits = 0;
+        for (int i = number.length() - 1; i >= 0 && digits < SUFFIX_DIGITS; i--) {
+            char c = number.charAt(i);
+            if (c >= '0' && c <= '9') {
+                value += (c - '0') * scale;
+                scale *= 10;
+                digits++;
+            }
+        }
+
+        return digits < SUFFIX_DIGITS ? NOT_FOUND : value;
+    }
+
+    /**
+     * Checks whether two number keys may be forms of the same number: the digits of the shorter
+     * one, without leading zeros like a trunk prefix, are the last digits of the longer one.
+     */
+    private static boolean sameNumber(long key, long other) {
+        if (key == NOT_FOUND || other == NOT_FOUND) {
+            return false;
+        }
+
+        // the value of a key drops leading zeros, so the shorter number has the smaller value.
+        long shorter = Math.min(key / 32, other / 32);
+        long longer = Math.max(key / 32, other / 32);
+        long scale = 1;
+        while (scale <= shorter) {
+            scale *= 10;
+        }
+
+        return longer % scale == shorter;
+    }
+
+    private static int negativeIndex(long key) {
+        return (int) (LongMap.mix(key) & (NEGATIVE_CACHE_SIZE - 1));
+    }
+
+    /**
+     * An open addressing hash table from non negative long keys to long values.
+     */
+    private static final class LongMap {
+        private static final long EMPTY = -1;
+
+        private long[] keys = newKeys(64);
+        private long[] values = new long[64];
+        private int size = 0;
+
+        long get(long key) {
+            int mask = keys.length - 1;
+            for (int i = (int) (mix(key) & mask); ; i = (i + 1) & mask) {
+                if (keys[i] == key) {
+                    return values[i];
+                } else if (keys[i] == EMPTY) {
+                    return NOT_FOUND;
+                }
+            }
+        }
+
+        void put(long key, long value) {
+            int mask = keys.length - 1;
+            for (int i = (int) (mix(key) & mask); ; i = (i + 1) & mask) {
+                if (keys[i] == key) {
+                    values[i] = value;
+                    return;
+                } else if (keys[i] == EMPTY) {
+                    keys[i] = key;
+                    values[i] = value;
+                    if (++size * 2 > keys.length) {
+                        grow();
+                    }
+
+                    return;
+                }
+            }
+        }
+
+        void remove(long key) {
+            int mask = keys.length - 1;
+            int i = (int) (mix(key) & mask);
+            while (keys[i] != key) {
+                if (keys[i] == EMPTY) {
+                    return;
+                }
+
+                i = (i + 1) & mask;
+            }
+
+            // moves later keys of the run into the gap, unless their own slot is after the gap,
+            // so a probe never stops at the gap before reaching them.
+            for (int j = (i + 1) & mask; keys[j] != EMPTY; j = (j + 1) & mask) {
+                int slot = (int) (mix(keys[j]) & mask);
+                if (((j - slot) & mask) >= ((j - i) & mask)) {
+                    keys[i] = keys[j];
+                    values[i] = values[j];
+                    i = j;
+                }
+            }
+
+            keys[i] = EMPTY;
+            size--;
+        }
+
+        private void grow() {
+            long[] oldKeys = keys;
+            long[] oldValues = values;
+            keys = newKeys(oldKeys.length * 2);
+            values = new long[oldKeys.length * 2];
+            size = 0;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != EMPTY) {
+                    put(oldKeys[i], oldValues[i]);
+                }
+            }
+        }
+
+        private static long[] newKeys(int capacity) {
+            long[] keys = new long[capacity];
+            for (int i = 0; i < capacity; i++) {
+                keys[i] = EMPTY;
+            }
+
+            return keys;
+        }
+
+        static long mix(long key) {
+            long h = key * 0x9E3779B97F4A7C15L;
+            return h ^ (h >>> 32);
+        }
+    }
+
+    /**
+     * A growable list of longs.
+     */
+    private static final class LongList {
+        private long[] values = new long[2];
+        private int size = 0;
+
+        void add(long value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+
+            values[size++] = value;
+        }
+
+        long get(int index) {
+            return values[index];
+        }
+
+        int size() {
+            return size;
+        }
+    }
+}
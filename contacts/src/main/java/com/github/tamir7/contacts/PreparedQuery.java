@@ -0,0 +1,46 @@
+/*
+ * Copyright 2016 Tamir Shomer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.tamir7.contacts;
+
+import java.util.List;
+
+/**
+ * An immutable, compiled {@link Query}.
+ * Values passed as {@link Query#parameter(int)} when the query was built are bound on every
+ * execution. A prepared query can be executed concurrently from multiple threads.
+ *
+ * @see Query#compile()
+ */
+public final class PreparedQuery {
+    private final Query query;
+    private final Where selection;
+
+    PreparedQuery(Query query, Where selection) {
+        this.query = query;
+        this.selection = selection;
+    }
+
+    /**
+     * Retrieves the contacts that satisfy the query with the given parameter values. Results are
+     * cached and reported to the query listener like those of {@link Query#find()}.
+     *
+     * @param args  The values of the parameters, by index.
+     * @return A list of all contacts obeying the conditions of the query.
+     */
+    public List<Contact> execute(Object... args) {
+        return query.execute(selection, args);
+    }
+}
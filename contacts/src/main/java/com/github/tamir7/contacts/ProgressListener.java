@@ -0,0 +1,32 @@
+/*
+ * Copyright 2016 Tamir Shomer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.tamir7.contacts;
+
+/**
+ * Receives the progress of a bulk write.
+ *
+ * @see Query#insertAll(Iterable, ProgressListener)
+ */
+public interface ProgressListener {
+
+    /**
+     * Called after every batch that was written to the provider. It isn't called for a batch the
+     * provider rejected, the write throws a {@link ContactWriteException} instead.
+     *
+     * @param contacts The number of contacts written so far.
+     */
+    void onProgress(int contacts);
+}
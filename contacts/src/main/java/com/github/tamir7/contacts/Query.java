@@ -16,250 +16,1381 @@
 
 package com.github.tamir7.contacts;
 
-import android.content.ContentProviderOperation;
 import android.content.ContentResolver;
-import android.content.ContentValues;
-import android.content.OperationApplicationException;
 import android.database.Cursor;
-import android.os.RemoteException;
+import android.database.sqlite.SQLiteException;
+import android.net.Uri;
+import android.os.Build;
 import android.provider.ContactsContract;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumSet;
 import java.util.HashMap;
-import java.util.HashSet;
-import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
 
-import static android.provider.ContactsContract.AUTHORITY;
+/**
+ * The Query class defines a query that is used to fetch Contact objects.
+ */
+public final class Query {
+    private static final int NO_LIMIT = -1;
+    // The Data content uri is backed by this view, sub selects read from it directly.
+    private static final String DATA_VIEW = "view_data";
+    // The tables behind the Contacts and DeletedContacts content uris.
+    private static final String CONTACTS_TABLE = "contacts";
+    private static final String DELETED_CONTACTS_TABLE = "deleted_contacts";
+    // Changes older than this are committed, so a sync token past them can't skip a change.
+    private static final long SETTLE_MILLIS = 5000;
+    // Whether the provider accepts sub selects, or null until it was probed.
+    private static volatile Boolean subselectsSupported = null;
+
+    /**
+     * The direction of a sort key.
+     */
+    public enum Direction {
+        ASCENDING,
+        DESCENDING
+    }
+
+    /**
+     * The sort keys of the contacts provider, which collate names by the rules of the locale of the
+     * device.
+     */
+    public enum SortKey {
+        /**
+         * Sorts by the display name, given name first in most locales.
+         */
+        PRIMARY(ContactsContract.Data.SORT_KEY_PRIMARY),
+
+        /**
+         * Sorts by the alternative display name, family name first in most locales.
+         */
+        ALTERNATIVE(ContactsContract.Data.SORT_KEY_ALTERNATIVE);
+
+        private final String column;
+
+        SortKey(String column) {
+            this.column = column;
+        }
+    }
+
+    private ContentResolver cr;
+    private final Map<String, Where> mimeWhere = new HashMap<>();
+    private Where defaultWhere = null;
+    private final Set<Contact.Field> include = EnumSet.allOf(Contact.Field.class);
+    private List<Query> innerQueries;
+    private ContactOrder order = null;
+    private Where afterWhere = null;
+    private int limit = NO_LIMIT;
+    private int orParallelism = TaskRunner.MAX_PARALLELISM;
+    // Set on the copies that findAsync and or branches execute.
+    private Cancellation cancellation = Cancellation.NONE;
+    // The span of the or branch this query resolves, while it runs.
+    private QuerySpan branch = null;
+    // The selection compiled by compile() and the values of its parameters, for an execution.
+    private Where compiledSelection = null;
+    private Object[] compiledValues = null;
+
+    Query(ContentResolver cr) {
+        this.cr = cr;
+    }
+
+    /**
+     * Copies a query, binding its parameters to the given values.
+     *
+     * @param query     The query to copy.
+     * @param values    The values of the parameters, or null to keep the parameters.
+     */
+    private Query(Query query, Object[] values) {
+        cr = query.cr;
+        defaultWhere = query.defaultWhere == null ? null : query.defaultWhere.bind(values);
+        for (Map.Entry<String, Where> entry : query.mimeWhere.entrySet()) {
+            mimeWhere.put(entry.getKey(), entry.getValue().bind(values));
+        }
+
+        include.clear();
+        include.addAll(query.include);
+        if (query.innerQueries != null) {
+            innerQueries = new ArrayList<>();
+            for (Query innerQuery : query.innerQueries) {
+                innerQueries.add(new Query(innerQuery, values));
+            }
+        }
+
+        order = query.order;
+        afterWhere = query.afterWhere == null ? null : query.afterWhere.bind(values);
+        limit = query.limit;
+        orParallelism = query.orParallelism;
+    }
+
+    /**
+     * Copies this query for a single execution, which can be cancelled without affecting others.
+     */
+    private Query copyForExecution(Cancellation cancellation) {
+        Query query = new Query(this, null);
+        query.cancellation = cancellation;
+        return query;
+    }
+
+    /**
+     * Creates a parameter, to be passed as the value of a constraint of a query that is compiled.
+     * The parameter is bound to the value at the given index when the compiled query is executed.
+     *
+     * @param index The index of the value in {@link PreparedQuery#execute(Object...)}.
+     * @return The parameter.
+     * @see #compile()
+     */
+    public static Object parameter(int index) {
+        if (index < 0) {
+            throw new IllegalArgumentException("index must not be negative");
+        }
+
+        return new Where.Parameter(index);
+    }
+
+    /**
+     * Add a constraint to the query for finding string values that contain the provided string.
+     *
+     * @param field     The field that the string to match is stored in.
+     * @param value     The substring that the value must contain.
+     * @return          this, so you can chain this call.
+     */
+    public Query whereContains(Contact.Field field, Object value) {
+        addNewConstraint(field, Where.contains(field.getColumn(), value));
+        return this;
+    }
+
+    /**
+     * Add a constraint to the query for finding string values that start with the provided string.
+     *
+     * @param field     The field that the string to match is stored in.
+     * @param value     The substring that the value must start with.
+     * @return          this, so you can chain this call.
+     */
+    public Query whereStartsWith(Contact.Field field, Object value) {
+        addNewConstraint(field, Where.startsWith(field.getColumn(), value));
+        return this;
+    }
+
+    /**
+     * Add a constraint to the query for finding values that equal the provided value.
+     *
+     * @param field     The field that the value to match is stored in.
+     * @param value     The value that the field value must be equal to.
+     * @return          this, so you can chain this call.
+     */
+    public Query whereEqualTo(Contact.Field field, Object value) {
+        addNewConstraint(field, Where.equalTo(field.getColumn(), value));
+        return this;
+    }
+
+
+    /**
+     * Add a constraint to the query for finding values that NOT equal the provided value.
+     *
+     * @param field     The field that the value to match is stored in.
+     * @param value     The value that the field value must be NOT equal to.
+     * @return          this, so you can chain this call.
+     */
+    public Query whereNotEqualTo(Contact.Field field, Object value) {
+        addNewConstraint(field, Where.notEqualTo(field.getColumn(), value));
+        return this;
+    }
+
+    /**
+     * Restrict the return contacts to only include contacts with a phone number.
+     *
+     * @return this, so you can chain this call.
+     */
+    public Query hasPhoneNumber() {
+        defaultWhere = addWhere(defaultWhere, Where.notEqualTo(ContactsContract.Data.HAS_PHONE_NUMBER, 0));
+        return this;
+    }
+
+    /**
+     * Constructs a query that is the or of the given queries.
+     * Previous calls to include are disregarded for the inner queries.
+     * Calling those functions on the returned query will have the desired effect.
+     * Calling where* functions on the return query is not permitted.
+     *
+     * @param queries The list of Queries to 'or' together.
+     * @return A query that is the 'or' of the passed in queries.
+     */
+    public Query or(List<Query> queries) {
+        return or(queries, TaskRunner.MAX_PARALLELISM);
+    }
+
+    /**
+     * Constructs a query that is the or of the given queries.
+     * When the inner queries are resolved one by one, up to parallelism of them run concurrently.
+     *
+     * @param queries       The list of Queries to 'or' together.
+     * @param parallelism   The maximum number of inner queries that run at the same time, capped at 4.
+     * @return A query that is the 'or' of the passed in queries.
+     * @see #or(List)
+     */
+    public Query or(List<Query> queries, int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be positive");
+        }
+
+        innerQueries = queries;
+        orParallelism = parallelism;
+        return this;
+    }
+
+    /**
+     * Limit the number of returned contacts.
+     * The provider selects the first contacts in result order, so only their rows are read.
+     *
+     * @param limit The maximum number of contacts to return.
+     * @return this, so you can chain this call.
+     */
+    public Query limit(int limit) {
+        if (limit < 0) {
+            throw new IllegalArgumentException("limit must not be negative");
+        }
+
+        this.limit = limit;
+        return this;
+    }
+
+    /**
+     * Sort the returned contacts by a field, after the sort keys that were already added.
+     * The first call replaces the default order by display name, and the contact id breaks the
+     * remaining ties. The provider sorts the contacts, so they are streamed and paged in this order.
+     * Only fields that are the same in all data rows of a contact can be sort keys, and keys added
+     * after {@link Contact.Field#ContactId} have no effect.
+     *
+     * @param field     The field to sort by: {@link Contact.Field#DisplayName},
+     *                  {@link Contact.Field#PhotoUri} or {@link Contact.Field#ContactId}.
+     * @param direction The direction of the sort key.
+     * @return this, so you can chain this call.
+     * @throws IllegalStateException If {@link #after(long, Object...)} was already called.
+     */
+    public Query orderBy(Contact.Field field, Direction direction) {
+        if (field.getMimeType() != null) {
+            throw new IllegalArgumentException("can't sort by a field of a data row: " + field);
+        }
+
+        return orderBy(field.getColumn(), direction, false);
+    }
+
+    /**
+     * Sort the returned contacts by a sort key of the provider, after the sort keys that were
+     * already added. Sort keys collate names by the rules of the locale of the device, unlike the
+     * display name.
+     *
+     * @param sortKey   The sort key.
+     * @param direction The direction of the sort key.
+     * @return this, so you can chain this call.
+     * @throws IllegalStateException If {@link #after(long, Object...)} was already called.
+     * @see #orderBy(Contact.Field, Direction)
+     */
+    public Query orderBy(SortKey sortKey, Direction direction) {
+        return orderBy(sortKey.column, direction, true);
+    }
+
+    private Query orderBy(String column, Direction direction, boolean localized) {
+        if (afterWhere != null) {
+            // the position of after() is resolved in the order it was called in.
+            throw new IllegalStateException("orderBy must be called before after");
+        }
+
+        order = (order == null ? ContactOrder.NONE : order).then(column, direction == Direction.DESCENDING,
+                localized);
+        return this;
+    }
+
+    private ContactOrder getOrder() {
+        return order == null ? ContactOrder.DEFAULT : order;
+    }
+
+    /**
+     * Restrict the returned contacts to the ones that come after the given contact in result order.
+     * Use it with {@link #limit(int)} to page through the results sorted by display name: pass the
+     * display name and the id of the last contact of the previous page to get the next page.
+     * Unlike an offset, the position is resolved by the provider, so every page costs the same.
+     *
+     * @param sortKey   The display name of the last contact of the previous page.
+     * @param contactId The id of the last contact of the previous page.
+     * @return this, so you can chain this call.
+     * @see #after(long, Object...)
+     */
+    public Query after(String sortKey, long contactId) {
+        return after(contactId, new Object[]{sortKey});
+    }
+
+    /**
+     * Restrict the returned contacts to the ones that come after the given position in result
+     * order. Set the order with {@link #orderBy(Contact.Field, Direction)} before calling this,
+     * the order can't be changed afterwards.
+     * The values of the provider sort keys are in the {@link ContactsContract.Data#SORT_KEY_PRIMARY}
+     * and {@link ContactsContract.Data#SORT_KEY_ALTERNATIVE} columns.
+     *
+     * @param contactId     The id of the last contact of the previous page.
+     * @param sortValues    The values of the sort keys of the last contact of the previous page,
+     *                      in the order the keys were added, without the contact id.
+     * @return this, so you can chain this call.
+     */
+    public Query after(long contactId, Object... sortValues) {
+        afterWhere = getOrder().after(sortValues, contactId);
+        return this;
+    }
+
+    /**
+     * Restrict the fields of returned Contacts to only include the provided fields.
+     *
+     * @param fields The array of keys to include in the result.
+     * @return this, so you can chain this call.
+     */
+    public Query include(Contact.Field... fields) {
+        include.clear();
+        include.addAll(Arrays.asList(fields));
+        return this;
+    }
+
+    /**
+     * Retrieves a list of contacts that satisfy this query.
+     *
+     * @return A list of all contacts obeying the conditions set in this query.
+     */
+    public List<Contact> find() {
+        QueryCache cache = Contacts.getCache();
+        String key = null;
+        long generation = 0;
+        if (cache != null) {
+            key = getCacheKey();
+            List<Contact> cached = cache.get(key);
+            if (cached != null) {
+                return cached;
+            }
+
+            generation = cache.getGeneration();
+        }
+
+        final List<Contact> contacts = new ArrayList<>();
+        ContactConsumer consumer = new ContactConsumer() {
+            @Override
+            public void accept(Contact contact) {
+                contacts.add(contact);
+            }
+        };
+        // all contacts are returned at once, so chunks of ids may be read concurrently.
+        read(new ContactAssembler(consumer), consumer);
+
+        if (cache != null) {
+            cache.put(key, contacts, generation);
+        }
+
+        return contacts;
+    }
+
+    /**
+     * Compiles this query for repeated execution with different values.
+     * The selection, including the values passed as {@link #parameter(int)}, is built once, and every
+     * execution sends the same SQL text with different selection arguments, so the provider can
+     * reuse its prepared statement. Changing this query later doesn't change the compiled query.
+     *
+     * @return The compiled query.
+     */
+    public PreparedQuery compile() {
+        Query query = new Query(this, null);
+        return new PreparedQuery(query, query.buildFetchSelection());
+    }
+
+    /**
+     * Executes a compiled query, like {@link #find()} with its parameters bound to the given values.
+     * The compiled selection is sent with the values as arguments; providers that reject sub selects
+     * run the bound query instead.
+     *
+     * @param selection The compiled selection of this query.
+     * @param values    The values of the parameters.
+     * @return The contacts that satisfy this query with the given values.
+     */
+    List<Contact> execute(Where selection, Object[] values) {
+        Query query = new Query(this, values);
+        query.compiledSelection = selection;
+        query.compiledValues = values;
+        return query.find();
+    }
+
+    /**
+     * Builds the canonical form of this query. Queries with the same canonical form return the
+     * same contacts.
+     */
+    String getCacheKey() {
+        StringBuilder key = new StringBuilder();
+        appendCacheKey(key);
+        key.append(" include ").append(include);
+        key.append(" order ").append(getOrder());
+        key.append(" after ").append(afterWhere == null ? null : afterWhere.toKeyString());
+        key.append(" limit ").append(limit);
+        return key.toString();
+    }
+
+    private void appendCacheKey(StringBuilder key) {
+        if (innerQueries != null) {
+            key.append("or(");
+            for (Query query : innerQueries) {
+                query.appendCacheKey(key);
+                key.append("; ");
+            }
+            key.append(")");
+            return;
+        }
+
+        key.append("where ").append(defaultWhere == null ? null : defaultWhere.toKeyString());
+        for (Map.Entry<String, Where> entry : new TreeMap<>(mimeWhere).entrySet()) {
+            key.append(" ").append(entry.getKey()).append(" ").append(entry.getValue().toKeyString());
+        }
+    }
+
+    /**
+     * Retrieves the contacts that satisfy this query in the background, using the executor of the
+     * library.
+     *
+     * @param callback  Called with the result, on the thread that ran the query.
+     * @return A task that cancels the query.
+     * @see Contacts#getExecutor()
+     */
+    public QueryTask findAsync(FindCallback callback) {
+        return findAsync(Contacts.getExecutor(), callback);
+    }
+
+    /**
+     * Retrieves the contacts that satisfy this query in the background.
+     * Cancelling the returned task cancels the running provider calls, and the callback is not
+     * called for a cancelled query. The task runs a copy of the query as it is now, so the query
+     * may be changed or run again, also concurrently, without affecting the task.
+     *
+     * @param executor  The executor that runs the query.
+     * @param callback  Called with the result, on the thread that ran the query.
+     * @return A task that cancels the query.
+     */
+    public QueryTask findAsync(Executor executor, final FindCallback callback) {
+        final QueryTask task = new QueryTask();
+        final Query execution = copyForExecution(task.getCancellation());
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (task.isCancelled()) {
+                    return;
+                }
+
+                List<Contact> contacts = null;
+                Exception error = null;
+                try {
+                    contacts = execution.find();
+                } catch (Exception e) {
+                    error = e;
+                }
+
+                if (!task.isCancelled()) {
+                    callback.done(contacts, error);
+                }
+            }
+        });
+
+        return task;
+    }
+
+    /**
+     * Streams the contacts that satisfy this query to the given consumer.
+     * Each contact is handed out as soon as all of its rows were read, so only one contact is held
+     * in memory at a time and the first results are available before the whole query completes.
+     * Contacts are delivered in the same order as {@link #find()} returns them.
+     *
+     * On providers without sub select support, a query with constraints on data rows first
+     * resolves the ids of the matching contacts, which are held in memory while the contacts are
+     * streamed.
+     *
+     * @param consumer  The consumer that receives the contacts.
+     */
+    public void forEach(ContactConsumer consumer) {
+        read(new ContactAssembler(consumer), null);
+    }
+
+    /**
+     * Retrieves the contacts that satisfy this query as a column oriented table.
+     * The table is filled in a single pass over the query results, without assembling a
+     * {@link Contact} per result, on providers with and without sub select support. It retains
+     * about a quarter less heap than the contacts {@link #find()} returns, but building it
+     * allocates about a fifth more, as its columns grow by copying.
+     * Rows are in the same order as {@link #find()} returns the contacts.
+     *
+     * @return A table of all contacts obeying the conditions set in this query.
+     */
+    public ContactTable findTable() {
+        ContactTable.Builder builder = new ContactTable.Builder();
+        read(builder, null);
+        return builder.build();
+    }
+
+    /**
+     * Plans the provider calls of this query without running it.
+     * The plan lists every call with its uri, projection, selection and sort order, and which steps
+     * feed their contact ids into the IN lists of later steps.
+     *
+     * @return The plan of this query.
+     */
+    public QueryPlan explain() {
+        return explain(false);
+    }
+
+    /**
+     * Plans the provider calls of this query, and optionally measures the plan in a dry run.
+     * The dry run makes the planned calls and counts the calls, rows and distinct contacts of every
+     * step, without building any contacts.
+     *
+     * @param measure   Whether to measure the plan.
+     * @return The plan of this query.
+     * @throws IllegalStateException If measured while the query has unbound parameters.
+     */
+    public QueryPlan explain(boolean measure) {
+        List<QueryPlan.Step> steps = planSteps(supportsSubselects());
+        if (measure) {
+            measure(steps);
+        }
+
+        return new QueryPlan(steps, measure);
+    }
+
+    /**
+     * Plans the provider calls that {@link #read(RowSink, ContactConsumer)} makes.
+     */
+    private List<QueryPlan.Step> planSteps(boolean subselects) {
+        List<QueryPlan.Step> steps = new ArrayList<>();
+        if (limit == 0 || (innerQueries != null && innerQueries.isEmpty())) {
+            return steps;
+        }
+
+        if (subselects) {
+            addFetchStep(steps, buildFetchSelection(), Collections.<Integer>emptyList());
+            return steps;
+        }
+
+        List<Integer> idSteps = planIds(steps);
+        if (idSteps == null) {
+            addFetchStep(steps, buildSelection(defaultWhere), Collections.<Integer>emptyList());
+        } else {
+            addFetchStep(steps, buildSelection(null), idSteps);
+        }
+
+        return steps;
+    }
+
+    private void addFetchStep(List<QueryPlan.Step> steps, Where selection, List<Integer> dependencies) {
+        String[] projection = FieldPlan.of(include).getProjection();
+        if (!dependencies.isEmpty()) {
+            // chunks of ids are merged by the values of their sort keys.
+            projection = getOrder().addColumns(projection);
+        }
+
+        steps.add(new QueryPlan.Step(steps.size(), QueryListener.Phase.FETCH,
+                ContactsContract.Data.CONTENT_URI, projection, selection, true,
+                getOrder().getSortOrder(), dependencies));
+    }
+
+    /**
+     * Plans the provider calls of {@link #resolveIds()}.
+     *
+     * @return The indexes of the steps that resolve the matching contact ids, or null if the query
+     * has no constraints that require them.
+     */
+    private List<Integer> planIds(List<QueryPlan.Step> steps) {
+        if (innerQueries != null) {
+            List<Integer> branches = new ArrayList<>();
+            for (Query query : innerQueries) {
+                branches.add(query.planInner(steps));
+            }
+
+            return branches;
+        }
+
+        if (mimeWhere.isEmpty()) {
+            return null;
+        }
+
+        return Collections.singletonList(planMimeIds(steps));
+    }
+
+    private int planInner(List<QueryPlan.Step> steps) {
+        if (mimeWhere.isEmpty()) {
+            steps.add(new QueryPlan.Step(steps.size(), QueryListener.Phase.RESOLVE_OR_BRANCH,
+                    ContactsContract.Data.CONTENT_URI, new String[]{ContactsContract.RawContacts.CONTACT_ID},
+                    defaultWhere, false, ContactsContract.RawContacts.CONTACT_ID,
+                    Collections.<Integer>emptyList()));
+            return steps.size() - 1;
+        }
+
+        return planMimeIds(steps);
+    }
+
+    /**
+     * Plans the provider calls of {@link #findMimeIds()}, each mime type reading the ids of the
+     * previous one.
+     */
+    private int planMimeIds(List<QueryPlan.Step> steps) {
+        List<Integer> dependencies = Collections.emptyList();
+        for (Map.Entry<String, Where> entry : mimeWhere.entrySet()) {
+            steps.add(new QueryPlan.Step(steps.size(), QueryListener.Phase.RESOLVE_IDS,
+                    ContactsContract.Data.CONTENT_URI, new String[]{ContactsContract.RawContacts.CONTACT_ID},
+                    buildIdSelection(entry.getKey(), entry.getValue()), false,
+                    ContactsContract.RawContacts.CONTACT_ID, dependencies));
+            dependencies = Collections.singletonList(steps.size() - 1);
+        }
+
+        return steps.size() - 1;
+    }
+
+    /**
+     * Runs the steps of a plan one after the other, feeding each step the union of the contact ids
+     * of its dependencies.
+     */
+    private void measure(List<QueryPlan.Step> steps) {
+        for (QueryPlan.Step step : steps) {
+            if (step.hasParameters()) {
+                throw new IllegalStateException("A query with parameters can't be measured");
+            }
+        }
+
+        List<IdSet> results = new ArrayList<>();
+        for (QueryPlan.Step step : steps) {
+            IdSet ids = null;
+            for (int dependency : step.getDependencies()) {
+                ids = ids == null ? results.get(dependency) : ids.union(results.get(dependency));
+            }
+
+            results.add(measure(step, ids));
+        }
+    }
+
+    /**
+     * Runs a step of a plan, with one call per chunk of the given ids.
+     *
+     * @param ids   The ids of the dependencies of the step, or null if it has none.
+     * @return The distinct contact ids of the returned rows.
+     */
+    private IdSet measure(QueryPlan.Step step, IdSet ids) {
+        int calls = 0;
+        int rows = 0;
+        IdSet contactIds = IdSet.EMPTY;
+        // a step without dependencies makes a single call, one with empty input ids makes none.
+        int size = ids == null ? 1 : ids.size();
+        for (int start = 0; start < size; start += IdSetExecutor.CHUNK_SIZE) {
+            Where where = step.getWhere(ids == null ? null : Where.in(ContactsContract.RawContacts.CONTACT_ID,
+                    ids.slice(start, Math.min(start + IdSetExecutor.CHUNK_SIZE, size))));
+            Cursor c = query(step.getUri(), step.getProjection(), where, step.getSortOrder());
+            calls++;
+            rows += c == null ? 0 : c.getCount();
+            contactIds = contactIds.union(readIds(c, null));
+        }
+
+        step.measure(calls, rows, contactIds.size());
+        return contactIds;
+    }
+
+    /**
+     * Reads the rows of the matching contacts into the given sink, one contact at a time.
+     *
+     * @param fallback  If not null, providers that reject sub selects return all contacts at once,
+     *                  read concurrently in chunks of ids, and hand them to this consumer instead.
+     */
+    private void read(RowSink sink, ContactConsumer fallback) {
+        if (limit == 0 || (innerQueries != null && innerQueries.isEmpty())) {
+            return;
+        }
+
+        // The constraints of all mime types and inner queries are compiled into a single selection
+        // of nested contact id sub selects, so the provider is queried once.
+        if (supportsSubselects()) {
+            QuerySpan span = QuerySpan.begin(QueryListener.Phase.FETCH, null);
+            try {
+                Where selection = compiledSelection == null ? buildFetchSelection() : compiledSelection;
+                readRows(query(ContactsContract.Data.CONTENT_URI, FieldPlan.of(include).getProjection(),
+                        selection, compiledValues, getOrder().getSortOrder()), sink, span);
+            } finally {
+                span.end();
+            }
+            return;
+        }
+
+        IdSet ids = resolveIds();
+        if (ids == null) {
+            QuerySpan span = QuerySpan.begin(QueryListener.Phase.FETCH, null);
+            try {
+                readRows(queryContacts(defaultWhere), sink, span);
+            } finally {
+                span.end();
+            }
+        } else if (fallback != null) {
+            for (Contact contact : findByIds(ids, defaultWhere)) {
+                fallback.accept(contact);
+            }
+        } else {
+            readByIds(ids, sink);
+        }
+    }
+
+    /**
+     * Reads the rows of the contacts with the given ids into a sink, in the order of this query.
+     * More ids than fit into one chunk are put in order by a call on the contacts table first, then
+     * the rows are read one chunk of consecutive contacts after the other.
+     */
+    private void readByIds(IdSet ids, RowSink sink) {
+        if (ids.isEmpty()) {
+            return;
+        }
+
+        QuerySpan span = QuerySpan.begin(QueryListener.Phase.FETCH, null);
+        try {
+            if (ids.size() <= IdSetExecutor.CHUNK_SIZE) {
+                readRows(queryContacts(addWhere(Where.in(ContactsContract.RawContacts.CONTACT_ID, ids),
+                        defaultWhere)), sink, span, limit);
+                return;
+            }
+
+            long[] orderedIds = readOrderedIds(ids);
+            int remaining = limit;
+            int start = 0;
+            while (start < orderedIds.length && remaining != 0) {
+                // with a limit, the next contacts in order are all that can be returned.
+                int end = Math.min(start + (remaining == NO_LIMIT ? IdSetExecutor.CHUNK_SIZE
+                        : Math.min(remaining, IdSetExecutor.CHUNK_SIZE)), orderedIds.length);
+                IdSet chunk = IdSet.of(Arrays.copyOfRange(orderedIds, start, end));
+                int count = readRows(queryContacts(addWhere(Where.in(ContactsContract.RawContacts.CONTACT_ID, chunk),
+                        defaultWhere)), sink, span, remaining);
+                if (remaining != NO_LIMIT) {
+                    remaining -= count;
+                }
+                start = end;
+            }
+        } finally {
+            span.end();
+        }
+    }
+
+    /**
+     * Reads the given ids in the order of this query from the contacts table.
+     */
+    private long[] readOrderedIds(IdSet ids) {
+        Cursor c = query(ContactsContract.Contacts.CONTENT_URI, new String[]{ContactsContract.Contacts._ID},
+                null, getOrder().getContactsSortOrder());
+        long[] orderedIds = new long[ids.size()];
+        int size = 0;
+        if (c == null) {
+            return orderedIds;
+        }
+
+        try {
+            while (size < orderedIds.length && c.moveToNext()) {
+                long id = c.getLong(0);
+                if (ids.contains(id)) {
+                    orderedIds[size++] = id;
+                }
+            }
+        } finally {
+            c.close();
+        }
+
+        return size == orderedIds.length ? orderedIds : Arrays.copyOf(orderedIds, size);
+    }
+
+    /**
+     * Retrieves the contacts with the given ids that satisfy the include, limit and after settings
+     * of this query. Large id sets are split into chunks that are queried concurrently.
+     *
+     * @param ids   The ids of the contacts to find.
+     * @return A list of the found contacts, in the same order as {@link #find()} returns them.
+     */
+    public List<Contact> findByIds(Collection<Long> ids) {
+        return findByIds(IdSet.of(ids));
+    }
+
+    /**
+     * Retrieves the contacts with the given ids that satisfy the include, limit and after settings
+     * of this query. Large id sets are split into chunks that are queried concurrently.
+     *
+     * @param ids   The ids of the contacts to find.
+     * @return A list of the found contacts, in the same order as {@link #find()} returns them.
+     */
+    public List<Contact> findByIds(long... ids) {
+        return findByIds(IdSet.of(ids));
+    }
+
+    /**
+     * Retrieves the changes of the contacts that satisfy this query since the given time.
+     * When nothing changed, a single query of the contacts table is made, so frequent syncs stay
+     * cheap on large address books. A contact may be reported again by the next call if it changed
+     * within a few seconds of this one.
+     *
+     * Before Android 4.3 the provider records neither update times nor deletions: all contacts
+     * satisfying this query are returned as updated, and no deletions are reported.
+     *
+     * @param timestamp The timestamp returned by {@link ContactChanges#getTimestamp()} for the
+     *                  previous sync, or 0 for an initial sync.
+     * @return The updated contacts and the ids of the deleted contacts since the given time.
+     * @throws IllegalStateException If {@link #limit(int)} or {@link #after(long, Object...)} was
+     *                               called: the returned timestamp covers all changes, so they
+     *                               can't be restricted to a page.
+     */
+    public ContactChanges changedSince(long timestamp) {
+        if (limit != NO_LIMIT || afterWhere != null) {
+            throw new IllegalStateException("changedSince can't be paged with limit or after");
+        }
+
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN_MR2) {
+            long now = System.currentTimeMillis();
+            return new ContactChanges(find(), new ArrayList<Long>(), now);
+        }
+
+        long start = System.currentTimeMillis();
+        ChangeScan scan = scanChanges(timestamp);
+
+        // a change in the same millisecond as the latest one may still be in flight, until the
+        // latest one is old enough; until then the next sync starts at the latest change again.
+        long next = timestamp;
+        if (scan.latest >= 0) {
+            next = scan.latest < start - SETTLE_MILLIS ? scan.latest + 1 : scan.latest;
+        }
+
+        return new ContactChanges(findMatchingByIds(scan.changedIds), scan.deletedIds, next);
+    }
+
+    /**
+     * Checks whether any contact was updated or deleted at or after the given time, without reading
+     * the changed contacts. Before Android 4.3 changes can't be detected, and every call returns true.
+     */
+    boolean hasChangesSince(long timestamp) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN_MR2) {
+            return true;
+        }
+
+        ChangeScan scan = scanChanges(timestamp);
+        return !scan.changedIds.isEmpty() || !scan.deletedIds.isEmpty();
+    }
+
+    /**
+     * Reads the ids of the contacts updated and deleted at or after the given time.
+     *
+     * If the provider supports sub selects, the query of the updated contacts also returns the
+     * contact with the lowest id when nothing was deleted. If that contact is older than the given
+     * time, the deleted contacts log isn't queried at all.
+     */
+    private ChangeScan scanChanges(long timestamp) {
+        ChangeScan scan = new ChangeScan();
+        Where where = Where.greaterThanOrEqual(ContactsContract.Contacts.CONTACT_LAST_UPDATED_TIMESTAMP,
+                timestamp);
+        if (supportsSubselects()) {
+            Where nothingDeleted = Where.not(Where.exists(DELETED_CONTACTS_TABLE,
+                    Where.greaterThanOrEqual(ContactsContract.DeletedContacts.CONTACT_DELETED_TIMESTAMP,
+                            timestamp)));
+            Where firstContact = Where.inSelect(ContactsContract.Contacts._ID,
+                    "MIN(" + ContactsContract.Contacts._ID + ")", CONTACTS_TABLE, null);
+            where = where.or(firstContact.and(nothingDeleted));
+        }
+
+        boolean nothingDeleted = false;
+        Cursor c = query(ContactsContract.Contacts.CONTENT_URI,
+                new String[]{ContactsContract.Contacts._ID,
+                        ContactsContract.Contacts.CONTACT_LAST_UPDATED_TIMESTAMP},
+                where, null);
+        IdSet.Builder changedIds = new IdSet.Builder(c == null ? 0 : c.getCount());
+        if (c != null) {
+            try {
+                while (c.moveToNext()) {
+                    long updated = c.getLong(1);
+                    if (updated >= timestamp) {
+                        changedIds.add(c.getLong(0));
+                        scan.latest = Math.max(scan.latest, updated);
+                    } else {
+                        // only the first contact is returned without being updated.
+                        nothingDeleted = true;
+                    }
+                }
+            } finally {
+                c.close();
+            }
+        }
+
+        scan.changedIds = changedIds.build();
+        if (nothingDeleted) {
+            return scan;
+        }
+
+        c = query(ContactsContract.DeletedContacts.CONTENT_URI,
+                new String[]{ContactsContract.DeletedContacts.CONTACT_ID,
+                        ContactsContract.DeletedContacts.CONTACT_DELETED_TIMESTAMP},
+                Where.greaterThanOrEqual(ContactsContract.DeletedContacts.CONTACT_DELETED_TIMESTAMP, timestamp),
+                null);
+        IdSet.Builder deletedIds = new IdSet.Builder(c == null ? 0 : c.getCount());
+        if (c != null) {
+            try {
+                while (c.moveToNext()) {
+                    deletedIds.add(c.getLong(0));
+                    scan.latest = Math.max(scan.latest, c.getLong(1));
+                }
+            } finally {
+                c.close();
+            }
+        }
+
+        IdSet deleted = deletedIds.build();
+        for (int i = 0; i < deleted.size(); i++) {
+            scan.deletedIds.add(deleted.get(i));
+        }
+
+        return scan;
+    }
+
+    /**
+     * Retrieves the contacts with the given ids that also satisfy the constraints of this query.
+     */
+    private List<Contact> findMatchingByIds(IdSet ids) {
+        if (ids.isEmpty() || (innerQueries != null && innerQueries.isEmpty())) {
+            return new ArrayList<>();
+        }
+
+        if (supportsSubselects()) {
+            return findByIds(ids, buildMatchWhere());
+        }
+
+        IdSet matchingIds = resolveIds();
+        return findByIds(matchingIds == null ? ids : matchingIds.intersect(ids), defaultWhere);
+    }
+
+    private List<Contact> findByIds(IdSet ids) {
+        return findByIds(ids, null);
+    }
+
+    private List<Contact> findByIds(IdSet ids, final Where matchWhere) {
+        if (limit == 0 || ids.isEmpty()) {
+            return new ArrayList<>();
+        }
 
-/**
- * The Query class defines a query that is used to fetch Contact objects.
- */
-public final class Query {
-    private ContentResolver cr;
-    private final Map<String, Where> mimeWhere = new HashMap<>();
-    private Where defaultWhere = null;
-    private Set<Contact.Field> include = new HashSet<>();
-    private List<Query> innerQueries;
+        final QuerySpan span = QuerySpan.begin(QueryListener.Phase.FETCH, null);
+        try {
+            final ContactOrder order = getOrder();
+            if (order.isLocalized() && ids.size() > IdSetExecutor.CHUNK_SIZE) {
+                return findRankedByIds(ids, matchWhere, span);
+            }
 
-    Query(ContentResolver cr) {
-        this.cr = cr;
-        include.addAll(Arrays.asList(Contact.Field.values()));
+            // chunks are merged by the values of their sort keys, so the projection includes them.
+            final String[] projection = order.addColumns(FieldPlan.of(include).getProjection());
+            List<SortedContact> sorted = IdSetExecutor.execute(ids, new IdSetExecutor.ChunkQuery<SortedContact>() {
+                @Override
+                public List<SortedContact> query(IdSet chunk) {
+                    Where where = Where.in(ContactsContract.RawContacts.CONTACT_ID, chunk);
+                    Cursor c = Query.this.query(ContactsContract.Data.CONTENT_URI, projection,
+                            buildSelection(addWhere(where, matchWhere)), order.getSortOrder());
+                    if (c == null) {
+                        return new ArrayList<>();
+                    }
+
+                    SortedAssembler assembler = new SortedAssembler(c, order);
+                    readRows(c, assembler, span);
+                    return assembler.contacts;
+                }
+            }, SortedContact.comparator(order), limit);
+
+            List<Contact> contacts = new ArrayList<>(sorted.size());
+            for (SortedContact contact : sorted) {
+                contacts.add(contact.contact);
+            }
+
+            return contacts;
+        } finally {
+            span.end();
+        }
     }
 
     /**
-     * Add a constraint to the query for finding string values that contain the provided string.
-     *
-     * @param field     The field that the string to match is stored in.
-     * @param value     The substring that the value must contain.
-     * @return          this, so you can chain this call.
+     * Retrieves the contacts with the given ids in an order with localized sort keys.
+     * Only the provider knows the collation of these keys, so the chunks are not merged here: every
+     * chunk returns its first contacts up to the limit, and one more call on the contacts table
+     * puts the union of them in order. The call has an IN list of the found ids if they fit into
+     * one chunk, and reads the ids of all contacts otherwise.
      */
-    public Query whereContains(Contact.Field field, Object value) {
-        addNewConstraint(field, Where.contains(field.getColumn(), value));
-        return this;
+    private List<Contact> findRankedByIds(IdSet ids, final Where matchWhere, final QuerySpan span) {
+        final String[] projection = FieldPlan.of(include).getProjection();
+        List<Contact> found = IdSetExecutor.executeAll(ids, new IdSetExecutor.ChunkQuery<Contact>() {
+            @Override
+            public List<Contact> query(IdSet chunk) {
+                Where where = Where.in(ContactsContract.RawContacts.CONTACT_ID, chunk);
+                final List<Contact> contacts = new ArrayList<>();
+                readContacts(Query.this.query(ContactsContract.Data.CONTENT_URI, projection,
+                        buildSelection(addWhere(where, matchWhere)), getOrder().getSortOrder()),
+                        new ContactConsumer() {
+                            @Override
+                            public void accept(Contact contact) {
+                                contacts.add(contact);
+                            }
+                        }, span);
+                return contacts;
+            }
+        });
+
+        Map<Long, Contact> byId = new HashMap<>(found.size() * 2);
+        IdSet.Builder foundIds = new IdSet.Builder(found.size());
+        for (Contact contact : found) {
+            byId.put(contact.getId(), contact);
+            foundIds.add(contact.getId());
+        }
+
+        Where where = found.size() <= IdSetExecutor.CHUNK_SIZE
+                ? Where.in(ContactsContract.Contacts._ID, foundIds.build()) : null;
+        Cursor c = query(ContactsContract.Contacts.CONTENT_URI, new String[]{ContactsContract.Contacts._ID},
+                where, getOrder().getContactsSortOrder());
+        List<Contact> contacts = new ArrayList<>(limit < 0 ? found.size() : Math.min(limit, found.size()));
+        if (c == null) {
+            return contacts;
+        }
+
+        try {
+            while (contacts.size() != limit && c.moveToNext()) {
+                Contact contact = byId.get(c.getLong(0));
+                if (contact != null) {
+                    contacts.add(contact);
+                }
+            }
+        } finally {
+            c.close();
+        }
+
+        return contacts;
+    }
+
+    private Cursor queryContacts(Where where) {
+        return query(ContactsContract.Data.CONTENT_URI,
+                FieldPlan.of(include).getProjection(),
+                buildSelection(where),
+                getOrder().getSortOrder());
     }
 
     /**
-     * Add a constraint to the query for finding string values that start with the provided string.
-     *
-     * @param field     The field that the string to match is stored in.
-     * @param value     The substring that the value must start with.
-     * @return          this, so you can chain this call.
+     * Adds the after bound and the mime type filter of the included fields to a selection.
      */
-    public Query whereStartsWith(Contact.Field field, Object value) {
-        addNewConstraint(field, Where.startsWith(field.getColumn(), value));
-        return this;
+    private Where buildSelection(Where where) {
+        where = addWhere(where, afterWhere);
+        return addWhere(where, FieldPlan.of(include).getMimeWhere());
     }
 
     /**
-     * Add a constraint to the query for finding values that equal the provided value.
-     *
-     * @param field     The field that the value to match is stored in.
-     * @param value     The value that the field value must be equal to.
-     * @return          this, so you can chain this call.
+     * Builds the selection of the rows of the contacts satisfying this query, with sub selects.
+     * With a limit, a sub select that the provider sorts and limits picks the ids of the first
+     * contacts, so the provider only reads the rows of the returned contacts.
      */
-    public Query whereEqualTo(Contact.Field field, Object value) {
-        addNewConstraint(field, Where.equalTo(field.getColumn(), value));
-        return this;
-    }
+    private Where buildFetchSelection() {
+        Where selection = buildSelection(buildMatchWhere());
+        if (limit == NO_LIMIT) {
+            return selection;
+        }
 
+        Where ids = Where.inSelect(ContactsContract.RawContacts.CONTACT_ID, ContactsContract.RawContacts.CONTACT_ID,
+                DATA_VIEW, selection, getOrder().getSortOrder(), limit);
+        return addWhere(ids, FieldPlan.of(include).getMimeWhere());
+    }
 
     /**
-     * Add a constraint to the query for finding values that NOT equal the provided value.
+     * Builds a selection that matches the data rows of all contacts satisfying this query.
      *
-     * @param field     The field that the value to match is stored in.
-     * @param value     The value that the field value must be NOT equal to.
-     * @return          this, so you can chain this call.
+     * @return The selection, or null if every contact matches.
      */
-    public Query whereNotEqualTo(Contact.Field field, Object value) {
-        addNewConstraint(field, Where.notEqualTo(field.getColumn(), value));
-        return this;
+    private Where buildMatchWhere() {
+        if (innerQueries != null) {
+            Where where = null;
+            for (Query query : innerQueries) {
+                Where innerWhere = query.buildMatchWhere();
+                if (innerWhere == null) {
+                    return null;
+                }
+
+                where = where == null ? innerWhere : where.or(innerWhere);
+            }
+
+            return where;
+        }
+
+        Where where = defaultWhere;
+        for (Map.Entry<String, Where> entry : mimeWhere.entrySet()) {
+            Where dataWhere = Where.equalTo(ContactsContract.Data.MIMETYPE, entry.getKey())
+                    .and(entry.getValue());
+            where = addWhere(where, Where.inSelect(ContactsContract.RawContacts.CONTACT_ID,
+                    ContactsContract.RawContacts.CONTACT_ID, DATA_VIEW, dataWhere));
+        }
+
+        return where;
     }
 
     /**
-     * Restrict the return contacts to only include contacts with a phone number.
-     *
-     * @return this, so you can chain this call.
+     * Checks whether the provider accepts sub selects in selections. Providers that enforce a strict
+     * selection grammar reject them, and queries then resolve the matching ids per mime type.
+     * The provider is probed once per process with a statement that is otherwise valid, so errors
+     * of later queries are never mistaken for a missing capability.
      */
-    public Query hasPhoneNumber() {
-        defaultWhere = addWhere(defaultWhere, Where.notEqualTo(ContactsContract.Data.HAS_PHONE_NUMBER, 0));
-        return this;
+    private boolean supportsSubselects() {
+        Boolean supported = subselectsSupported;
+        if (supported == null) {
+            supported = probeSubselects();
+            if (supported == null) {
+                // the provider is unavailable, the query itself finds no rows either.
+                return true;
+            }
+
+            subselectsSupported = supported;
+        }
+
+        return supported;
     }
 
     /**
-     * Constructs a query that is the or of the given queries.
-     * Previous calls to include are disregarded for the inner queries.
-     * Calling those functions on the returned query will have the desired effect.
-     * Calling where* functions on the return query is not permitted.
+     * Runs a sub select that matches no rows.
      *
-     * @param queries The list of Queries to 'or' together.
-     * @return A query that is the 'or' of the passed in queries.
+     * @return Whether the provider ran it, or null if the provider is unavailable.
      */
-    public Query or(List<Query> queries) {
-        innerQueries = queries;
-        return this;
+    private Boolean probeSubselects() {
+        Where probe = Where.inSelect(ContactsContract.RawContacts.CONTACT_ID,
+                ContactsContract.RawContacts.CONTACT_ID, DATA_VIEW, Where.isNull(ContactsContract.Data._ID));
+        Cursor c;
+        try {
+            c = query(ContactsContract.Data.CONTENT_URI, new String[]{ContactsContract.RawContacts.CONTACT_ID},
+                    probe, null);
+        } catch (SQLiteException | IllegalArgumentException e) {
+            return false;
+        }
+
+        if (c == null) {
+            return null;
+        }
+
+        c.close();
+        return true;
     }
 
     /**
-     * Restrict the fields of returned Contacts to only include the provided fields.
+     * Overrides whether the provider accepts sub selects, so benchmarks and tests can run both
+     * execution paths against the same provider.
      *
-     * @param fields The array of keys to include in the result.
-     * @return this, so you can chain this call.
+     * @param supported Whether sub selects are used, or null to probe the provider again.
      */
-    public Query include(Contact.Field... fields) {
-        include.clear();
-        include.addAll(Arrays.asList(fields));
-        return this;
+    static void setSubselectsSupported(Boolean supported) {
+        subselectsSupported = supported;
     }
 
     /**
-     * Retrieves a list of contacts that satisfy this query.
+     * Resolves the ids of the contacts matching the constraints of this query.
      *
-     * @return A list of all contacts obeying the conditions set in this query.
+     * @return The matching contact ids, or null if the query has no constraints that require them.
      */
-    public List<Contact> find() {
-        List<Long> ids = new ArrayList<>();
-
+    private IdSet resolveIds() {
         if (innerQueries != null) {
-            for (Query query : innerQueries) {
-                ids.addAll(query.findInner());
-            }
-        } else {
-            if (mimeWhere.isEmpty()) {
-                return find(null);
+            List<Callable<IdSet>> branches = new ArrayList<>();
+            for (final Query query : innerQueries) {
+                branches.add(new Callable<IdSet>() {
+                    @Override
+                    public IdSet call() {
+                        QuerySpan span = QuerySpan.begin(QueryListener.Phase.RESOLVE_OR_BRANCH, null);
+                        // the branch runs on a copy, so concurrent executions don't share its state.
+                        Query execution = query.copyForExecution(cancellation);
+                        execution.branch = span;
+                        try {
+                            IdSet ids = execution.findInner();
+                            span.addContacts(ids.size());
+                            return ids;
+                        } finally {
+                            span.end();
+                        }
+                    }
+                });
             }
 
-            for (Map.Entry<String, Where> entry : mimeWhere.entrySet()) {
-                ids = findIds(ids, entry.getKey(), entry.getValue());
+            IdSet ids = IdSet.EMPTY;
+            for (IdSet branchIds : TaskRunner.invokeAll(branches, orParallelism)) {
+                ids = ids.union(branchIds);
             }
+
+            return ids;
+        }
+
+        if (mimeWhere.isEmpty()) {
+            return null;
         }
 
-        return find(ids);
+        return findMimeIds();
     }
 
-    private List<Long> findIds(List<Long> ids, String mimeType, Where innerWhere) {
-        String[] projection = { ContactsContract.RawContacts.CONTACT_ID};
-        Where where = Where.equalTo(ContactsContract.Data.MIMETYPE, mimeType);
-        where = addWhere(where, innerWhere);
-        if (!ids.isEmpty()) {
-            where = addWhere(where, Where.in(ContactsContract.RawContacts.CONTACT_ID, new ArrayList<Object>(ids)));
+    /**
+     * Resolves the ids of the contacts matching the constraints of all mime types, one mime type
+     * after the other. Each step only looks at the ids found by the previous one.
+     */
+    private IdSet findMimeIds() {
+        IdSet ids = null;
+        for (Map.Entry<String, Where> entry : mimeWhere.entrySet()) {
+            ids = findIds(ids, entry.getKey(), entry.getValue());
+            if (ids.isEmpty()) {
+                // no contact can match the remaining constraints.
+                break;
+            }
         }
 
-        Cursor c = cr.query(ContactsContract.Data.CONTENT_URI,
-                projection,
-                where.toString(),
-                null,
-                ContactsContract.RawContacts.CONTACT_ID);
-
-        List<Long> returnIds = new ArrayList<>();
+        return ids;
+    }
 
-        if (c != null) {
-            while (c.moveToNext()) {
-                CursorHelper helper = new CursorHelper(c);
-                returnIds.add(helper.getContactId());
+    private IdSet findIds(IdSet ids, final String mimeType, final Where innerWhere) {
+        final QuerySpan span = QuerySpan.begin(QueryListener.Phase.RESOLVE_IDS, branch);
+        try {
+            IdSet result;
+            if (ids == null) {
+                result = findIds(mimeType, innerWhere, null, span);
+            } else {
+                result = IdSetExecutor.executeIds(ids, new IdSetExecutor.IdChunkQuery() {
+                    @Override
+                    public IdSet query(IdSet chunk) {
+                        return findIds(mimeType, innerWhere, chunk, span);
+                    }
+                });
             }
 
-            c.close();
+            span.addContacts(result.size());
+            return result;
+        } finally {
+            span.end();
+        }
+    }
+
+    private IdSet findIds(String mimeType, Where innerWhere, IdSet ids, QuerySpan span) {
+        String[] projection = { ContactsContract.RawContacts.CONTACT_ID};
+        Where where = buildIdSelection(mimeType, innerWhere);
+        if (ids != null) {
+            where = addWhere(where, Where.in(ContactsContract.RawContacts.CONTACT_ID, ids));
         }
 
-        return returnIds;
+        return readIds(query(ContactsContract.Data.CONTENT_URI,
+                projection,
+                where,
+                ContactsContract.RawContacts.CONTACT_ID), span);
     }
 
-    private List<Long> findInner() {
-        List<Long> ids = new ArrayList<>();
+    /**
+     * Builds the selection of the data rows of a mime type that satisfy the given constraints.
+     */
+    private Where buildIdSelection(String mimeType, Where innerWhere) {
+        Where where = Where.equalTo(ContactsContract.Data.MIMETYPE, mimeType);
+        where = addWhere(where, innerWhere);
+        return addWhere(where, afterWhere);
+    }
 
+    private IdSet findInner() {
         if (mimeWhere.isEmpty()) {
-            Cursor c = cr.query(ContactsContract.Data.CONTENT_URI,
+            return readIds(query(ContactsContract.Data.CONTENT_URI,
                     new String[]{ContactsContract.RawContacts.CONTACT_ID},
-                    defaultWhere.toString(),
-                    null,
-                    ContactsContract.RawContacts.CONTACT_ID);
-            if (c != null) {
-                while (c.moveToNext()) {
-                    CursorHelper helper = new CursorHelper(c);
-                    ids.add(helper.getContactId());
-                }
-
-                c.close();
-            }
-        } else {
-            for (Map.Entry<String, Where> entry : mimeWhere.entrySet()) {
-                ids = findIds(ids, entry.getKey(), entry.getValue());
-            }
+                    defaultWhere,
+                    ContactsContract.RawContacts.CONTACT_ID), branch);
         }
-        return ids;
+
+        return findMimeIds();
     }
 
-    private List<Contact> find(List<Long> ids) {
-        Where where;
-        if (ids == null) {
-            where = defaultWhere;
-        } else if (ids.isEmpty()) {
-            return new ArrayList<>();
-        } else {
-            where = Where.in(ContactsContract.RawContacts.CONTACT_ID, new ArrayList<>(ids));
+    /**
+     * Reads the contact ids of a cursor.
+     *
+     * @param span  The span that counts the rows read, or null.
+     */
+    private IdSet readIds(Cursor c, QuerySpan span) {
+        if (c == null) {
+            return IdSet.EMPTY;
         }
 
-        Cursor c = cr.query(ContactsContract.Data.CONTENT_URI,
-                buildProjection(),
-                addWhere(where, buildWhereFromInclude()).toString(),
-                null,
-                ContactsContract.Data.DISPLAY_NAME);
-
-        Map<Long, Contact> contactsMap = new LinkedHashMap<>();
+        try {
+            if (span != null) {
+                span.addRows(c.getCount());
+            }
 
-        if (c != null) {
+            IdSet.Builder ids = new IdSet.Builder(c.getCount());
+            CursorHelper helper = new CursorHelper(c);
             while (c.moveToNext()) {
-                CursorHelper helper = new CursorHelper(c);
-                Long contactId = helper.getContactId();
-                Contact contact = contactsMap.get(contactId);
-                if (contact == null) {
-                    contact = new Contact();
-                    contactsMap.put(contactId, contact);
-                }
-
-                contact.setId(contactId);
-                updateContact(contact, helper);
+                ids.add(helper.getContactId());
             }
 
+            return ids.build();
+        } finally {
             c.close();
         }
+    }
+
+    private void readContacts(Cursor c, ContactConsumer consumer, QuerySpan span) {
+        readRows(c, new ContactAssembler(consumer), span);
+    }
 
-        return new ArrayList<>(contactsMap.values());
+    /**
+     * Reads a cursor sorted by a {@link ContactOrder} contact by contact.
+     * All rows of a contact are adjacent in such a cursor, so a contact is complete as soon as the
+     * contact id changes. Reading stops once {@link #limit} contacts were read.
+     *
+     * @param span  The span that counts the rows read and the contacts built.
+     */
+    private void readRows(Cursor c, RowSink sink, QuerySpan span) {
+        readRows(c, sink, span, limit);
     }
 
-    private Where buildWhereFromInclude() {
-        Set<String> mimes = new HashSet<>();
-        for (Contact.Field field : include) {
-            if (field.getMimeType() != null) {
-                mimes.add(field.getMimeType());
+    /**
+     * Reads a cursor sorted by a {@link ContactOrder} contact by contact, up to the given number
+     * of contacts.
+     *
+     * @return The number of contacts read.
+     */
+    private int readRows(Cursor c, RowSink sink, QuerySpan span, int maxContacts) {
+        if (c == null) {
+            return 0;
+        }
+
+        int rows = 0;
+        int count = 0;
+        try {
+            CursorHelper helper = new CursorHelper(c, FieldPlan.of(include));
+            boolean started = false;
+            long contactId = 0;
+
+            while (c.moveToNext()) {
+                rows++;
+                long rowContactId = helper.getContactId();
+                if (!started || rowContactId != contactId) {
+                    cancellation.throwIfCancelled();
+                    if (started) {
+                        sink.endContact();
+                        if (++count == maxContacts) {
+                            return count;
+                        }
+                    }
+
+                    started = true;
+                    contactId = rowContactId;
+                    sink.startContact(contactId);
+                }
+
+                sink.addRow(helper);
+            }
+
+            if (started) {
+                sink.endContact();
+                count++;
             }
+
+            return count;
+        } finally {
+            c.close();
+            span.addRows(rows);
+            span.addContacts(count);
         }
-        return Where.in(ContactsContract.Data.MIMETYPE, new ArrayList<Object>(mimes));
     }
 
     private void addNewConstraint(Contact.Field field, Where where)  {
@@ -271,7 +1402,10 @@ public final class Query {
         }
     }
 
-    private void updateContact(Contact contact, CursorHelper helper) {
+    /**
+     * Adds the values of the current row of a helper to a contact.
+     */
+    static void updateContact(Contact contact, CursorHelper helper) {
         String displayName = helper.getDisplayName();
         if (displayName != null) {
             contact.addDisplayName(displayName);
@@ -347,119 +1481,220 @@ public final class Query {
         }
     }
 
-    private String[] buildProjection() {
-        Set<String> projection = new HashSet<>();
-
-        for (Contact.AbstractField field : Contact.InternalField.values()) {
-            projection.add(field.getColumn());
-        }
-
-        for (Contact.AbstractField field : include) {
-            projection.add(field.getColumn());
+    private Where addWhere(Where where, Where otherWhere) {
+        if (otherWhere == null) {
+            return where;
         }
 
-        return projection.toArray(new String[projection.size()]);
-    }
-
-    private Where addWhere(Where where, Where otherWhere) {
         return where == null ? otherWhere : where.and(otherWhere);
     }
 
-    private ContentValues forId(long id){
-        ContentValues cv = new ContentValues();
-        cv.put(ContactsContract.RawContacts.CONTACT_ID, id);
-        return cv;
+    private Cursor query(Uri uri, String[] projection, Where selection, String sortOrder) {
+        return query(uri, projection, selection, null, sortOrder);
     }
 
-    private void update(long id,  ContentValues cv){
-        cr.update(ContactsContract.Data.CONTENT_URI, cv, "{0}={1}".replace("{0}", ContactsContract.RawContacts.CONTACT_ID).replace("{1}", String.valueOf(id)), null);
+    private Cursor query(Uri uri, String[] projection, Where selection, Object[] values, String sortOrder) {
+        String selectionText = selection == null ? null : selection.toString();
+        String[] selectionArgs = selection == null ? null : selection.getArgs(values);
+        long start = QuerySpan.beginCall();
+        try {
+            return cancellation.query(cr, uri, projection, selectionText, selectionArgs, sortOrder);
+        } finally {
+            QuerySpan.endCall(uri, selectionText, start);
+        }
     }
 
-    private void insert(ContentValues cv){
-        cr.insert(ContactsContract.Data.CONTENT_URI, cv);
+    public boolean exists(Contact contact){
+        return contact.getId() != null && !findExistingIds(IdSet.of(contact.getId())).isEmpty();
     }
 
-    private void updateWhereId(long id, String key, String data){
-        ContentValues cv = new ContentValues();
-        cv.put(key, data);
-        update(id, cv);
-    }
+    private IdSet findExistingIds(IdSet ids) {
+        if (ids.isEmpty()) {
+            return IdSet.EMPTY;
+        }
 
-    private void updatePhoneNumber(long id, PhoneNumber phoneNumber){
-        ContentValues _cv = new ContentValues();
-        _cv.put(ContactsContract.CommonDataKinds.Phone.TYPE, PhoneNumber.Type.fromType(phoneNumber.getType()));
-        if (android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.JELLY_BEAN) _cv.put(ContactsContract.CommonDataKinds.Phone.NORMALIZED_NUMBER, phoneNumber.getNormalizedNumber());
-        _cv.put(ContactsContract.CommonDataKinds.Phone.NUMBER, phoneNumber.getNumber());
-        _cv.put(ContactsContract.CommonDataKinds.Phone.LABEL, phoneNumber.getLabel());
-        update(id, _cv);
+        return IdSetExecutor.executeIds(ids, new IdSetExecutor.IdChunkQuery() {
+            @Override
+            public IdSet query(IdSet chunk) {
+                Where where = Where.in(ContactsContract.RawContacts.CONTACT_ID, chunk)
+                        .and(Where.equalTo(ContactsContract.RawContacts.DELETED, 0));
+                return readIds(Query.this.query(ContactsContract.RawContacts.CONTENT_URI,
+                        new String[]{ContactsContract.RawContacts.CONTACT_ID},
+                        where,
+                        ContactsContract.RawContacts.CONTACT_ID), null);
+            }
+        });
     }
 
-    private void updatePhoneNumbers(long id, List<PhoneNumber> phoneNumbers){
-        for(PhoneNumber pn : phoneNumbers) updatePhoneNumber(id, pn);
+    private void insertContact(Contact contact){
+        BatchWriter writer = new BatchWriter(cr);
+        writer.insert(contact);
+        writer.flush();
     }
 
-    private void updateWebsite(long id, String website){
-        updateWhereId(id, ContactsContract.CommonDataKinds.Website.URL, website);
+    /**
+     * Inserts all given contacts as new contacts, with all of their data.
+     * The inserts are packed into batches limited by operation count and estimated parcel size.
+     *
+     * @param contacts The contacts to insert.
+     * @throws ContactWriteException If the provider rejects a batch of the writes.
+     */
+    public void insertAll(Iterable<Contact> contacts) {
+        insertAll(contacts, null);
     }
 
-    private void updateWebsites(long id, List<String> websites) {
-        for(String website : websites) updateWebsite(id, website);
+    /**
+     * Inserts all given contacts as new contacts, with all of their data.
+     * The inserts are packed into batches limited by operation count and estimated parcel size.
+     *
+     * @param contacts The contacts to insert.
+     * @param listener Notified after every written batch, may be null.
+     * @throws ContactWriteException If the provider rejects a batch of the writes.
+     */
+    public void insertAll(Iterable<Contact> contacts, ProgressListener listener) {
+        BatchWriter writer = new BatchWriter(cr, listener);
+        for (Contact contact : contacts) {
+            writer.insert(contact);
+        }
+
+        writer.flush();
     }
 
-    private ContentValues makeBasicInformation(Contact contact){
-        ContentValues cv = new ContentValues();
-        cv.put(ContactsContract.Data.RAW_CONTACT_ID, contact.getId());
-        cv.put(ContactsContract.Data.DISPLAY_NAME, contact.getDisplayName());
-        cv.put(ContactsContract.CommonDataKinds.StructuredName.GIVEN_NAME, contact.getGivenName());
-        cv.put(ContactsContract.CommonDataKinds.StructuredName.FAMILY_NAME, contact.getFamilyName());
-        cv.put(ContactsContract.CommonDataKinds.Organization.COMPANY, contact.getCompanyName());
-        cv.put(ContactsContract.CommonDataKinds.Organization.TITLE, contact.getCompanyTitle());
-        cv.put(ContactsContract.CommonDataKinds.Note.NOTE, contact.getNote());
-        return cv;
+    /**
+     * Saves a contact. An existing contact is updated in a single provider transaction,
+     * otherwise the contact is inserted.
+     *
+     * @param contact The contact to save.
+     * @throws ContactWriteException If the provider rejects the write.
+     */
+    public void updateContact(Contact contact){
+        if(!exists(contact)) insertContact(contact);
+        else {
+            BatchWriter writer = new BatchWriter(cr);
+            writer.update(contact);
+            writer.flush();
+        }
     }
 
-    private void updateBasicInformation(Contact contact){
-        update(contact.getId(), makeBasicInformation(contact));
+    /**
+     * Saves all given contacts. Existing contacts are updated, the rest are inserted.
+     * The writes of many contacts are packed into size limited batches, so saving thousands of
+     * contacts only takes a few provider transactions.
+     *
+     * @param contacts The contacts to save.
+     * @throws ContactWriteException If the provider rejects a batch of the writes.
+     */
+    public void saveAll(Collection<Contact> contacts) {
+        IdSet.Builder ids = new IdSet.Builder(contacts.size());
+        for (Contact contact : contacts) {
+            if (contact.getId() != null) {
+                ids.add(contact.getId());
+            }
+        }
+
+        IdSet existingIds = findExistingIds(ids.build());
+        BatchWriter writer = new BatchWriter(cr);
+        for (Contact contact : contacts) {
+            if (contact.getId() != null && existingIds.contains(contact.getId())) {
+                writer.update(contact);
+            } else {
+                writer.insert(contact);
+            }
+        }
+
+        writer.flush();
     }
 
-    public boolean exists(Contact contact){
-        return find(Collections.singletonList(contact.getId())).isEmpty();
+    /**
+     * Assembles the rows of each contact into a {@link Contact}.
+     */
+    private final class ContactAssembler implements RowSink {
+        private final ContactConsumer consumer;
+        private Contact contact;
+
+        ContactAssembler(ContactConsumer consumer) {
+            this.consumer = consumer;
+        }
+
+        @Override
+        public void startContact(long contactId) {
+            contact = new Contact();
+            contact.setId(contactId);
+        }
+
+        @Override
+        public void addRow(CursorHelper helper) {
+            updateContact(contact, helper);
+        }
+
+        @Override
+        public void endContact() {
+            consumer.accept(contact);
+            contact = null;
+        }
     }
 
-    private void insertContact(Contact contact){
-        ArrayList<ContentProviderOperation> ops = new ArrayList<ContentProviderOperation>();
-        ops.add(ContentProviderOperation.newInsert(
-                ContactsContract.RawContacts.CONTENT_URI)
-                .withValue(ContactsContract.RawContacts.ACCOUNT_TYPE, null)
-                .withValue(ContactsContract.RawContacts.ACCOUNT_NAME, null)
-                .build());
-        ops.add(ContentProviderOperation.newInsert(
-                ContactsContract.Data.CONTENT_URI)
-                .withValueBackReference(ContactsContract.Data.RAW_CONTACT_ID, 0)
-                .withValue(ContactsContract.Data.MIMETYPE,ContactsContract.CommonDataKinds.StructuredName.CONTENT_ITEM_TYPE)
-                .withValue(ContactsContract.CommonDataKinds.StructuredName.GIVEN_NAME, contact.getGivenName())
-                .withValue(ContactsContract.CommonDataKinds.StructuredName.DISPLAY_NAME, contact.getDisplayName())
-                .withValue(ContactsContract.CommonDataKinds.StructuredName.FAMILY_NAME, contact.getFamilyName())
-                .build());
+    /**
+     * Assembles contacts together with the values of their sort keys, read from the first row of
+     * every contact.
+     */
+    private static final class SortedAssembler implements RowSink {
+        private final Cursor c;
+        private final ContactOrder order;
+        private final int[] indexes;
+        private final List<SortedContact> contacts = new ArrayList<>();
+        private Object[] keys;
+        private Contact contact;
 
-        try {
-            cr.applyBatch(AUTHORITY, ops);
-        }catch (RemoteException | OperationApplicationException e){
-            e.printStackTrace();
+        SortedAssembler(Cursor c, ContactOrder order) {
+            this.c = c;
+            this.order = order;
+            indexes = order.getIndexes(c);
+        }
+
+        @Override
+        public void startContact(long contactId) {
+            keys = order.read(c, indexes);
+            contact = new Contact();
+            contact.setId(contactId);
         }
 
-        insert(makeBasicInformation(contact)); // is not creating new contact?
-        updateContact(contact);
+        @Override
+        public void addRow(CursorHelper helper) {
+            updateContact(contact, helper);
+        }
+
+        @Override
+        public void endContact() {
+            contacts.add(new SortedContact(keys, contact));
+            contact = null;
+        }
     }
 
-    public void updateContact(Contact contact){
-        if(!exists(contact)) insertContact(contact);
-        else {
-            long id = contact.getId();
-            updateBasicInformation(contact);
-            updateWebsites(id, contact.getWebsites());
-            updatePhoneNumbers(id, contact.getPhoneNumbers());
-            // todo do rest
+    private static final class ChangeScan {
+        private IdSet changedIds;
+        private final List<Long> deletedIds = new ArrayList<>();
+        // the latest update or deletion time, or -1 if nothing changed.
+        private long latest = -1;
+    }
+
+    private static final class SortedContact {
+        private final Object[] keys;
+        private final Contact contact;
+
+        SortedContact(Object[] keys, Contact contact) {
+            this.keys = keys;
+            this.contact = contact;
+        }
+
+        static Comparator<SortedContact> comparator(ContactOrder order) {
+            final Comparator<Object[]> keyOrder = order.comparator();
+            return new Comparator<SortedContact>() {
+                @Override
+                public int compare(SortedContact lhs, SortedContact rhs) {
+                    return keyOrder.compare(lhs.keys, rhs.keys);
+                }
+            };
         }
     }
 }
@@ -0,0 +1,190 @@
+/*
+ * Copyright 2016 Tamir Shomer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.tamir7.contacts;
+
+import android.database.ContentObserver;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A least recently used cache of query results, bounded by entry count and estimated size.
+ *
+ * The cache is invalidated whenever the contacts provider reports a change, and whenever the
+ * library writes contacts itself. A result is only stored if no invalidation happened while its
+ * query was running, so a stale result never enters the cache. The provider reports changes
+ * asynchronously, the writes of the library invalidate the cache before they return.
+ *
+ * Contacts are copied on the way in and out, so callers may modify the contacts they get without
+ * affecting the cache or each other. The copies are made outside of the lock, so concurrent hits
+ * only wait for the lookup of each other.
+ */
+final class QueryCache {
+    // Rough heap sizes of a contact and of a value it holds, besides the value's strings.
+    private static final int CONTACT_BYTES = 200;
+    private static final int VALUE_BYTES = 40;
+
+    private final int maxEntries;
+    private final long maxBytes;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes = 0;
+    private long generation = 0;
+
+    private final ContentObserver observer = new ContentObserver(null) {
+        @Override
+        public void onChange(boolean selfChange) {
+            invalidate();
+        }
+    };
+
+    QueryCache(int maxEntries, long maxBytes) {
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+    }
+
+    ContentObserver getObserver() {
+        return observer;
+    }
+
+    /**
+     * Gets the cached result of a query.
+     *
+     * @param key   The canonical form of the query.
+     * @return A copy of the cached contacts, or null if the query is not cached.
+     */
+    List<Contact> get(String key) {
+        Entry entry;
+        synchronized (this) {
+            entry = entries.get(key);
+        }
+
+        // the contacts of an entry are never modified, so they are copied without the lock.
+        return entry == null ? null : copy(entry.contacts);
+    }
+
+    /**
+     * Gets the current generation, to be passed to {@link #put} once the query completed.
+     */
+    synchronized long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Stores the result of a query, unless the cache was invalidated since the query started.
+     *
+     * @param key           The canonical form of the query.
+     * @param contacts      The result of the query.
+     * @param generation    The generation of the cache when the query started.
+     */
+    void put(String key, List<Contact> contacts, long generation) {
+        long size = estimateBytes(contacts);
+        if (size > maxBytes) {
+            return;
+        }
+
+        Entry entry = new Entry(copy(contacts), size);
+        synchronized (this) {
+            if (generation != this.generation) {
+                return;
+            }
+
+            Entry previous = entries.put(key, entry);
+            if (previous != null) {
+                bytes -= previous.bytes;
+            }
+
+            bytes += entry.bytes;
+            trim();
+        }
+    }
+
+    synchronized void invalidate() {
+        generation++;
+        entries.clear();
+        bytes = 0;
+    }
+
+    private void trim() {
+        Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+        while ((entries.size() > maxEntries || bytes > maxBytes) && iterator.hasNext()) {
+            bytes -= iterator.next().getValue().bytes;
+            iterator.remove();
+        }
+    }
+
+    private static List<Contact> copy(List<Contact> contacts) {
+        List<Contact> copy = new ArrayList<>(contacts.size());
+        for (Contact contact : contacts) {
+            copy.add(contact.copy());
+        }
+
+        return copy;
+    }
+
+    private static long estimateBytes(List<Contact> contacts) {
+        long bytes = 0;
+        for (Contact contact : contacts) {
+            bytes += CONTACT_BYTES;
+            bytes += estimateBytes(contact.getDisplayName()) + estimateBytes(contact.getGivenName()) +
+                    estimateBytes(contact.getFamilyName()) + estimateBytes(contact.getPhotoUri()) +
+                    estimateBytes(contact.getCompanyName()) + estimateBytes(contact.getCompanyTitle()) +
+                    estimateBytes(contact.getNote());
+
+            for (PhoneNumber phoneNumber : contact.getPhoneNumbers()) {
+                bytes += estimateBytes(phoneNumber.getNumber()) +
+                        estimateBytes(phoneNumber.getNormalizedNumber()) + estimateBytes(phoneNumber.getLabel());
+            }
+
+            for (Email email : contact.getEmails()) {
+                bytes += estimateBytes(email.getAddress()) + estimateBytes(email.getLabel());
+            }
+
+            for (Event event : contact.getEvents()) {
+                bytes += estimateBytes(event.getStartDate()) + estimateBytes(event.getLabel());
+            }
+
+            for (String website : contact.getWebsites()) {
+                bytes += estimateBytes(website);
+            }
+
+            for (Address address : contact.getAddresses()) {
+                bytes += estimateBytes(address.getFormattedAddress()) + estimateBytes(address.getStreet()) +
+                        estimateBytes(address.getCity()) + estimateBytes(address.getRegion()) +
+                        estimateBytes(address.getPostcode()) + estimateBytes(address.getCountry()) +
+                        estimateBytes(address.getLabel());
+            }
+        }
+
+        return bytes;
+    }
+
+    private static long estimateBytes(String value) {
+        return value == null ? 0 : VALUE_BYTES + 2 * value.length();
+    }
+
+    private static final class Entry {
+        private final List<Contact> contacts;
+        private final long bytes;
+
+        Entry(List<Contact> contacts, long bytes) {
+            this.contacts = contacts;
+            this.bytes = bytes;
+        }
+    }
+}
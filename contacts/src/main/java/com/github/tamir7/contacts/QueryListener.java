@@ -0,0 +1,69 @@
+/*
+ * Copyright 2016 Tamir Shomer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.tamir7.contacts;
+
+import android.net.Uri;
+
+/**
+ * Receives the provider calls and phases of query executions, to find out where their time goes.
+ * Listeners are called on the threads that run the queries, often concurrently, and should return
+ * quickly.
+ *
+ * @see Contacts#setQueryListener(QueryListener)
+ * @see QueryStats
+ */
+public interface QueryListener {
+
+    /**
+     * The phases of a query execution.
+     */
+    enum Phase {
+        /**
+         * Resolves the ids of the contacts that satisfy the constraints of one mime type.
+         */
+        RESOLVE_IDS,
+
+        /**
+         * Resolves the ids of the contacts that satisfy one of the queries of an or.
+         */
+        RESOLVE_OR_BRANCH,
+
+        /**
+         * Reads the data rows of the matching contacts and builds the contacts.
+         */
+        FETCH
+    }
+
+    /**
+     * Called after every query of the contacts provider.
+     *
+     * @param uri               The queried content uri.
+     * @param selectionLength   The length of the selection in characters, 0 if there is none.
+     * @param elapsedNanos      The time the call took.
+     */
+    void onProviderCall(Uri uri, int selectionLength, long elapsedNanos);
+
+    /**
+     * Called after every phase of a query execution.
+     *
+     * @param phase         The phase.
+     * @param rowsRead      The number of rows read from the provider in this phase.
+     * @param contacts      The number of contacts built, or of contact ids resolved by id phases.
+     * @param elapsedNanos  The time the phase took, including its provider calls.
+     */
+    void onPhase(Phase phase, int rowsRead, int contacts, long elapsedNanos);
+}
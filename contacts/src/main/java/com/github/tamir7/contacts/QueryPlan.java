@@ -0,0 +1,254 @@
+/*
+ * Copyright 2016 Tamir Shomer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.tamir7.contacts;
+
+import android.net.Uri;
+import android.provider.ContactsContract;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The provider calls a query makes, in the order they run.
+ *
+ * A step either runs once, or depends on the contact ids of earlier steps. A dependent step runs
+ * only when its input is known: the union of the ids of the steps it depends on fills an IN list
+ * on {@link Step#getIdColumn()}, queried in chunks of at most {@link Step#getMaxIdsPerCall()} ids.
+ * Steps that don't depend on each other, like the branches of an or, run concurrently.
+ * A fetch in an order by localized sort keys whose ids fill more than one chunk makes one more call
+ * on the contacts table, which puts the contacts of all chunks in order. The plan doesn't list it.
+ *
+ * @see Query#explain()
+ */
+public final class QueryPlan {
+    private final List<Step> steps;
+    private final boolean measured;
+
+    QueryPlan(List<Step> steps, boolean measured) {
+        this.steps = Collections.unmodifiableList(steps);
+        this.measured = measured;
+    }
+
+    /**
+     * @return The steps of the plan, in the order they run.
+     */
+    public List<Step> getSteps() {
+        return steps;
+    }
+
+    /**
+     * @return True if the steps carry the counts of a dry run.
+     */
+    public boolean isMeasured() {
+        return measured;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        for (Step step : steps) {
+            step.appendTo(builder);
+        }
+
+        return builder.toString();
+    }
+
+    /**
+     * A planned provider call.
+     */
+    public static final class Step {
+        private final int index;
+        private final QueryListener.Phase phase;
+        private final Uri uri;
+        private final String[] projection;
+        private final Where selection;
+        private final boolean idsFirst;
+        private final String sortOrder;
+        private final List<Integer> dependencies;
+        private int calls = -1;
+        private int rows = -1;
+        private int contacts = -1;
+
+        /**
+         * @param selection     The selection without the ids of the dependencies, or null.
+         * @param idsFirst      Whether the IN list of the ids comes before the selection.
+         * @param dependencies  The indexes of the steps whose ids this step reads.
+         */
+        Step(int index, QueryListener.Phase phase, Uri uri, String[] projection, Where selection,
+             boolean idsFirst, String sortOrder, List<Integer> dependencies) {
+            this.index = index;
+            this.phase = phase;
+            this.uri = uri;
+            this.projection = projection;
+            this.selection = selection;
+            this.idsFirst = idsFirst;
+            this.sortOrder = sortOrder;
+            this.dependencies = Collections.unmodifiableList(new ArrayList<>(dependencies));
+        }
+
+        /**
+         * Builds the selection of a call of this step.
+         *
+         * @param ids   The IN list of the ids read from the dependencies, or null if there are none.
+         */
+        Where getWhere(Where ids) {
+            if (ids == null || selection == null) {
+                return ids == null ? selection : ids;
+            }
+
+            return idsFirst ? ids.and(selection) : selection.and(ids);
+        }
+
+        boolean hasParameters() {
+            return selection != null && selection.hasParameters();
+        }
+
+        void measure(int calls, int rows, int contacts) {
+            this.calls = calls;
+            this.rows = rows;
+            this.contacts = contacts;
+        }
+
+        /**
+         * @return The index of this step in the plan.
+         */
+        public int getIndex() {
+            return index;
+        }
+
+        /**
+         * @return The phase of the query execution this step belongs to.
+         */
+        public QueryListener.Phase getPhase() {
+            return phase;
+        }
+
+        public Uri getUri() {
+            return uri;
+        }
+
+        public String[] getProjection() {
+            return projection.clone();
+        }
+
+        /**
+         * @return The selection, with a label in place of the ids read from the dependencies, or
+         * null if this step has no selection.
+         */
+        public String getSelection() {
+            Where ids = null;
+            if (!dependencies.isEmpty()) {
+                StringBuilder label = new StringBuilder("ids of steps ");
+                for (int i = 0; i < dependencies.size(); i++) {
+                    if (i > 0) {
+                        label.append(", ");
+                    }
+
+                    label.append(dependencies.get(i));
+                }
+
+                ids = Where.inPlanned(getIdColumn(), label.toString());
+            }
+
+            Where where = getWhere(ids);
+            return where == null ? null : where.toString();
+        }
+
+        /**
+         * @return The selection arguments, with unbound parameters shown as ?index, or null if
+         * there are none.
+         */
+        public String[] getSelectionArgs() {
+            return selection == null ? null : selection.describeArgs();
+        }
+
+        public String getSortOrder() {
+            return sortOrder;
+        }
+
+        /**
+         * @return The indexes of the steps whose contact ids this step reads, empty if it reads
+         * none.
+         */
+        public List<Integer> getDependencies() {
+            return dependencies;
+        }
+
+        /**
+         * @return The column of the IN list filled with the ids of the dependencies, or null if
+         * this step has no dependencies.
+         */
+        public String getIdColumn() {
+            return dependencies.isEmpty() ? null : ContactsContract.RawContacts.CONTACT_ID;
+        }
+
+        /**
+         * @return The largest number of ids in the IN list of a single call.
+         */
+        public int getMaxIdsPerCall() {
+            return IdSetExecutor.CHUNK_SIZE;
+        }
+
+        /**
+         * @return The number of provider calls of the dry run, or -1 if the plan wasn't measured.
+         * A dependent step whose input ids are empty makes no calls.
+         */
+        public int getCalls() {
+            return calls;
+        }
+
+        /**
+         * @return The number of rows the provider returned in the dry run, or -1 if the plan
+         * wasn't measured.
+         */
+        public int getRows() {
+            return rows;
+        }
+
+        /**
+         * @return The number of distinct contacts in the rows of the dry run, or -1 if the plan
+         * wasn't measured. Unlike the execution, the dry run ignores the limit of the query.
+         */
+        public int getContacts() {
+            return contacts;
+        }
+
+        void appendTo(StringBuilder builder) {
+            builder.append(index).append(": ").append(phase).append(' ').append(uri);
+            if (!dependencies.isEmpty()) {
+                builder.append(" <- ").append(dependencies);
+            }
+
+            builder.append("\n    projection: ").append(Arrays.toString(projection));
+            builder.append("\n    selection: ").append(getSelection());
+            String[] args = getSelectionArgs();
+            if (args != null) {
+                builder.append("\n    args: ").append(Arrays.toString(args));
+            }
+
+            builder.append("\n    sort order: ").append(sortOrder);
+            if (calls != -1) {
+                builder.append("\n    calls: ").append(calls).append(", rows: ").append(rows)
+                        .append(", contacts: ").append(contacts);
+            }
+
+            builder.append('\n');
+        }
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2016 Tamir Shomer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.tamir7.contacts;
+
+import android.annotation.TargetApi;
+import android.net.Uri;
+import android.os.Build;
+import android.os.Trace;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Measures a phase of a query execution, and reports it to the registered {@link QueryListener}.
+ *
+ * Phases and provider calls are also marked as sections of system traces on Android 4.3 and newer.
+ * A section must end on the thread that began it, so a span is ended where it was begun; the rows
+ * of a phase may still be counted from the threads that query its chunks.
+ */
+final class QuerySpan {
+    private static final String[] SECTIONS = {
+            "Contacts resolve ids", "Contacts resolve or branch", "Contacts fetch"};
+    private static final String PROVIDER_CALL_SECTION = "Contacts provider call";
+
+    private final QueryListener.Phase phase;
+    private final QuerySpan parent;
+    private final QueryListener listener;
+    private final long start;
+    private final AtomicInteger rows = new AtomicInteger();
+    private final AtomicInteger contacts = new AtomicInteger();
+
+    private QuerySpan(QueryListener.Phase phase, QuerySpan parent) {
+        this.phase = phase;
+        this.parent = parent;
+        listener = Contacts.getQueryListener();
+        start = System.nanoTime();
+    }
+
+    /**
+     * Begins a phase.
+     *
+     * @param phase     The phase.
+     * @param parent    The span that also counts the rows of this phase, or null.
+     * @return The span of the phase.
+     */
+    static QuerySpan begin(QueryListener.Phase phase, QuerySpan parent) {
+        beginSection(SECTIONS[phase.ordinal()]);
+        return new QuerySpan(phase, parent);
+    }
+
+    void addRows(int count) {
+        rows.addAndGet(count);
+        if (parent != null) {
+            parent.addRows(count);
+        }
+    }
+
+    void addContacts(int count) {
+        contacts.addAndGet(count);
+    }
+
+    void end() {
+        endSection();
+        if (listener != null) {
+            listener.onPhase(phase, rows.get(), contacts.get(), System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Begins a provider call.
+     *
+     * @return The start time of the call, to be passed to {@link #endCall(Uri, String, long)}.
+     */
+    static long beginCall() {
+        beginSection(PROVIDER_CALL_SECTION);
+        return System.nanoTime();
+    }
+
+    static void endCall(Uri uri, String selection, long start) {
+        long elapsed = System.nanoTime() - start;
+        endSection();
+        QueryListener listener = Contacts.getQueryListener();
+        if (listener != null) {
+            listener.onProviderCall(uri, selection == null ? 0 : selection.length(), elapsed);
+        }
+    }
+
+    private static void beginSection(String name) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+            beginTraceSection(name);
+        }
+    }
+
+    private static void endSection() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+            endTraceSection();
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+    private static void beginTraceSection(String name) {
+        Trace.beginSection(name);
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+    private static void endTraceSection() {
+        Trace.endSection();
+    }
+}
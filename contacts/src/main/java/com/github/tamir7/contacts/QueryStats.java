@@ -0,0 +1,245 @@
+/*
+ * Copyright 2016 Tamir Shomer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.tamir7.contacts;
+
+import android.net.Uri;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A {@link QueryListener} that aggregates latency histograms and counters of provider calls and
+ * query phases. It is safe to read while queries run.
+ *
+ * <pre>
+ * QueryStats stats = new QueryStats();
+ * Contacts.setQueryListener(stats);
+ * ...
+ * long p99 = stats.getPhaseLatency(QueryListener.Phase.FETCH).getPercentileNanos(99);
+ * </pre>
+ */
+public final class QueryStats implements QueryListener {
+    private static final Phase[] PHASES = Phase.values();
+
+    private final Histogram providerCalls = new Histogram();
+    private final AtomicLong selectionChars = new AtomicLong();
+    private final Histogram[] phaseLatencies = new Histogram[PHASES.length];
+    private final AtomicLongArray rowsRead = new AtomicLongArray(PHASES.length);
+    private final AtomicLongArray contacts = new AtomicLongArray(PHASES.length);
+
+    public QueryStats() {
+        for (int i = 0; i < PHASES.length; i++) {
+            phaseLatencies[i] = new Histogram();
+        }
+    }
+
+    @Override
+    public void onProviderCall(Uri uri, int selectionLength, long elapsedNanos) {
+        providerCalls.record(elapsedNanos);
+        selectionChars.addAndGet(selectionLength);
+    }
+
+    @Override
+    public void onPhase(Phase phase, int rowsRead, int contacts, long elapsedNanos) {
+        phaseLatencies[phase.ordinal()].record(elapsedNanos);
+        this.rowsRead.addAndGet(phase.ordinal(), rowsRead);
+        this.contacts.addAndGet(phase.ordinal(), contacts);
+    }
+
+    /**
+     * @return The latencies of all provider calls.
+     */
+    public Histogram getProviderCallLatency() {
+        return providerCalls;
+    }
+
+    /**
+     * @return The total length of the selections of all provider calls, in characters.
+     */
+    public long getSelectionChars() {
+        return selectionChars.get();
+    }
+
+    /**
+     * @param phase The phase.
+     * @return The latencies of the given phase.
+     */
+    public Histogram getPhaseLatency(Phase phase) {
+        return phaseLatencies[phase.ordinal()];
+    }
+
+    /**
+     * @param phase The phase.
+     * @return The number of rows read by all executions of the given phase.
+     */
+    public long getRowsRead(Phase phase) {
+        return rowsRead.get(phase.ordinal());
+    }
+
+    /**
+     * @param phase The phase.
+     * @return The number of contacts built, or of contact ids resolved, by all executions of the
+     * given phase.
+     */
+    public long getContacts(Phase phase) {
+        return contacts.get(phase.ordinal());
+    }
+
+    /**
+     * Clears all histograms and counters.
+     */
+    public void reset() {
+        providerCalls.reset();
+        selectionChars.set(0);
+        for (int i = 0; i < PHASES.length; i++) {
+            phaseLatencies[i].reset();
+            rowsRead.set(i, 0);
+            contacts.set(i, 0);
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append("provider calls: ").append(providerCalls)
+                .append(", selection chars: ").append(getSelectionChars());
+        for (Phase phase : PHASES) {
+            builder.append("\n").append(phase).append(": ").append(getPhaseLatency(phase))
+                    .append(", rows read: ").append(getRowsRead(phase))
+                    .append(", contacts: ").append(getContacts(phase));
+        }
+
+        return builder.toString();
+    }
+
+    /**
+     * A histogram of latencies in buckets of powers of two microseconds. Bucket 0 counts the
+     * latencies below one microsecond, bucket i those below 2^i microseconds, and the last bucket
+     * all longer ones.
+     */
+    public static final class Histogram {
+        private static final int BUCKETS = 32;
+
+        private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong totalNanos = new AtomicLong();
+        private final AtomicLong maxNanos = new AtomicLong();
+
+        private Histogram() {}
+
+        void record(long nanos) {
+            int bucket = 64 - Long.numberOfLeadingZeros(nanos / 1000);
+            counts.incrementAndGet(Math.min(bucket, BUCKETS - 1));
+            count.incrementAndGet();
+            totalNanos.addAndGet(nanos);
+            long max = maxNanos.get();
+            while (nanos > max && !maxNanos.compareAndSet(max, nanos)) {
+                max = maxNanos.get();
+            }
+        }
+
+        void reset() {
+            for (int i = 0; i < BUCKETS; i++) {
+                counts.set(i, 0);
+            }
+
+            count.set(0);
+            totalNanos.set(0);
+            maxNanos.set(0);
+        }
+
+        /**
+         * @return The number of buckets.
+         */
+        public int getBuckets() {
+            return BUCKETS;
+        }
+
+        /**
+         * @param bucket The index of the bucket.
+         * @return The number of latencies in the given bucket.
+         */
+        public long getCount(int bucket) {
+            return counts.get(bucket);
+        }
+
+        /**
+         * @param bucket The index of the bucket.
+         * @return The exclusive upper bound of the given bucket in nanoseconds, or
+         * {@link Long#MAX_VALUE} for the last bucket.
+         */
+        public long getUpperBoundNanos(int bucket) {
+            return bucket == BUCKETS - 1 ? Long.MAX_VALUE : (1L << bucket) * 1000;
+        }
+
+        /**
+         * @return The number of recorded latencies.
+         */
+        public long getCount() {
+            return count.get();
+        }
+
+        /**
+         * @return The sum of all recorded latencies in nanoseconds.
+         */
+        public long getTotalNanos() {
+            return totalNanos.get();
+        }
+
+        /**
+         * @return The longest recorded latency in nanoseconds.
+         */
+        public long getMaxNanos() {
+            return maxNanos.get();
+        }
+
+        /**
+         * Estimates a percentile by the upper bound of the bucket it falls in, capped at the longest
+         * recorded latency.
+         *
+         * @param percentile The percentile, between 0 and 100.
+         * @return The estimated percentile in nanoseconds, or 0 if nothing was recorded.
+         */
+        public long getPercentileNanos(double percentile) {
+            if (percentile < 0 || percentile > 100) {
+                throw new IllegalArgumentException("percentile must be between 0 and 100");
+            }
+
+            long total = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                total += counts.get(i);
+            }
+
+            long rank = (long) Math.ceil(percentile / 100 * total);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += counts.get(i);
+                if (seen >= rank && seen > 0) {
+                    return Math.min(getUpperBoundNanos(i), getMaxNanos());
+                }
+            }
+
+            return 0;
+        }
+
+        @Override
+        public String toString() {
+            return "count " + getCount() + ", p50 " + getPercentileNanos(50) / 1000 + "us, p99 "
+                    + getPercentileNanos(99) / 1000 + "us, max " + getMaxNanos() / 1000 + "us";
+        }
+    }
+}
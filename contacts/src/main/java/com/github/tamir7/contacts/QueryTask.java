@@ -0,0 +1,47 @@
+/*
+ * Copyright 2016 Tamir Shomer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.tamir7.contacts;
+
+/**
+ * A handle to a query that runs in the background.
+ *
+ * @see Query#findAsync(FindCallback)
+ */
+public final class QueryTask {
+    private final Cancellation cancellation = new Cancellation();
+
+    QueryTask() {}
+
+    /**
+     * Cancels the query. Running provider calls are cancelled and the callback is not called.
+     */
+    public void cancel() {
+        cancellation.cancel();
+    }
+
+    /**
+     * Whether the query was cancelled.
+     *
+     * @return true if {@link #cancel()} was called.
+     */
+    public boolean isCancelled() {
+        return cancellation.isCancelled();
+    }
+
+    Cancellation getCancellation() {
+        return cancellation;
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright 2016 Tamir Shomer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.tamir7.contacts;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * Keeps the result of a query in a memory mapped snapshot file, so it is available right after a
+ * cold start, before the provider was queried.
+ *
+ * Show {@link #get()} right away, then call {@link #refresh(Query, FindCallback)} to check the
+ * snapshot against the provider and rebuild it in the background if the contacts changed.
+ */
+public final class SnapshotStore {
+    private final File file;
+    private final Object writeLock = new Object();
+    private ContactSnapshot snapshot;
+
+    /**
+     * Creates a store for the given file.
+     *
+     * @param file  The snapshot file, typically in the cache or files directory of the app.
+     */
+    public SnapshotStore(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Gets the stored snapshot, without checking whether it is up to date.
+     * The file is mapped on the first call; no contact is decoded until it is accessed.
+     *
+     * @return The snapshot, or null if there is no valid snapshot yet.
+     */
+    public synchronized ContactSnapshot get() {
+        if (snapshot == null && file.exists()) {
+            try {
+                snapshot = ContactSnapshot.open(file);
+            } catch (IOException e) {
+                // a corrupt or outdated snapshot is rebuilt by the next refresh.
+                file.delete();
+            }
+        }
+
+        return snapshot;
+    }
+
+    /**
+     * Checks the stored snapshot in the background using the executor of the library, and rebuilds
+     * it from the given query if it is missing, stale or was built by a different query.
+     *
+     * @param query     The query the snapshot holds the result of.
+     * @param callback  Called with the up to date snapshot, on the thread that ran the refresh.
+     * @see Contacts#getExecutor()
+     */
+    public void refresh(Query query, FindCallback callback) {
+        refresh(Contacts.getExecutor(), query, callback);
+    }
+
+    /**
+     * Checks the stored snapshot in the background, and rebuilds it from the given query if it is
+     * missing, stale or was built by a different query.
+     *
+     * @param executor  The executor that runs the refresh.
+     * @param query     The query the snapshot holds the result of.
+     * @param callback  Called with the up to date snapshot, on the thread that ran the refresh.
+     */
+    public void refresh(Executor executor, final Query query, final FindCallback callback) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                ContactSnapshot result = null;
+                Exception error = null;
+                try {
+                    result = refresh(query);
+                } catch (Exception e) {
+                    error = e;
+                }
+
+                callback.done(result, error);
+            }
+        });
+    }
+
+    /**
+     * Checks the stored snapshot, and rebuilds it from the given query if it is missing, stale or
+     * was built by a different query. An up to date snapshot costs a single provider query that
+     * returns one row, or two queries if the provider doesn't support sub selects.
+     *
+     * @param query The query the snapshot holds the result of.
+     * @return The up to date snapshot.
+     * @throws IOException if the snapshot can't be written.
+     */
+    public ContactSnapshot refresh(Query query) throws IOException {
+        synchronized (writeLock) {
+            String queryKey = query.getCacheKey();
+            ContactSnapshot current = get();
+            if (current != null && queryKey.equals(current.getQueryKey())
+                    && !query.hasChangesSince(current.getTimestamp())) {
+                return current;
+            }
+
+            // the provider stamps changes with the same clock; changes are looked up at or after
+            // this time, so a change in the same millisecond as the query still counts as newer.
+            long timestamp = System.currentTimeMillis();
+            List<Contact> contacts = query.find();
+            ContactSnapshot.write(file, contacts, timestamp, queryKey);
+            ContactSnapshot fresh = ContactSnapshot.open(file);
+
+            synchronized (this) {
+                snapshot = fresh;
+            }
+
+            return fresh;
+        }
+    }
+}
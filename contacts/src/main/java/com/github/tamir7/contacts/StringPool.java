@@ -0,0 +1,50 @@
+/*
+ * Copyright 2016 Tamir Shomer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.tamir7.contacts;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Shares equal strings that repeat across contacts, like custom labels, cities and company names,
+ * so the contacts loaded by one query reference a single instance of each.
+ *
+ * A pool belongs to the {@link CursorHelper} of a single cursor and is not thread safe. It is
+ * dropped together with the helper, so values are never retained beyond the query that read them.
+ * The pool stops growing at {@link #MAX_SIZE} values, after which new values are returned as is.
+ */
+final class StringPool {
+    private static final int MAX_SIZE = 4096;
+
+    private final Map<String, String> pool = new HashMap<>();
+
+    String intern(String value) {
+        if (value == null) {
+            return null;
+        }
+
+        String pooled = pool.get(value);
+        if (pooled != null) {
+            return pooled;
+        }
+
+        if (pool.size() < MAX_SIZE) {
+            pool.put(value, value);
+        }
+
+        return value;
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright 2016 Tamir Shomer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.tamir7.contacts;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Runs independent provider calls concurrently on a small, library owned pool.
+ *
+ * The calling thread takes part in running the tasks, so nested calls cannot dead lock when all
+ * pool threads are busy: in the worst case the caller runs every task itself.
+ */
+final class TaskRunner {
+    static final int MAX_PARALLELISM = 4;
+
+    private static final ThreadPoolExecutor POOL = createPool("Contacts", MAX_PARALLELISM);
+
+    private TaskRunner() {}
+
+    /**
+     * Creates a pool of daemon threads that stop when idle.
+     *
+     * @param name      The name prefix of the threads.
+     * @param threads   The maximum number of threads.
+     * @return The pool.
+     */
+    static ThreadPoolExecutor createPool(final String name, int threads) {
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads,
+                30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, name + "-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    /**
+     * Runs all tasks using at most parallelism threads, including the calling one.
+     *
+     * @param tasks         The tasks to run.
+     * @param parallelism   The maximum number of tasks that run at the same time.
+     * @return The results of the tasks, in the order of the tasks.
+     */
+    static <T> List<T> invokeAll(final List<? extends Callable<T>> tasks, int parallelism) {
+        final int size = tasks.size();
+        final Object[] results = new Object[size];
+        final AtomicInteger next = new AtomicInteger();
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        final CountDownLatch done = new CountDownLatch(size);
+
+        Runnable worker = new Runnable() {
+            @Override
+            public void run() {
+                int index;
+                while ((index = next.getAndIncrement()) < size) {
+                    try {
+                        if (failure.get() == null) {
+                            results[index] = tasks.get(index).call();
+                        }
+                    } catch (Throwable t) {
+                        failure.compareAndSet(null, t);
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }
+        };
+
+        int workers = Math.min(Math.min(parallelism, MAX_PARALLELISM), size);
+        for (int i = 1; i < workers; i++) {
+            POOL.execute(worker);
+        }
+
+        worker.run();
+        awaitUninterruptibly(done);
+
+        Throwable t = failure.get();
+        if (t instanceof RuntimeException) {
+            throw (RuntimeException) t;
+        } else if (t instanceof Error) {
+            throw (Error) t;
+        } else if (t != null) {
+            throw new IllegalStateException(t);
+        }
+
+        @SuppressWarnings("unchecked")
+        List<T> list = (List<T>) Arrays.asList(results);
+        return list;
+    }
+
+    private static void awaitUninterruptibly(CountDownLatch latch) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                latch.await();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -13,114 +13,620 @@
  * See the License for the specific language governing permissions and
  * limitations under the License.
  */
-
 package com.github.tamir7.contacts;
 
-import android.database.DatabaseUtils;
-
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
 
-final class Where {
-    private StringBuilder where;
+/**
+ * An immutable selection, kept as a tree of predicates.
+ *
+ * Combining selections only links nodes: nested ANDs and ORs are flattened, and IN lists on the
+ * same column are merged. The tree is rendered once, in a single pass into a pre-sized builder,
+ * when its SQL text or arguments are first needed.
+ *
+ * String values are passed as selection arguments behind '?' placeholders, so the SQL text of a
+ * selection only depends on its structure and the provider can reuse its prepared statement.
+ * Numbers and booleans are written into the SQL text. A value may also be a {@link Parameter},
+ * which is bound when the selection is executed.
+ */
+abstract class Where {
+    private Rendered rendered;
 
-    private Where(String key, String value, Operator operator) {
-        where = new StringBuilder(key).append(operator.toString()).append(value);
+    static Where in(String key, List<?> objects) {
+        return new In(key, objects, null, Operator.In);
     }
 
-    private Where(String key, List<?> objects, Operator operator) {
-        where = new StringBuilder(key).append(operator).append("(");
-        boolean first = true;
-        for (Object o : objects) {
-            if (first) {
-                first = false;
-            } else {
-                where.append(", ");
-            }
-            where.append(toSafeString(o));
-        }
+    static Where in(String key, IdSet ids) {
+        return new In(key, null, ids, Operator.In);
+    }
 
-        where.append(")");
+    /**
+     * Matches the rows whose key is selected by a sub select.
+     */
+    static Where inSelect(String key, String column, String table, Where where) {
+        return new InSelect(key, column, table, where, null, 0);
     }
 
-    static Where in(String key, List<?> objects) {
-        return new Where(key, objects, Operator.In);
+    /**
+     * Selects the first distinct values of a column in the given order, with a sub select that the
+     * provider sorts and limits.
+     *
+     * @param where     The selection of the sub select, or null to select all rows.
+     * @param sortOrder The order of the values. All rows with the same value must sort the same.
+     * @param limit     The maximum number of distinct values.
+     */
+    static Where inSelect(String key, String column, String table, Where where, String sortOrder, int limit) {
+        return new InSelect(key, column, table, where, sortOrder, limit);
+    }
+
+    /**
+     * Matches all rows if the given table has a row that matches the given selection, and no row
+     * otherwise.
+     */
+    static Where exists(String table, Where where) {
+        return new Exists(table, where);
     }
 
-    static Where in(String key, String statement) {
-        return new Where(key, statement, Operator.In);
+    /**
+     * Matches the rows whose key is in a list of ids that is only known when the query runs.
+     * It describes a planned selection, with the given label in place of the ids.
+     */
+    static Where inPlanned(String key, String label) {
+        return new Planned(key, label);
     }
 
     static Where notIn(String key, List<?> objects) {
-        return new Where(key, objects, Operator.NotIn);
+        return new In(key, objects, null, Operator.NotIn);
     }
 
     static Where equalTo(String key, Object value) {
-        return new Where(key, toSafeString(value), Operator.Equal);
+        return new Compare(key, Operator.Equal, value, "", "");
     }
 
     static Where startsWith(String key, Object prefix) {
-        return new Where(key, String.format("'%s%%'", prefix.toString()), Operator.Like);
+        return new Compare(key, Operator.Like, prefix, "", "%");
     }
 
     static Where endsWith(String key, Object suffix) {
-        return new Where(key, String.format("'%%%s'", suffix.toString()), Operator.Like);
+        return new Compare(key, Operator.Like, suffix, "%", "");
     }
 
     static Where contains(String key, Object substring) {
-        return new Where(key, String.format("'%%%s%%'", substring.toString()), Operator.Like);
+        return new Compare(key, Operator.Like, substring, "%", "%");
     }
 
     static Where doesNotStartWith(String key, Object prefix) {
-        return new Where(key, String.format("'%s%%'", prefix.toString()), Operator.NotLike);
+        return new Compare(key, Operator.NotLike, prefix, "", "%");
     }
 
     static Where notEqualTo(String key, Object value) {
-        return new Where(key, toSafeString(value), Operator.NotEqual);
+        return new Compare(key, Operator.NotEqual, value, "", "");
     }
 
     static Where greaterThan(String key, Object value) {
-        return new Where(key, toSafeString(value), Operator.GreaterThan);
+        return new Compare(key, Operator.GreaterThan, value, "", "");
     }
 
     static Where greaterThanOrEqual(String key, Object value) {
-        return new Where(key, toSafeString(value), Operator.GreaterThanOrEqual);
+        return new Compare(key, Operator.GreaterThanOrEqual, value, "", "");
     }
 
     static Where lessThan(String key, Object value) {
-        return new Where(key, toSafeString(value), Operator.LessThan);
+        return new Compare(key, Operator.LessThan, value, "", "");
     }
 
     static Where lessThanOrEqual(String key, Object value) {
-        return new Where(key, toSafeString(value), Operator.LessThanOrEqual);
+        return new Compare(key, Operator.LessThanOrEqual, value, "", "");
     }
 
     static Where is(String key, Object value) {
-        return new Where(key, toSafeString(value), Operator.Is);
+        return new Compare(key, Operator.Is, value, "", "");
     }
 
     static Where isNot(String key, Object value) {
-        return new Where(key, toSafeString(value), Operator.IsNot);
+        return new Compare(key, Operator.IsNot, value, "", "");
+    }
+
+    static Where isNull(String key) {
+        return new Compare(key, Operator.Is, null, "", "");
+    }
+
+    static Where isNotNull(String key) {
+        return new Compare(key, Operator.IsNot, null, "", "");
+    }
+
+    static Where not(Where where) {
+        return where instanceof Not ? ((Not) where).where : new Not(where);
     }
 
     Where and(Where andWhere) {
-        where = new StringBuilder(String.format("( %s AND %s )", where.toString(),
-                andWhere.toString()));
-        return this;
+        return Junction.of(true, this, andWhere);
     }
 
     Where or(Where orWhere) {
-        where = new StringBuilder(String.format("( %s OR %s )", where.toString(),
-                orWhere.toString()));
-        return this;
+        return Junction.of(false, this, orWhere);
     }
 
-    private static String toSafeString(Object o) {
-        return o instanceof String  ? DatabaseUtils.sqlEscapeString(o.toString()) : o.toString();
+    /**
+     * Replaces the parameters of this selection with the given values.
+     *
+     * @param values    The values of the parameters, by index, or null to keep the parameters.
+     * @return A selection without parameters, or this if values is null.
+     */
+    Where bind(Object[] values) {
+        if (values == null || !hasParameters()) {
+            return this;
+        }
+
+        return new Bound(this, values);
+    }
+
+    /**
+     * Gets the selection arguments, binding parameters to the given values.
+     *
+     * @param values    The values of the parameters, by index, or null if there are none.
+     * @return The selection arguments, or null if the selection has none.
+     */
+    String[] getArgs(Object[] values) {
+        List<Object> args = render().args;
+        if (args.isEmpty()) {
+            return null;
+        }
+
+        String[] selectionArgs = new String[args.size()];
+        for (int i = 0; i < selectionArgs.length; i++) {
+            Object arg = args.get(i);
+            selectionArgs[i] = arg instanceof Placeholder ? ((Placeholder) arg).bind(values) : (String) arg;
+        }
+
+        return selectionArgs;
+    }
+
+    /**
+     * Gets the selection arguments for display, with unbound parameters shown as ?index.
+     *
+     * @return The selection arguments, or null if the selection has none.
+     */
+    String[] describeArgs() {
+        List<Object> args = render().args;
+        if (args.isEmpty()) {
+            return null;
+        }
+
+        String[] selectionArgs = new String[args.size()];
+        for (int i = 0; i < selectionArgs.length; i++) {
+            selectionArgs[i] = String.valueOf(args.get(i));
+        }
+
+        return selectionArgs;
+    }
+
+    boolean hasParameters() {
+        for (Object arg : render().args) {
+            if (arg instanceof Placeholder) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Gets a string that identifies the selection together with its arguments.
+     */
+    String toKeyString() {
+        Rendered r = render();
+        return r.args.isEmpty() ? r.sql : r.sql + " " + r.args;
     }
 
     @Override
     public String toString() {
-        return where.toString();
+        return render().sql;
+    }
+
+    private Rendered render() {
+        Rendered r = rendered;
+        if (r == null) {
+            StringBuilder sql = new StringBuilder(length());
+            List<Object> args = new ArrayList<>();
+            render(sql, args);
+            // Rendered only has final fields, so racing threads see a complete instance.
+            r = new Rendered(sql.toString(), Collections.unmodifiableList(args));
+            rendered = r;
+        }
+
+        return r;
+    }
+
+    /**
+     * Gets an estimate of the rendered length, used to size the builder.
+     */
+    abstract int length();
+
+    abstract void render(StringBuilder sql, List<Object> args);
+
+    /**
+     * Writes a value into the SQL text, or adds it to the arguments behind a placeholder.
+     */
+    private static void renderValue(Object value, String prefix, String suffix, StringBuilder sql,
+                                    List<Object> args) {
+        if (value instanceof Parameter) {
+            args.add(new Placeholder(((Parameter) value).index, prefix, suffix));
+            sql.append('?');
+        } else if ((value instanceof Number || value instanceof Boolean) && prefix.isEmpty() && suffix.isEmpty()) {
+            sql.append(value);
+        } else {
+            args.add(prefix + value + suffix);
+            sql.append('?');
+        }
+    }
+
+    private static final class Rendered {
+        private final String sql;
+        private final List<Object> args;
+
+        Rendered(String sql, List<Object> args) {
+            this.sql = sql;
+            this.args = args;
+        }
+    }
+
+    private static final class Compare extends Where {
+        private final String key;
+        private final Operator operator;
+        private final Object value;
+        private final String prefix;
+        private final String suffix;
+
+        Compare(String key, Operator operator, Object value, String prefix, String suffix) {
+            this.key = key;
+            this.operator = operator;
+            this.value = value;
+            this.prefix = prefix;
+            this.suffix = suffix;
+        }
+
+        @Override
+        int length() {
+            return key.length() + operator.value.length() + 4;
+        }
+
+        @Override
+        void render(StringBuilder sql, List<Object> args) {
+            sql.append(key).append(operator.value);
+            if (value == null) {
+                sql.append("NULL");
+            } else {
+                renderValue(value, prefix, suffix, sql, args);
+            }
+        }
+    }
+
+    private static final class In extends Where {
+        private final String key;
+        private final List<?> values;
+        private final IdSet ids;
+        private final Operator operator;
+
+        In(String key, List<?> values, IdSet ids, Operator operator) {
+            this.key = key;
+            this.values = values;
+            this.ids = ids;
+            this.operator = operator;
+        }
+
+        /**
+         * Merges two IN lists on the same column, or returns null if they can't be merged.
+         */
+        static Where merge(boolean and, Where first, Where second) {
+            if (!(first instanceof In) || !(second instanceof In)) {
+                return null;
+            }
+
+            In lhs = (In) first;
+            In rhs = (In) second;
+            if (!lhs.key.equals(rhs.key) || lhs.operator != Operator.In || rhs.operator != Operator.In) {
+                return null;
+            }
+
+            if (lhs.ids != null && rhs.ids != null) {
+                return new In(lhs.key, null, and ? lhs.ids.intersect(rhs.ids) : lhs.ids.union(rhs.ids), Operator.In);
+            }
+
+            if (and || lhs.values == null || rhs.values == null) {
+                return null;
+            }
+
+            Set<Object> values = new LinkedHashSet<>(lhs.values);
+            values.addAll(rhs.values);
+            return new In(lhs.key, new ArrayList<>(values), null, Operator.In);
+        }
+
+        @Override
+        int length() {
+            return key.length() + operator.value.length() + 2 + (ids != null ? ids.size() * 8 : values.size() * 3);
+        }
+
+        @Override
+        void render(StringBuilder sql, List<Object> args) {
+            sql.append(key).append(operator.value).append('(');
+            if (ids != null) {
+                ids.appendTo(sql);
+            } else {
+                for (int i = 0; i < values.size(); i++) {
+                    if (i > 0) {
+                        sql.append(", ");
+                    }
+
+                    renderValue(values.get(i), "", "", sql, args);
+                }
+            }
+
+            sql.append(')');
+        }
+    }
+
+    private static final class InSelect extends Where {
+        private final String key;
+        private final String column;
+        private final String table;
+        private final Where where;
+        private final String sortOrder;
+        private final int limit;
+
+        InSelect(String key, String column, String table, Where where, String sortOrder, int limit) {
+            this.key = key;
+            this.column = column;
+            this.table = table;
+            this.where = where;
+            this.sortOrder = sortOrder;
+            this.limit = limit;
+        }
+
+        @Override
+        int length() {
+            int length = key.length() + column.length() + table.length() + 26;
+            if (where != null) {
+                length += where.length();
+            }
+
+            if (sortOrder != null) {
+                length += column.length() + sortOrder.length() + 32;
+            }
+
+            return length;
+        }
+
+        @Override
+        void render(StringBuilder sql, List<Object> args) {
+            sql.append(key).append(Operator.In.value).append("(SELECT ").append(column)
+                    .append(" FROM ").append(table);
+            if (where != null) {
+                sql.append(" WHERE ");
+                where.render(sql, args);
+            }
+
+            if (sortOrder != null) {
+                sql.append(" GROUP BY ").append(column).append(" ORDER BY ").append(sortOrder)
+                        .append(" LIMIT ").append(limit);
+            }
+
+            sql.append(')');
+        }
+    }
+
+    private static final class Exists extends Where {
+        private final String table;
+        private final Where where;
+
+        Exists(String table, Where where) {
+            this.table = table;
+            this.where = where;
+        }
+
+        @Override
+        int length() {
+            return table.length() + where.length() + 31;
+        }
+
+        @Override
+        void render(StringBuilder sql, List<Object> args) {
+            sql.append("EXISTS (SELECT 1 FROM ").append(table).append(" WHERE ");
+            where.render(sql, args);
+            sql.append(')');
+        }
+    }
+
+    private static final class Planned extends Where {
+        private final String key;
+        private final String label;
+
+        Planned(String key, String label) {
+            this.key = key;
+            this.label = label;
+        }
+
+        @Override
+        int length() {
+            return key.length() + label.length() + 6;
+        }
+
+        @Override
+        void render(StringBuilder sql, List<Object> args) {
+            sql.append(key).append(Operator.In.value).append('(').append(label).append(')');
+        }
+    }
+
+    private static final class Junction extends Where {
+        private final boolean and;
+        private final Where[] children;
+
+        private Junction(boolean and, Where[] children) {
+            this.and = and;
+            this.children = children;
+        }
+
+        /**
+         * Combines two selections, flattening nested junctions of the same kind and merging IN
+         * lists on the same column.
+         */
+        static Where of(boolean and, Where first, Where second) {
+            Where merged = In.merge(and, first, second);
+            if (merged != null) {
+                return merged;
+            }
+
+            List<Where> children = new ArrayList<>();
+            addChildren(and, first, children);
+            addChildren(and, second, children);
+            return new Junction(and, children.toArray(new Where[children.size()]));
+        }
+
+        private static void addChildren(boolean and, Where where, List<Where> children) {
+            if (where instanceof Junction && ((Junction) where).and == and) {
+                for (Where child : ((Junction) where).children) {
+                    addChild(and, child, children);
+                }
+            } else {
+                addChild(and, where, children);
+            }
+        }
+
+        private static void addChild(boolean and, Where child, List<Where> children) {
+            for (int i = 0; i < children.size(); i++) {
+                Where merged = In.merge(and, children.get(i), child);
+                if (merged != null) {
+                    children.set(i, merged);
+                    return;
+                }
+            }
+
+            children.add(child);
+        }
+
+        @Override
+        int length() {
+            int length = 4;
+            for (Where child : children) {
+                length += child.length() + 5;
+            }
+
+            return length;
+        }
+
+        @Override
+        void render(StringBuilder sql, List<Object> args) {
+            String separator = and ? " AND " : " OR ";
+            sql.append("( ");
+            for (int i = 0; i < children.length; i++) {
+                if (i > 0) {
+                    sql.append(separator);
+                }
+
+                children[i].render(sql, args);
+            }
+
+            sql.append(" )");
+        }
+    }
+
+    private static final class Not extends Where {
+        private final Where where;
+
+        Not(Where where) {
+            this.where = where;
+        }
+
+        @Override
+        int length() {
+            return where.length() + 8;
+        }
+
+        @Override
+        void render(StringBuilder sql, List<Object> args) {
+            sql.append("NOT ( ");
+            where.render(sql, args);
+            sql.append(" )");
+        }
+    }
+
+    /**
+     * A selection whose parameters are bound to values.
+     */
+    private static final class Bound extends Where {
+        private final Where where;
+        private final Object[] values;
+
+        Bound(Where where, Object[] values) {
+            this.where = where;
+            this.values = values;
+        }
+
+        @Override
+        int length() {
+            return where.length();
+        }
+
+        @Override
+        void render(StringBuilder sql, List<Object> args) {
+            int start = args.size();
+            where.render(sql, args);
+            for (int i = start; i < args.size(); i++) {
+                Object arg = args.get(i);
+                if (arg instanceof Placeholder) {
+                    args.set(i, ((Placeholder) arg).bind(values));
+                }
+            }
+        }
+    }
+
+    /**
+     * A value that is bound when a {@link PreparedQuery} is executed.
+     *
+     * @see Query#parameter(int)
+     */
+    static final class Parameter {
+        private final int index;
+
+        Parameter(int index) {
+            this.index = index;
+        }
+
+        @Override
+        public String toString() {
+            return "?" + index;
+        }
+    }
+
+    private static final class Placeholder {
+        private final int index;
+        private final String prefix;
+        private final String suffix;
+
+        Placeholder(int index, String prefix, String suffix) {
+            this.index = index;
+            this.prefix = prefix;
+            this.suffix = suffix;
+        }
+
+        String bind(Object[] values) {
+            if (values == null || index >= values.length) {
+                throw new IllegalArgumentException("no value for parameter " + index + " in "
+                        + (values == null ? "[]" : Arrays.toString(values)));
+            }
+
+            return prefix + values[index] + suffix;
+        }
+
+        @Override
+        public String toString() {
+            return prefix + "?" + index + suffix;
+        }
     }
 
     private enum Operator {
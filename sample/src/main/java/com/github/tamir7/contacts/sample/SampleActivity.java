@@ -11,15 +11,12 @@ import androidx.core.content.ContextCompat;
 
 import com.github.tamir7.contacts.Contact;
 import com.github.tamir7.contacts.Contacts;
+import com.github.tamir7.contacts.FindCallback;
 import com.github.tamir7.contacts.Query;
 import com.google.gson.GsonBuilder;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.Callable;
-
-import bolts.Continuation;
-import bolts.Task;
 
 public class SampleActivity extends AppCompatActivity {
     private static final String TAG = SampleActivity.class.getSimpleName();
@@ -34,34 +31,28 @@ public class SampleActivity extends AppCompatActivity {
     }
 
     private void queryContacts() {
-        Task.callInBackground(new Callable<Void>() {
-            @Override
-            public Void call() throws Exception {
-                Query q = Contacts.getQuery();
-                q.include(Contact.Field.ContactId, Contact.Field.DisplayName, Contact.Field.PhoneNumber, Contact.Field.PhoneNormalizedNumber, Contact.Field.Email);
-                Query q1 = Contacts.getQuery();
-                q1.whereEqualTo(Contact.Field.DisplayName, "Tamir Shomer");
-                q1.hasPhoneNumber();
+        Query q = Contacts.getQuery();
+        q.include(Contact.Field.ContactId, Contact.Field.DisplayName, Contact.Field.PhoneNumber, Contact.Field.PhoneNormalizedNumber, Contact.Field.Email);
+        Query q1 = Contacts.getQuery();
+        q1.whereEqualTo(Contact.Field.DisplayName, "Tamir Shomer");
+        q1.hasPhoneNumber();
 
-                Query q2 = Contacts.getQuery();
-                q2.whereStartsWith(Contact.Field.ContactId, "791");
-                q2.hasPhoneNumber();
-                List<Query> queries = new ArrayList<>();
-                queries.add(q1);
-                queries.add(q2);
-                q.or(queries);
+        Query q2 = Contacts.getQuery();
+        q2.whereStartsWith(Contact.Field.ContactId, "791");
+        q2.hasPhoneNumber();
+        List<Query> queries = new ArrayList<>();
+        queries.add(q1);
+        queries.add(q2);
+        q.or(queries);
 
-                List<Contact> contacts = q.find();
-                Log.e(TAG, new GsonBuilder().setPrettyPrinting().create().toJson(contacts));
-                return null;
-            }
-        }).continueWith(new Continuation<Void, Void>() {
+        q.findAsync(new FindCallback() {
             @Override
-            public Void then(Task<Void> task) throws Exception {
-                if (task.isFaulted()) {
-                    Log.e(TAG, "find failed", task.getError());
+            public void done(List<Contact> contacts, Exception e) {
+                if (e != null) {
+                    Log.e(TAG, "find failed", e);
+                } else {
+                    Log.e(TAG, new GsonBuilder().setPrettyPrinting().create().toJson(contacts));
                 }
-                return null;
             }
         });
     }